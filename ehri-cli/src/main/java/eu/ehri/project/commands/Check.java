@@ -19,48 +19,87 @@
 
 package eu.ehri.project.commands;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.TransactionalGraph;
+import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.FramedGraph;
 import eu.ehri.project.acl.ContentTypes;
 import eu.ehri.project.acl.PermissionType;
 import eu.ehri.project.core.GraphManager;
 import eu.ehri.project.core.GraphManagerFactory;
+import eu.ehri.project.core.Tx;
+import eu.ehri.project.core.TxGraph;
+import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.exceptions.ItemNotFound;
 import eu.ehri.project.models.ContentType;
-import eu.ehri.project.models.DocumentaryUnit;
 import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.models.Group;
 import eu.ehri.project.models.Permission;
 import eu.ehri.project.models.PermissionGrant;
-import eu.ehri.project.models.Repository;
+import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.base.Accessible;
 import eu.ehri.project.models.base.Entity;
-import eu.ehri.project.models.base.Identifiable;
 import eu.ehri.project.models.base.PermissionScope;
-import eu.ehri.project.models.cvoc.Concept;
 import eu.ehri.project.models.events.SystemEventQueue;
 import eu.ehri.project.models.idgen.IdGeneratorUtils;
+import eu.ehri.project.tools.ChangeExporter;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 import static eu.ehri.project.models.EntityClass.CVOC_CONCEPT;
 import static eu.ehri.project.models.EntityClass.DOCUMENTARY_UNIT;
 import static eu.ehri.project.models.EntityClass.HISTORICAL_AGENT;
+import static eu.ehri.project.models.EntityClass.PERMISSION_GRANT;
 import static eu.ehri.project.models.EntityClass.REPOSITORY;
 import static eu.ehri.project.persistence.ActionManager.GLOBAL_EVENT_ROOT;
 
 /**
  * Sanity check various parts of the graph.
+ * <p>
+ * The items of each type are partitioned into ranges of node ID
+ * and checked in parallel, each worker using its own read-only
+ * transaction. Problems are reported as they are found, either as
+ * plain text on stderr or, with the <code>--json</code> option, as
+ * one JSON object per line on stdout.
  */
 public class Check extends BaseCommand {
 
     final static String NAME = "check";
     private static final String QUICK = "quick";
+    private static final String SINCE = "since";
+    private static final String SINCE_TIME = "since-time";
+    private static final String THREADS = "threads";
+    private static final String JSON = "json";
+
+    // The following types of item should ALL have a permission scope.
+    // Doc unit - either a repository or another doc unit
+    // Concept - a vocabulary
+    // Repository - a country
+    // Hist agent - an auth set
+    private static final List<EntityClass> SCOPED_TYPES = Lists.newArrayList(
+            DOCUMENTARY_UNIT, REPOSITORY, CVOC_CONCEPT, HISTORICAL_AGENT);
 
     @Override
     public String getHelp() {
@@ -78,6 +117,25 @@ public class Check extends BaseCommand {
                 .longOpt(QUICK)
                 .desc("Run fast, basic sanity checks only")
                 .build());
+        options.addOption(Option.builder()
+                .hasArg().type(String.class)
+                .longOpt(SINCE)
+                .desc("Only check items changed after the event with this ID")
+                .build());
+        options.addOption(Option.builder()
+                .hasArg().type(String.class)
+                .longOpt(SINCE_TIME)
+                .desc("Only check items changed after this ISO 8601 timestamp")
+                .build());
+        options.addOption(Option.builder()
+                .hasArg().type(Integer.class)
+                .longOpt(THREADS)
+                .desc("The number of threads to use (default: number of processors)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt(JSON)
+                .desc("Write findings to stdout as JSON, one per line")
+                .build());
     }
 
     @Override
@@ -85,25 +143,45 @@ public class Check extends BaseCommand {
             CommandLine cmdLine) throws Exception {
 
         GraphManager manager = GraphManagerFactory.getInstance(graph);
-        checkInitialization(graph, manager);
-        if (!cmdLine.hasOption(QUICK)) {
-            checkPermissionScopes(graph, manager);
-            checkOwnerPermGrantsHaveNoScope(manager);
+        int threads = cmdLine.hasOption(THREADS)
+                ? Integer.parseInt(cmdLine.getOptionValue(THREADS))
+                : Runtime.getRuntime().availableProcessors();
+        try (Report report = cmdLine.hasOption(JSON) ? new JsonReport(System.out) : new TextReport(System.err)) {
+            checkInitialization(graph, manager, report);
+            if (!cmdLine.hasOption(QUICK)) {
+                Map<EntityClass, List<Object>> items = Maps.newEnumMap(EntityClass.class);
+                if (cmdLine.hasOption(SINCE) || cmdLine.hasOption(SINCE_TIME)) {
+                    getChangedItems(graph, manager, items, Optional.ofNullable(cmdLine.getOptionValue(SINCE)),
+                            Optional.ofNullable(cmdLine.getOptionValue(SINCE_TIME)));
+                } else {
+                    for (EntityClass entityClass : Iterables.concat(SCOPED_TYPES,
+                            Collections.singleton(PERMISSION_GRANT))) {
+                        items.put(entityClass, getVertexIds(manager, entityClass));
+                    }
+                }
+                Checker checker = new Checker(graph, threads);
+                for (EntityClass entityClass : SCOPED_TYPES) {
+                    checker.forEach(items.getOrDefault(entityClass, Collections.emptyList()),
+                            vertex -> checkPermissionScope(graph, vertex, report));
+                }
+                checker.forEach(items.getOrDefault(PERMISSION_GRANT, Collections.emptyList()),
+                        vertex -> checkOwnerPermGrantHasNoScope(graph, vertex, report));
+            }
         }
 
         return 0;
     }
 
-    private void checkInitialization(FramedGraph<?> graph, GraphManager manager) {
+    private void checkInitialization(FramedGraph<?> graph, GraphManager manager, Report report) {
         if (graph.getBaseGraph().getVertices().iterator().hasNext()) {
             try {
                 SystemEventQueue queue =
                         manager.getEntity(GLOBAL_EVENT_ROOT, EntityClass.SYSTEM, SystemEventQueue.class);
                 if (!queue.getSystemEvents().iterator().hasNext()) {
-                    System.err.println("Global event iterator is empty!");
+                    report.add("emptyEventQueue", null, "Global event iterator is empty!");
                 }
             } catch (ItemNotFound itemNotFound) {
-                System.err.println("Unable to read event root in graph!");
+                report.add("missingEventRoot", null, "Unable to read event root in graph!");
             }
 
             try {
@@ -116,80 +194,203 @@ public class Check extends BaseCommand {
                     manager.getEntity(ct.getName(), ContentType.class);
                 }
             } catch (ItemNotFound itemNotFound) {
-                System.err.println("Unable to find item in graph with id: " + itemNotFound.getValue());
+                report.add("missingItem", null,
+                        "Unable to find item in graph with id: " + itemNotFound.getValue());
             }
         } else {
-            System.err.println("Graph contains no vertices (has it been initialized?)");
+            report.add("uninitialized", null, "Graph contains no vertices (has it been initialized?)");
+        }
+    }
+
+    private static List<Object> getVertexIds(GraphManager manager, EntityClass entityClass) {
+        List<Object> ids = Lists.newArrayList();
+        try (CloseableIterable<Vertex> vertices = manager.getVertices(entityClass)) {
+            for (Vertex vertex : vertices) {
+                ids.add(vertex.getId());
+            }
         }
+        return ids;
     }
 
     /**
-     * The following types of item should ALL have a permission scope.
-     * <p>
-     * Doc unit - either a repository or another doc unit
-     * Concept - a vocabulary
-     * Repository - a country
-     * Hist agent - an auth set
-     *
-     * @param graph   The graph
-     * @param manager The graph manager
+     * Find the vertices of items changed since a given event
+     * or time, and the permission grants on those items.
      */
-    private void checkPermissionScopes(FramedGraph<?> graph,
-            GraphManager manager) {
-
-        List<EntityClass> types = Lists.newArrayList(DOCUMENTARY_UNIT, REPOSITORY, CVOC_CONCEPT, HISTORICAL_AGENT);
-
-        for (EntityClass entityClass : types) {
-            try (CloseableIterable<? extends Entity> items = manager.getEntities(entityClass, entityClass.getJavaClass())) {
-                for (Entity item : items) {
-                    Accessible entity = item.as(Accessible.class);
-                    PermissionScope scope = entity.getPermissionScope();
-                    if (scope == null) {
-                        System.err.println("Missing scope: " + entity.getId() + " (" + entity.asVertex().getId() + ")");
-                    } else {
-                        switch (manager.getEntityClass(item)) {
-                            case DOCUMENTARY_UNIT:
-                                checkIdGeneration(graph.frame(item.asVertex(), DocumentaryUnit.class), scope);
-                                break;
-                            case REPOSITORY:
-                                checkIdGeneration(graph.frame(item.asVertex(), Repository.class), scope);
-                                break;
-                            case CVOC_CONCEPT:
-                                checkIdGeneration(graph.frame(item.asVertex(), Concept.class), scope);
-                            case HISTORICAL_AGENT:
-                                checkIdGeneration(graph.frame(item.asVertex(), Concept.class), scope);
-                            default:
-                        }
-                    }
+    private static void getChangedItems(FramedGraph<?> graph, GraphManager manager,
+            Map<EntityClass, List<Object>> items, Optional<String> since, Optional<String> sinceTime)
+            throws ItemNotFound {
+        Set<Object> grants = Sets.newLinkedHashSet();
+        new ChangeExporter(graph).getChanges(since, sinceTime, change -> {
+            if (change.getChangeType() == ChangeExporter.ChangeType.deleted) {
+                return;
+            }
+            try {
+                Accessible item = manager.getEntity(change.getId(), Accessible.class);
+                EntityClass entityClass = manager.getEntityClass(item);
+                if (SCOPED_TYPES.contains(entityClass)) {
+                    items.computeIfAbsent(entityClass, k -> Lists.newArrayList())
+                            .add(item.asVertex().getId());
+                }
+                for (PermissionGrant grant : item.getPermissionGrants()) {
+                    grants.add(grant.asVertex().getId());
                 }
+            } catch (ItemNotFound e) {
+                // Deleted since the change was found
             }
+        });
+        items.put(PERMISSION_GRANT, Lists.newArrayList(grants));
+    }
+
+    private static void checkPermissionScope(FramedGraph<?> graph, Vertex vertex, Report report) {
+        Accessible entity = graph.frame(vertex, Accessible.class);
+        PermissionScope scope = entity.getPermissionScope();
+        if (scope == null) {
+            report.add("missingScope", vertex,
+                    "Missing scope: " + entity.getId() + " (" + vertex.getId() + ")");
+        } else {
+            checkIdGeneration(vertex, scope, report);
+        }
+    }
+
+    private static void checkIdGeneration(Vertex vertex, PermissionScope scope, Report report) {
+        String id = vertex.getProperty(EntityType.ID_KEY);
+        String ident = vertex.getProperty(Ontology.IDENTIFIER_KEY);
+        List<String> path = Lists.newArrayList(Iterables.concat(scope.idPath(), Lists.newArrayList(ident)));
+        String finalId = IdGeneratorUtils.joinPath(path);
+        if (!finalId.equals(id)) {
+            report.add("idMismatch", vertex, String.format(
+                    "Generated ID does not match scopes: '%s' -> %s + %s", id, path, ident));
         }
     }
 
-    private void checkIdGeneration(Identifiable doc, PermissionScope scope) {
-        if (scope != null) {
-            String ident = doc.getIdentifier();
-            List<String> path = Lists.newArrayList(Iterables.concat(scope.idPath(), Lists.newArrayList(ident)));
-            String finalId = IdGeneratorUtils.joinPath(path);
-            if (!finalId.equals(doc.getId())) {
-                System.err.println(String.format("Generated ID does not match scopes: '%s' -> %s + %s",
-                        doc.getId(), path, ident));
+    private static void checkOwnerPermGrantHasNoScope(FramedGraph<?> graph, Vertex vertex, Report report) {
+        PermissionGrant grant = graph.frame(vertex, PermissionGrant.class);
+        Entity scope = grant.getScope();
+        Entity perm = grant.getPermission();
+        if (scope != null && perm != null && perm.getId().equals(PermissionType.OWNER.getName())) {
+            report.add("ownerGrantWithScope", vertex,
+                    String.format("Owner permission grant with scope: %s", vertex.getId()));
+        }
+    }
+
+    /**
+     * Runs a check on partitions of vertices on a thread pool.
+     */
+    private static class Checker {
+        private final FramedGraph<?> graph;
+        private final int threads;
+
+        Checker(FramedGraph<?> graph, int threads) {
+            this.graph = graph;
+            this.threads = Math.max(1, threads);
+        }
+
+        void forEach(List<Object> ids, Consumer<Vertex> check) throws Exception {
+            if (ids.isEmpty()) {
+                return;
+            }
+            // Sort into ranges of node ID, where IDs are comparable.
+            if (ids.get(0) instanceof Comparable) {
+                ids.sort(null);
+            }
+            int size = (ids.size() + threads - 1) / threads;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> futures = Lists.newArrayList();
+                for (List<Object> partition : Lists.partition(ids, size)) {
+                    futures.add(executor.submit(() -> readOnly(() -> {
+                        for (Object id : partition) {
+                            Vertex vertex = graph.getVertex(id);
+                            if (vertex != null) {
+                                check.accept(vertex);
+                            }
+                        }
+                    })));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        private void readOnly(Runnable work) {
+            Object baseGraph = graph.getBaseGraph();
+            if (baseGraph instanceof TxGraph) {
+                // Closing the transaction without marking
+                // it successful rolls it back.
+                try (Tx tx = ((TxGraph) baseGraph).beginTx()) {
+                    work.run();
+                }
+            } else if (baseGraph instanceof TransactionalGraph) {
+                try {
+                    work.run();
+                } finally {
+                    ((TransactionalGraph) baseGraph).rollback();
+                }
+            } else {
+                work.run();
             }
         }
     }
 
-    private void checkOwnerPermGrantsHaveNoScope(GraphManager manager) {
-        try (CloseableIterable<PermissionGrant> items = manager
-                .getEntities(EntityClass.PERMISSION_GRANT, PermissionGrant.class)) {
-            for (PermissionGrant grant : items) {
-                Entity scope = grant.getScope();
-                Entity perm = grant.getPermission();
-                if (scope != null && perm != null && perm.getId().equals(PermissionType.OWNER.getName())) {
-                    System.err.println(
-                            String.format("Owner permission grant with scope: %s", grant.asVertex().getId()));
+    private interface Report extends AutoCloseable {
+        void add(String check, Vertex vertex, String message);
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private static class TextReport implements Report {
+        private final PrintStream out;
+
+        TextReport(PrintStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public synchronized void add(String check, Vertex vertex, String message) {
+            out.println(message);
+        }
+
+        @Override
+        public void close() {
+            out.flush();
+        }
+    }
+
+    private static class JsonReport implements Report {
+        private final JsonGenerator generator;
+
+        JsonReport(PrintStream out) throws IOException {
+            generator = new ObjectMapper().getFactory().createGenerator(out);
+            generator.setRootValueSeparator(new SerializedString("\n"));
+        }
+
+        @Override
+        public synchronized void add(String check, Vertex vertex, String message) {
+            try {
+                generator.writeStartObject();
+                generator.writeStringField("check", check);
+                if (vertex != null) {
+                    generator.writeStringField("id", vertex.getProperty(EntityType.ID_KEY));
+                    generator.writeObjectField("gid", vertex.getId());
                 }
+                generator.writeStringField("message", message);
+                generator.writeEndObject();
+                generator.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
         }
 
+        @Override
+        public synchronized void close() throws IOException {
+            generator.writeRaw('\n');
+            generator.flush();
+        }
     }
 }
@@ -102,6 +102,7 @@ public class CmdEntryPoint extends BaseCommand {
         mmap.put(EadAsVirtualCollectionImport.NAME, EadAsVirtualCollectionImport.class);
         mmap.put(GraphSON.NAME, GraphSON.class);
         mmap.put(Check.NAME, Check.class);
+        mmap.put(ExportChanges.NAME, ExportChanges.class);
 
         COMMANDS = Collections.unmodifiableMap(mmap);
     }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.commands;
+
+import com.tinkerpop.frames.FramedGraph;
+import eu.ehri.project.tools.ChangeExporter;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+/**
+ * Export the items changed since a given event, or time, as JSON.
+ * <p>
+ * When a checkpoint file is given, the export resumes from the event
+ * ID stored in it, and the file is updated with the most recent event
+ * ID once the export is done:
+ * <pre>
+ *     <code>
+ * ./scripts/cmd export-changes --checkpoint-file last-sync.txt changes.json
+ *     </code>
+ * </pre>
+ */
+public class ExportChanges extends BaseCommand {
+
+    final static String NAME = "export-changes";
+
+    private static final String SINCE = "since";
+    private static final String SINCE_TIME = "since-time";
+    private static final String CHECKPOINT_FILE = "checkpoint-file";
+
+    @Override
+    public String getHelp() {
+        return "Export the items created, updated or deleted since a given event.";
+    }
+
+    @Override
+    public String getHelpFooter() {
+        return "Default is to export all changes to stdout";
+    }
+
+    @Override
+    public String getUsage() {
+        return String.format("%s [OPTIONS] [<filename>]", NAME);
+    }
+
+    @Override
+    protected void setCustomOptions(Options options) {
+        options.addOption(Option.builder()
+                .hasArg().type(String.class)
+                .longOpt(SINCE)
+                .desc("The ID of the last event seen").build());
+        options.addOption(Option.builder()
+                .hasArg().type(String.class)
+                .longOpt(SINCE_TIME)
+                .desc("Only export changes after this ISO 8601 timestamp").build());
+        options.addOption(Option.builder()
+                .hasArg().type(String.class)
+                .longOpt(CHECKPOINT_FILE)
+                .desc("A file from which to read the last event seen, " +
+                        "and to which the latest event is written").build());
+    }
+
+    @Override
+    public int execWithOptions(FramedGraph<?> graph,
+            CommandLine cmdLine) throws Exception {
+        Optional<Path> checkpointFile = Optional.ofNullable(cmdLine.getOptionValue(CHECKPOINT_FILE))
+                .map(Paths::get);
+        Optional<String> since = Optional.ofNullable(cmdLine.getOptionValue(SINCE));
+        if (!since.isPresent() && checkpointFile.isPresent() && Files.exists(checkpointFile.get())) {
+            since = Optional.of(new String(Files.readAllBytes(checkpointFile.get()),
+                    StandardCharsets.UTF_8).trim()).filter(s -> !s.isEmpty());
+        }
+        Optional<String> sinceTime = Optional.ofNullable(cmdLine.getOptionValue(SINCE_TIME));
+
+        String filePath = cmdLine.getArgList().isEmpty() ? "-" : cmdLine.getArgs()[0];
+        ChangeExporter exporter = new ChangeExporter(graph);
+        ChangeExporter.ChangeSummary summary;
+        if (filePath.equals("-")) {
+            summary = exporter.export(System.out, since, sinceTime);
+        } else {
+            try (OutputStream out = Files.newOutputStream(Paths.get(filePath))) {
+                summary = exporter.export(out, since, sinceTime);
+            }
+        }
+
+        if (checkpointFile.isPresent() && summary.getCheckpoint() != null) {
+            Files.write(checkpointFile.get(),
+                    summary.getCheckpoint().getBytes(StandardCharsets.UTF_8));
+        }
+        System.err.println("Exported " + summary.getCount() + " changes");
+        return 0;
+    }
+}
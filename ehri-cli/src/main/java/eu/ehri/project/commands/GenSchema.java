@@ -24,6 +24,10 @@ import com.tinkerpop.frames.FramedGraph;
 import eu.ehri.project.core.impl.Neo4jGraphManager;
 import eu.ehri.project.core.impl.neo4j.Neo4j2Graph;
 import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+
+import java.util.concurrent.TimeUnit;
 
 /**
  * Command for generating the (Neo4j) graph schema.
@@ -31,6 +35,7 @@ import org.apache.commons.cli.CommandLine;
 public class GenSchema extends BaseCommand {
 
     final static String NAME = "gen-schema";
+    private static final String WAIT = "wait";
 
     @Override
     public String getUsage() {
@@ -39,7 +44,17 @@ public class GenSchema extends BaseCommand {
 
     @Override
     public String getHelp() {
-        return "Drop and regenerate the (internal) graph schema and indices.";
+        return "Create missing and drop obsolete (internal) graph schema indices and constraints.";
+    }
+
+    @Override
+    protected void setCustomOptions(Options options) {
+        options.addOption(Option.builder()
+                .longOpt(WAIT)
+                .hasArg()
+                .type(Integer.class)
+                .desc("Commit and wait up to this many seconds for new indices to come online")
+                .build());
     }
 
 
@@ -49,6 +64,12 @@ public class GenSchema extends BaseCommand {
         if (baseGraph instanceof Neo4j2Graph) {
             Neo4jGraphManager.createIndicesAndConstraints(
                     ((Neo4j2Graph) baseGraph).getRawGraph());
+            if (cmdLine.hasOption(WAIT)) {
+                // Indices are only populated once the schema changes are committed
+                ((Neo4j2Graph) baseGraph).commit();
+                Neo4jGraphManager.awaitIndexesOnline(((Neo4j2Graph) baseGraph).getRawGraph(),
+                        Integer.parseInt(cmdLine.getOptionValue(WAIT)), TimeUnit.SECONDS);
+            }
         } else {
             logger.warn("Cannot generate schema on a non-Neo4j2 graph");
         }
@@ -26,9 +26,11 @@ import com.tinkerpop.blueprints.util.io.graphson.GraphSONWriter;
 import com.tinkerpop.frames.FramedGraph;
 import eu.ehri.project.core.impl.Neo4jGraphManager;
 import eu.ehri.project.core.impl.neo4j.Neo4j2Graph;
+import eu.ehri.project.tools.PartitionedGraphDump;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
+import org.neo4j.graphdb.GraphDatabaseService;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -58,6 +60,16 @@ import java.util.zip.GZIPInputStream;
  * $NEO4J_HOME/bin/neo4j start
  *     </code>
  * </pre>
+ * <p>
+ * For large graphs the <code>--partitions</code> option writes the dump
+ * as a directory of gzipped partitions, each written by its own thread.
+ * Loading a directory restores the partitions in parallel:
+ * <pre>
+ *     <code>
+ * ./scripts/cmd graphson -d out --partitions 8 graph-dump
+ * ./scripts/cmd graphson -d in graph-dump
+ *     </code>
+ * </pre>
  */
 public class GraphSON extends BaseCommand {
 
@@ -92,6 +104,11 @@ public class GraphSON extends BaseCommand {
                 .hasArg().type(Integer.class)
                 .longOpt("buffer-size")
                 .desc("Transaction buffer size").build());
+        options.addOption(Option.builder("p")
+                .hasArg().type(Integer.class)
+                .longOpt("partitions")
+                .desc("Dump to a directory of this many compressed partitions, " +
+                        "written in parallel").build());
         options.addOption(Option.builder()
                 .longOpt("skip-setting-labels")
                 .desc("Initialize indices after load").build());
@@ -116,6 +133,13 @@ public class GraphSON extends BaseCommand {
     private void saveDump(FramedGraph<?> graph,
             String filePath, CommandLine cmdLine) throws IOException {
 
+        if (cmdLine.hasOption("partitions")) {
+            int partitions = Integer.parseInt(cmdLine.getOptionValue("partitions"));
+            long count = getPartitionedDump(graph, cmdLine).dump(Paths.get(filePath), partitions);
+            System.err.println("Dumped " + count + " vertices");
+            return;
+        }
+
         // if the file is '-' that means we do standard out
         if (filePath.contentEquals("-")) {
             // to stdout
@@ -130,6 +154,14 @@ public class GraphSON extends BaseCommand {
 
     private void loadDump(FramedGraph<?> graph,
             String filePath, CommandLine cmdLine) throws Exception {
+        if (!filePath.equals("-") && Files.isDirectory(Paths.get(filePath))) {
+            // Partitioned dumps include labels, so there is
+            // no need to set them afterwards.
+            long count = getPartitionedDump(graph, cmdLine).restore(Paths.get(filePath));
+            System.err.println("Loaded " + count + " vertices");
+            return;
+        }
+
         GraphSONReader reader = new GraphSONReader(graph);
 
         InputStream readStream = System.in;
@@ -140,9 +172,7 @@ public class GraphSON extends BaseCommand {
                     : inputStream;
         }
 
-        int bufferSize = cmdLine.hasOption("buffer-size")
-                ? Integer.parseInt(cmdLine.getOptionValue("buffer-size"))
-                : 1000;
+        int bufferSize = getBufferSize(cmdLine);
 
         try {
             reader.inputGraph(readStream, bufferSize);
@@ -167,4 +197,18 @@ public class GraphSON extends BaseCommand {
             readStream.close();
         }
     }
+
+    private PartitionedGraphDump getPartitionedDump(FramedGraph<?> graph, CommandLine cmdLine) {
+        if (!(graph.getBaseGraph() instanceof Neo4j2Graph)) {
+            throw new IllegalArgumentException("Partitioned dumps require a Neo4j graph");
+        }
+        GraphDatabaseService db = ((Neo4j2Graph) graph.getBaseGraph()).getRawGraph();
+        return new PartitionedGraphDump(db, getBufferSize(cmdLine));
+    }
+
+    private int getBufferSize(CommandLine cmdLine) {
+        return cmdLine.hasOption("buffer-size")
+                ? Integer.parseInt(cmdLine.getOptionValue("buffer-size"))
+                : 1000;
+    }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.commands;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.persistence.ActionManager;
+import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.persistence.Serializer;
+import eu.ehri.project.test.AbstractFixtureTest;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class CheckTest extends AbstractFixtureTest {
+
+    @Test
+    public void testCheck() throws Exception {
+        graph.getBaseGraph().commit();
+        List<JsonNode> findings = check("--json", "--threads", "4");
+        // The fixtures do not have the IDs their scopes would generate
+        List<String> mismatched = getIds(findings, "idMismatch");
+        assertTrue(mismatched.contains("c1"));
+        assertTrue(mismatched.contains("r1"));
+        assertEquals(findings.size(), check("--json", "--threads", "1").size());
+    }
+
+    @Test
+    public void testCheckSince() throws Exception {
+        String timestamp = ActionManager.getTimestamp();
+        Thread.sleep(10);
+        Bundle bundle = new Serializer.Builder(graph).dependentOnly().build().entityToBundle(item);
+        loggingApi(validUser).update(bundle.withDataValue("name", "Changed"), DocumentaryUnit.class);
+        graph.getBaseGraph().commit();
+
+        List<JsonNode> findings = check("--json", "--since-time", timestamp);
+        assertEquals(Lists.newArrayList("c1"), getIds(findings, "idMismatch"));
+        assertFalse(check("--json").size() <= findings.size());
+    }
+
+    private List<JsonNode> check(String... args) throws Exception {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(out, true, "UTF-8"));
+            Check check = new Check();
+            assertEquals(0, check.execWithOptions(graph, check.getCmdLine(args)));
+        } finally {
+            System.setOut(stdout);
+        }
+        try (MappingIterator<JsonNode> it = new ObjectMapper()
+                .readerFor(JsonNode.class).readValues(out.toByteArray())) {
+            return it.readAll();
+        }
+    }
+
+    private static List<String> getIds(List<JsonNode> findings, String check) {
+        return findings.stream()
+                .filter(f -> f.path("check").asText().equals(check))
+                .map(f -> f.path("id").asText())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.commands;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.ehri.project.persistence.ActionManager;
+import eu.ehri.project.test.AbstractFixtureTest;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class ExportChangesTest extends AbstractFixtureTest {
+    @Test
+    public void testExecWithOptions() throws Exception {
+        EntityDelete del = new EntityDelete();
+        assertEquals(0, del.execWithOptions(graph,
+                del.getCmdLine(new String[]{"reto", "--user", "mike"})));
+        String latest = new ActionManager(graph).getLatestGlobalEvent().getId();
+
+        Path checkpoint = Files.createTempFile("checkpoint", ".txt");
+        Files.delete(checkpoint);
+        Path out = Files.createTempFile("changes", ".json");
+        String[] args = new String[]{"--checkpoint-file", checkpoint.toString(), out.toString()};
+
+        ExportChanges export = new ExportChanges();
+        assertEquals(0, export.execWithOptions(graph, export.getCmdLine(args)));
+        JsonNode changes = new ObjectMapper().readTree(out.toFile()).path("changes");
+        assertEquals(1, changes.size());
+        assertEquals("reto", changes.get(0).path("id").asText());
+        assertEquals("deleted", changes.get(0).path("change").asText());
+        assertEquals(latest, new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8));
+
+        // Resuming from the checkpoint finds nothing new
+        assertEquals(0, export.execWithOptions(graph, export.getCmdLine(args)));
+        assertEquals(0, new ObjectMapper().readTree(out.toFile()).path("changes").size());
+    }
+}
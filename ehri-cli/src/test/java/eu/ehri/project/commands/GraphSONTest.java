@@ -19,16 +19,26 @@
 
 package eu.ehri.project.commands;
 
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 import com.tinkerpop.blueprints.TransactionalGraph;
+import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.FramedGraph;
+import eu.ehri.project.core.GraphManager;
+import eu.ehri.project.core.GraphManagerFactory;
+import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.test.GraphTestBase;
+import eu.ehri.project.tools.PartitionedGraphDump;
 import eu.ehri.project.utils.fixtures.FixtureLoader;
 import eu.ehri.project.utils.fixtures.FixtureLoaderFactory;
 import org.apache.commons.cli.CommandLine;
 import org.junit.Test;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -82,4 +92,43 @@ public class GraphSONTest extends GraphTestBase {
         assertEquals(0, graphDiff.added.size());
         assertEquals(0, graphDiff.removed.size());
     }
+
+    @Test
+    public void testSavePartitionedDumpAndRead() throws Exception {
+        FramedGraph<? extends TransactionalGraph> graph1 = getFramedGraph();
+        helper = FixtureLoaderFactory.getInstance(graph1);
+        helper.loadTestData();
+        graph1.getBaseGraph().commit();
+
+        Set<String> ids1 = getIds(graph1);
+        int count1 = Iterables.size(graph1.getVertices());
+
+        Path dir = Files.createTempDirectory("graph-dump");
+        String[] outArgs = new String[]{"--dump", dir.toString(), "--partitions", "4"};
+
+        GraphSON graphSON = new GraphSON();
+        assertEquals(0, graphSON.execWithOptions(graph1, graphSON.getCmdLine(outArgs)));
+        graph1.shutdown();
+
+        assertTrue(Files.exists(dir.resolve(PartitionedGraphDump.MANIFEST)));
+
+        FramedGraph<? extends TransactionalGraph> graph2 = getFramedGraph();
+        String[] inArgs = new String[]{"--load", dir.toString()};
+        assertEquals(0, graphSON.execWithOptions(graph2, graphSON.getCmdLine(inArgs)));
+
+        // Restored vertices are labelled and can be found by ID
+        assertEquals(ids1, getIds(graph2));
+        GraphManager manager2 = GraphManagerFactory.getInstance(graph2);
+        assertTrue(manager2.exists("c1"));
+        assertEquals(count1, Iterables.size(graph2.getVertices()));
+        graph2.shutdown();
+    }
+
+    private static Set<String> getIds(FramedGraph<?> graph) {
+        Set<String> ids = Sets.newHashSet();
+        for (Vertex v : graph.getVertices()) {
+            ids.add(v.getProperty(EntityType.ID_KEY));
+        }
+        return ids;
+    }
 }
@@ -48,6 +48,7 @@ import eu.ehri.project.models.base.PermissionGrantTarget;
 import eu.ehri.project.models.base.PermissionScope;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -88,13 +89,6 @@ public final class AclManager {
                     return PermissionType.withName(permission.getId());
                 }
             });
-    private final LoadingCache<ContentType, ContentTypes> contentTypeEnumMap = CacheBuilder.newBuilder()
-            .build(new CacheLoader<ContentType, ContentTypes>() {
-                @Override
-                public ContentTypes load(ContentType contentType) throws Exception {
-                    return ContentTypes.withName(contentType.getId());
-                }
-            });
 
     /**
      * Scoped constructor.
@@ -125,15 +119,7 @@ public final class AclManager {
      * @return User belongs to the admin group
      */
     public static boolean belongsToAdmin(Accessor accessor) {
-        if (accessor.isAdmin()) {
-            return true;
-        }
-        for (Accessor parent : accessor.getParents()) {
-            if (belongsToAdmin(parent)) {
-                return true;
-            }
-        }
-        return false;
+        return accessor.isAdmin() || PermissionCache.get(accessor).isAdmin();
     }
 
     /**
@@ -260,7 +246,7 @@ public final class AclManager {
     public GlobalPermissionSet getGlobalPermissions(Accessor accessor) {
         return belongsToAdmin(accessor)
                 ? getAdminPermissions()
-                : getAccessorPermissions(accessor);
+                : PermissionCache.get(accessor).getGrantedPermissions(scopes);
     }
 
     /**
@@ -368,7 +354,7 @@ public final class AclManager {
             return noopFilterFunction();
         }
 
-        final HashSet<Vertex> all = getAllAccessors(accessor);
+        final Set<Object> all = getAllAccessors(accessor);
         return v -> {
             Iterable<Vertex> verts = v.getVertices(Direction.OUT,
                     Ontology.IS_ACCESSIBLE_TO);
@@ -383,7 +369,7 @@ public final class AclManager {
             }
             // Otherwise, check relevant accessors...
             for (Vertex other : verts) {
-                if (all.contains(other)) {
+                if (all.contains(other.getId())) {
                     return true;
                 }
             }
@@ -463,10 +449,11 @@ public final class AclManager {
     private boolean hasPermission(ContentTypes contentType, PermissionType permissionType, Accessor accessor,
             Collection<PermissionScope> scopes) {
 
-        ContentType contentTypeNode = enumContentTypeMap.getUnchecked(contentType);
-        // Check the user themselves...
-        return belongsToAdmin(accessor)
-                || hasScopedPermission(contentTypeNode, permissionType, accessor, scopes);
+        // Global permissions for the accessor and their groups are
+        // compiled and cached, so this is a lookup in most cases...
+        CompiledPermissions permissions = PermissionCache.get(accessor);
+        return accessor.isAdmin() || permissions.isAdmin()
+                || permissions.has(contentType, permissionType, scopes);
     }
 
     /**
@@ -622,51 +609,17 @@ public final class AclManager {
 
     /**
      * For a given user, fetch a lookup of all the inherited accessors it
-     * belongs to. NB: This returns a lookup of raw Vertices because it's
+     * belongs to. NB: This returns a lookup of raw vertex IDs because it's
      * used by the a Gremlin filter function, which likewise operates
      * directly on vertices.
      *
      * @param accessor The user/group
-     * @return A lookup of accessor vertices
-     */
-    private static HashSet<Vertex> getAllAccessors(Accessor accessor) {
-
-        HashSet<Vertex> all = Sets.newHashSet();
-        if (!isAnonymous(accessor)) {
-            Iterable<Accessor> parents = accessor.getAllParents();
-            for (Accessor a : parents) {
-                all.add(a.asVertex());
-            }
-            all.add(accessor.asVertex());
-        }
-        return all;
-    }
-
-    /**
-     * Fetch a user's global permission set.
-     *
-     * @param accessor The user/group
-     * @return A global permission set for the given user.
+     * @return A lookup of accessor vertex IDs
      */
-    private GlobalPermissionSet getAccessorPermissions(Accessor accessor) {
-        GlobalPermissionSet.Builder builder = GlobalPermissionSet.newBuilder();
-        for (PermissionGrant grant : accessor.getPermissionGrants()) {
-            PermissionScope scope = grant.getScope();
-            if (scope == null || scopes.contains(scope)) {
-                for (PermissionGrantTarget target : grant.getTargets()) {
-                    if (manager.getEntityClass(target).equals(EntityClass.CONTENT_TYPE)) {
-                        ContentType contentType = target.as(ContentType.class);
-                        Permission permission = grant.getPermission();
-                        if (permission != null) {
-                            builder.set(
-                                    contentTypeEnumMap.getUnchecked(contentType),
-                                    permissionEnumMap.getUnchecked(permission));
-                        }
-                    }
-                }
-            }
-        }
-        return builder.build();
+    private static Set<Object> getAllAccessors(Accessor accessor) {
+        return isAnonymous(accessor)
+                ? Collections.emptySet()
+                : PermissionCache.get(accessor).getAccessorIds();
     }
 
     /**
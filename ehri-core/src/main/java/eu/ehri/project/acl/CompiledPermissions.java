@@ -0,0 +1,212 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.acl;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.Permission;
+import eu.ehri.project.models.PermissionGrant;
+import eu.ehri.project.models.base.Accessor;
+import eu.ehri.project.models.base.PermissionGrantTarget;
+import eu.ehri.project.models.base.PermissionScope;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * An accessor's group closure and global permission matrix, compiled
+ * from its permission grants and those of every group it inherits from.
+ * <p>
+ * Permissions are held as an {@link EnumSet} per content type, keyed by
+ * the ID of the scope vertex in which they were granted, so checking a
+ * content type permission is a bit test per relevant scope rather than
+ * a walk of the accessor's grants and groups.
+ */
+final class CompiledPermissions {
+
+    // Map key for grants that have no scope, i.e. the system scope
+    private static final Object UNSCOPED = new Object();
+
+    private final boolean admin;
+    private final Set<Object> accessorIds;
+    private final Map<Object, EnumMap<ContentTypes, EnumSet<PermissionType>>> granted;
+    private final Map<Object, EnumMap<ContentTypes, EnumSet<PermissionType>>> effective;
+
+    private CompiledPermissions(boolean admin, Set<Object> accessorIds,
+            Map<Object, EnumMap<ContentTypes, EnumSet<PermissionType>>> granted,
+            Map<Object, EnumMap<ContentTypes, EnumSet<PermissionType>>> effective) {
+        this.admin = admin;
+        this.accessorIds = accessorIds;
+        this.granted = granted;
+        this.effective = effective;
+    }
+
+    /**
+     * Compile an accessor's permissions, using the given function to
+     * obtain the compiled permissions of its direct parent groups.
+     *
+     * @param accessor the user or group
+     * @param parents  a lookup for the compiled permissions of a parent
+     * @return the compiled permissions
+     */
+    static CompiledPermissions compile(Accessor accessor,
+            Function<Accessor, CompiledPermissions> parents) {
+        boolean admin = accessor.isAdmin();
+        Set<Object> accessorIds = Sets.newHashSet();
+        Vertex vertex = accessor.asVertex();
+        if (vertex != null) {
+            accessorIds.add(vertex.getId());
+        }
+
+        Map<Object, EnumMap<ContentTypes, EnumSet<PermissionType>>> granted = Maps.newHashMap();
+        Map<Object, EnumMap<ContentTypes, EnumSet<PermissionType>>> effective = Maps.newHashMap();
+        for (PermissionGrant grant : accessor.getPermissionGrants()) {
+            Permission permission = grant.getPermission();
+            if (permission == null) {
+                continue;
+            }
+            PermissionType permissionType = PermissionType.withName(permission.getId());
+            PermissionScope scope = grant.getScope();
+            Object scopeKey = scope == null ? UNSCOPED : scope.asVertex().getId();
+            for (PermissionGrantTarget target : grant.getTargets()) {
+                if (EntityClass.CONTENT_TYPE.getName().equals(target.getType())) {
+                    ContentTypes contentType = ContentTypes.withName(target.getId());
+                    permissionsFor(granted, scopeKey, contentType).add(permissionType);
+                    permissionsFor(effective, scopeKey, contentType).addAll(implied(permissionType));
+                }
+            }
+        }
+
+        for (Accessor parent : accessor.getParents()) {
+            CompiledPermissions inherited = parents.apply(parent);
+            admin = admin || inherited.admin;
+            accessorIds.addAll(inherited.accessorIds);
+            for (Map.Entry<Object, EnumMap<ContentTypes, EnumSet<PermissionType>>> scoped
+                    : inherited.effective.entrySet()) {
+                for (Map.Entry<ContentTypes, EnumSet<PermissionType>> perms : scoped.getValue().entrySet()) {
+                    permissionsFor(effective, scoped.getKey(), perms.getKey()).addAll(perms.getValue());
+                }
+            }
+        }
+
+        return new CompiledPermissions(admin, ImmutableSet.copyOf(accessorIds), granted, effective);
+    }
+
+    /**
+     * Whether the accessor is admin or inherits from the admin group.
+     *
+     * @return admin status
+     */
+    boolean isAdmin() {
+        return admin;
+    }
+
+    /**
+     * The IDs of the accessor's vertex and those of all the groups
+     * it inherits from.
+     *
+     * @return a set of vertex IDs
+     */
+    Set<Object> getAccessorIds() {
+        return accessorIds;
+    }
+
+    /**
+     * Test whether the accessor has, directly or via inheritance, the given
+     * permission on a content type, either globally or in any of the given
+     * scopes.
+     *
+     * @param contentType    the content type
+     * @param permissionType the permission type
+     * @param scopes         the scopes in which a scoped grant applies
+     * @return whether the permission is held
+     */
+    boolean has(ContentTypes contentType, PermissionType permissionType,
+            Collection<PermissionScope> scopes) {
+        if (has(UNSCOPED, contentType, permissionType)) {
+            return true;
+        }
+        for (PermissionScope scope : scopes) {
+            if (has(scope.asVertex().getId(), contentType, permissionType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the global permissions granted directly to the accessor, globally
+     * or in any of the given scopes.
+     *
+     * @param scopes the scopes in which a scoped grant applies
+     * @return a global permission set
+     */
+    GlobalPermissionSet getGrantedPermissions(Collection<PermissionScope> scopes) {
+        GlobalPermissionSet.Builder builder = GlobalPermissionSet.newBuilder();
+        addGranted(builder, UNSCOPED);
+        for (PermissionScope scope : scopes) {
+            addGranted(builder, scope.asVertex().getId());
+        }
+        return builder.build();
+    }
+
+    private boolean has(Object scopeKey, ContentTypes contentType, PermissionType permissionType) {
+        EnumMap<ContentTypes, EnumSet<PermissionType>> matrix = effective.get(scopeKey);
+        if (matrix != null) {
+            EnumSet<PermissionType> perms = matrix.get(contentType);
+            return perms != null && perms.contains(permissionType);
+        }
+        return false;
+    }
+
+    private void addGranted(GlobalPermissionSet.Builder builder, Object scopeKey) {
+        EnumMap<ContentTypes, EnumSet<PermissionType>> matrix = granted.get(scopeKey);
+        if (matrix != null) {
+            for (Map.Entry<ContentTypes, EnumSet<PermissionType>> perms : matrix.entrySet()) {
+                builder.set(perms.getKey(), perms.getValue());
+            }
+        }
+    }
+
+    private static EnumSet<PermissionType> permissionsFor(
+            Map<Object, EnumMap<ContentTypes, EnumSet<PermissionType>>> matrices,
+            Object scopeKey, ContentTypes contentType) {
+        return matrices.computeIfAbsent(scopeKey, k -> new EnumMap<>(ContentTypes.class))
+                .computeIfAbsent(contentType, k -> EnumSet.noneOf(PermissionType.class));
+    }
+
+    private static EnumSet<PermissionType> implied(PermissionType permissionType) {
+        EnumSet<PermissionType> implied = EnumSet.noneOf(PermissionType.class);
+        for (PermissionType other : PermissionType.values()) {
+            if (permissionType.contains(other)) {
+                implied.add(other);
+            }
+        }
+        return implied;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.acl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.acl.wrapper.AclVertex;
+import eu.ehri.project.core.impl.neo4j.Neo4j2Vertex;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.base.Accessor;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.ErrorState;
+import org.neo4j.graphdb.event.KernelEventHandler;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.api.txstate.TxStateHolder;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process-wide cache of {@link CompiledPermissions}, held per database
+ * and keyed by accessor vertex ID.
+ * <p>
+ * Entries are only read and written by transactions that have not yet
+ * made changes of their own, so a transaction always sees the effect of
+ * its own uncommitted grants and group membership changes. The whole
+ * cache for a database is discarded when a transaction that touches
+ * permission grants or group membership commits, however it was made.
+ */
+final class PermissionCache {
+
+    private static final int MAX_ENTRIES = 10_000;
+
+    private static final Set<String> ACL_EDGE_LABELS = ImmutableSet.of(
+            Ontology.ACCESSOR_BELONGS_TO_GROUP,
+            Ontology.PERMISSION_GRANT_HAS_SUBJECT,
+            Ontology.PERMISSION_GRANT_HAS_PERMISSION,
+            Ontology.PERMISSION_GRANT_HAS_SCOPE,
+            Ontology.PERMISSION_GRANT_HAS_TARGET
+    );
+
+    private static final Map<GraphDatabaseService, PermissionCache> caches
+            = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final ThreadToStatementContextBridge txBridge;
+    private final AtomicLong generation = new AtomicLong();
+    private final Cache<Object, Entry> entries = CacheBuilder.newBuilder()
+            .maximumSize(MAX_ENTRIES)
+            .build();
+
+    private static class Entry {
+        private final long generation;
+        private final CompiledPermissions permissions;
+
+        Entry(long generation, CompiledPermissions permissions) {
+            this.generation = generation;
+            this.permissions = permissions;
+        }
+    }
+
+    private PermissionCache(ThreadToStatementContextBridge txBridge) {
+        this.txBridge = txBridge;
+    }
+
+    /**
+     * Get the compiled permissions for an accessor, from the cache if
+     * possible.
+     *
+     * @param accessor the user or group
+     * @return the accessor's compiled permissions
+     */
+    static CompiledPermissions get(Accessor accessor) {
+        Vertex vertex = accessor.asVertex();
+        while (vertex instanceof AclVertex) {
+            vertex = ((AclVertex) vertex).getBaseVertex();
+        }
+        if (vertex instanceof Neo4j2Vertex) {
+            GraphDatabaseService db = ((Neo4j2Vertex) vertex).getRawVertex().getGraphDatabase();
+            Optional<PermissionCache> cache = forDatabase(db);
+            if (cache.isPresent()) {
+                return cache.get().lookup(vertex.getId(), accessor);
+            }
+        }
+        return CompiledPermissions.compile(accessor, PermissionCache::get);
+    }
+
+    private static Optional<PermissionCache> forDatabase(GraphDatabaseService db) {
+        if (!(db instanceof GraphDatabaseAPI)) {
+            return Optional.empty();
+        }
+        synchronized (caches) {
+            PermissionCache cache = caches.get(db);
+            if (cache == null) {
+                cache = new PermissionCache(((GraphDatabaseAPI) db).getDependencyResolver()
+                        .resolveDependency(ThreadToStatementContextBridge.class));
+                db.registerTransactionEventHandler(cache.new Invalidator());
+                db.registerKernelEventHandler(new KernelEventHandler() {
+                    @Override
+                    public void beforeShutdown() {
+                        caches.remove(db);
+                    }
+
+                    @Override
+                    public void kernelPanic(ErrorState error) {
+                    }
+
+                    @Override
+                    public Object getResource() {
+                        return null;
+                    }
+
+                    @Override
+                    public ExecutionOrder orderComparedTo(KernelEventHandler other) {
+                        return ExecutionOrder.DOESNT_MATTER;
+                    }
+                });
+                caches.put(db, cache);
+            }
+            return Optional.of(cache);
+        }
+    }
+
+    private CompiledPermissions lookup(Object id, Accessor accessor) {
+        if (hasUncommittedChanges()) {
+            return CompiledPermissions.compile(accessor, PermissionCache::get);
+        }
+        long current = generation.get();
+        Entry entry = entries.getIfPresent(id);
+        if (entry == null || entry.generation != current) {
+            // Tag the entry with the generation it was read in, so that
+            // an invalidation that races with compilation wins.
+            entry = new Entry(current, CompiledPermissions.compile(accessor, PermissionCache::get));
+            entries.put(id, entry);
+        }
+        return entry.permissions;
+    }
+
+    private boolean hasUncommittedChanges() {
+        KernelTransaction tx = txBridge.getKernelTransactionBoundToThisThread(false);
+        return !(tx instanceof TxStateHolder) || ((TxStateHolder) tx).hasTxStateWithChanges();
+    }
+
+    private void invalidate() {
+        generation.incrementAndGet();
+        entries.invalidateAll();
+    }
+
+    private class Invalidator extends TransactionEventHandler.Adapter<Boolean> {
+        @Override
+        public Boolean beforeCommit(TransactionData data) {
+            try {
+                return touchesAcl(data.createdRelationships())
+                        || touchesAcl(data.deletedRelationships());
+            } catch (RuntimeException e) {
+                // If we can't tell what changed, assume the worst.
+                return true;
+            }
+        }
+
+        @Override
+        public void afterCommit(TransactionData data, Boolean touched) {
+            if (touched == null || touched) {
+                invalidate();
+            }
+        }
+
+        private boolean touchesAcl(Iterable<Relationship> relationships) {
+            for (Relationship relationship : relationships) {
+                if (ACL_EDGE_LABELS.contains(relationship.getType().name())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -27,7 +27,9 @@ import eu.ehri.project.exceptions.ItemNotFound;
 import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.models.base.Entity;
 
+import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * An abstraction over the basic {@link FramedGraph} class
@@ -88,6 +90,15 @@ public interface GraphManager {
      */
     boolean exists(String id);
 
+    /**
+     * Determine which of a collection of IDs belong to existing nodes,
+     * using a single lookup where the underlying graph supports it.
+     *
+     * @param ids A collection of string ids
+     * @return The subset of the given ids that exist in the graph
+     */
+    Set<String> getExistingIds(Collection<String> ids);
+
     /**
      * Get a node with the given ID.
      *
@@ -147,6 +158,18 @@ public interface GraphManager {
      */
     CloseableIterable<Vertex> getVertices(String key, Object value, EntityClass type);
 
+    /**
+     * Look up the ids of nodes of the given type which have one of a
+     * collection of values for the given property, using a single lookup
+     * where the underlying graph supports it.
+     *
+     * @param key    the property key
+     * @param values a collection of property values
+     * @param type   the entity type
+     * @return a map of property values to the ID of a node having that value
+     */
+    Map<Object, String> getIdsByPropertyValues(String key, Collection<?> values, EntityClass type);
+
     /**
      * Get an Iterable of vertices of the given type, frames with the given
      * interface class.
@@ -23,6 +23,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.blueprints.Element;
 import com.tinkerpop.blueprints.Graph;
@@ -36,9 +37,12 @@ import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.base.Entity;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * Implementation of GraphManager that uses a single index to manage all nodes.
@@ -100,6 +104,17 @@ public class BlueprintsGraphManager<T extends Graph> implements GraphManager {
         return graph.getVertices(EntityType.ID_KEY, id).iterator().hasNext();
     }
 
+    @Override
+    public Set<String> getExistingIds(Collection<String> ids) {
+        Set<String> existing = Sets.newHashSet();
+        for (String id : ids) {
+            if (exists(id)) {
+                existing.add(id);
+            }
+        }
+        return existing;
+    }
+
     @Override
     public <E> E getEntity(String id, Class<E> cls) throws ItemNotFound {
         return graph.frame(getVertex(id), cls);
@@ -164,6 +179,20 @@ public class BlueprintsGraphManager<T extends Graph> implements GraphManager {
         return new WrappingCloseableIterable<>(elems);
     }
 
+    @Override
+    public Map<Object, String> getIdsByPropertyValues(String key, Collection<?> values, EntityClass type) {
+        Map<Object, String> ids = Maps.newHashMap();
+        for (Object value : values) {
+            try (CloseableIterable<Vertex> vertices = getVertices(key, value, type)) {
+                Iterator<Vertex> iterator = vertices.iterator();
+                if (iterator.hasNext()) {
+                    ids.put(value, getId(iterator.next()));
+                }
+            }
+        }
+        return ids;
+    }
+
     @Override
     public Vertex createVertex(String id, EntityClass type,
             Map<String, ?> data) throws IntegrityError {
@@ -20,6 +20,11 @@
 package eu.ehri.project.core.impl;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.blueprints.Vertex;
@@ -33,16 +38,20 @@ import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.utils.ClassUtils;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.schema.ConstraintDefinition;
+import org.neo4j.graphdb.schema.ConstraintType;
 import org.neo4j.graphdb.schema.IndexDefinition;
 import org.neo4j.graphdb.schema.Schema;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Implementation of GraphManager that uses a single index to manage all nodes,
@@ -68,6 +77,22 @@ public final class Neo4jGraphManager<T extends Neo4j2Graph> extends BlueprintsGr
         }
     }
 
+    @Override
+    public Set<String> getExistingIds(Collection<String> ids) {
+        Set<String> existing = Sets.newHashSet();
+        if (!ids.isEmpty()) {
+            String query = String.format("UNWIND $ids AS id MATCH (n:%s {%s: id}) RETURN id",
+                    BASE_LABEL, EntityType.ID_KEY);
+            try (CloseableIterable<Map<String, Object>> rows = graph.getBaseGraph()
+                    .query(query, ImmutableMap.of("ids", Lists.newArrayList(ids)))) {
+                for (Map<String, Object> row : rows) {
+                    existing.add((String) row.get("id"));
+                }
+            }
+        }
+        return existing;
+    }
+
     @Override
     public Vertex getVertex(String id) throws ItemNotFound {
         Preconditions
@@ -87,6 +112,22 @@ public final class Neo4jGraphManager<T extends Neo4j2Graph> extends BlueprintsGr
                 key, value);
     }
 
+    @Override
+    public Map<Object, String> getIdsByPropertyValues(String key, Collection<?> values, EntityClass type) {
+        Map<Object, String> ids = Maps.newHashMap();
+        if (!values.isEmpty()) {
+            String query = String.format("UNWIND $values AS value MATCH (n:`%s`) WHERE n.`%s` = value " +
+                    "RETURN value, n.%s AS id", type.getName(), key, EntityType.ID_KEY);
+            try (CloseableIterable<Map<String, Object>> rows = graph.getBaseGraph()
+                    .query(query, ImmutableMap.of("values", Lists.newArrayList(values)))) {
+                for (Map<String, Object> row : rows) {
+                    ids.putIfAbsent(row.get("value"), (String) row.get("id"));
+                }
+            }
+        }
+        return ids;
+    }
+
     @Override
     public Vertex createVertex(String id, EntityClass type,
             Map<String, ?> data) throws IntegrityError {
@@ -110,62 +151,122 @@ public final class Neo4jGraphManager<T extends Neo4j2Graph> extends BlueprintsGr
     }
 
     /**
-     * Set labels on a Neo4j-based vertex.
+     * Set labels on a Neo4j-based vertex. Only labels that differ
+     * from the expected base and type labels are removed or added,
+     * so a vertex whose type is unchanged is not written to.
      *
      * @param vertex the vertex
      * @return a vertex with labels set
      */
     public Vertex setLabels(Vertex vertex) {
         Neo4j2Vertex node = (Neo4j2Vertex) vertex;
+        Set<String> missing = Sets.newHashSet(BASE_LABEL, getType(vertex));
         for (String label : node.getLabels()) {
-            node.removeLabel(label);
+            if (!missing.remove(label)) {
+                node.removeLabel(label);
+            }
+        }
+        for (String label : missing) {
+            node.addLabel(label);
         }
-        node.addLabel(BASE_LABEL);
-        String type = getType(vertex);
-        node.addLabel(type);
         return node;
     }
 
     /**
-     * Create
+     * Bring the schema in line with the indexed, mandatory and unique
+     * properties of each entity class. Missing indexes and uniqueness
+     * constraints are created and obsolete ones dropped, but those that
+     * are already in place are left alone so their indexes do not have
+     * to be populated again.
+     * <p>
+     * New indexes are populated in the background once the current
+     * transaction commits. See {@link #awaitIndexesOnline(GraphDatabaseService, long, TimeUnit)}.
+     *
+     * @param graph the Neo4j database
      */
     public static void createIndicesAndConstraints(GraphDatabaseService graph) {
+        // The desired schema, as label/property-key pairs.
+        SetMultimap<String, String> indexes = HashMultimap.create();
+        SetMultimap<String, String> constraints = HashMultimap.create();
+        constraints.put(BASE_LABEL, EntityType.ID_KEY);
+        indexes.put(BASE_LABEL, EntityType.TYPE_KEY);
+        for (EntityClass cls : EntityClass.values()) {
+            indexes.putAll(cls.getName(), ClassUtils.getIndexedPropertyKeys(cls.getJavaClass()));
+            indexes.putAll(cls.getName(), ClassUtils.getMandatoryPropertyKeys(cls.getJavaClass()));
+            constraints.putAll(cls.getName(), ClassUtils.getUniquePropertyKeys(cls.getJavaClass()));
+        }
+        // A uniqueness constraint brings its own index
+        indexes.entries().removeIf(e -> constraints.containsEntry(e.getKey(), e.getValue()));
+
+        // Drop what is no longer wanted, and strike off what is already
+        // there from what needs creating.
         Schema schema = graph.schema();
-        for (ConstraintDefinition constraintDefinition : schema.getConstraints()) {
-            constraintDefinition.drop();
+        int dropped = 0;
+        for (ConstraintDefinition constraint : schema.getConstraints()) {
+            List<String> keys = Lists.newArrayList(constraint.getPropertyKeys());
+            String label = constraint.getLabel().name();
+            if (!constraint.isConstraintType(ConstraintType.UNIQUENESS) || keys.size() != 1
+                    || !constraints.remove(label, keys.get(0))) {
+                logger.debug("Dropping obsolete constraint: {} -> {}", label, keys);
+                constraint.drop();
+                dropped++;
+            }
         }
-        for (IndexDefinition indexDefinition : schema.getIndexes()) {
-            indexDefinition.drop();
+        for (IndexDefinition index : schema.getIndexes()) {
+            if (index.isConstraintIndex()) {
+                continue;
+            }
+            List<String> keys = Lists.newArrayList(index.getPropertyKeys());
+            List<Label> labels = Lists.newArrayList(index.getLabels());
+            if (!index.isNodeIndex() || labels.size() != 1 || keys.size() != 1
+                    || !indexes.remove(labels.get(0).name(), keys.get(0))) {
+                logger.debug("Dropping obsolete index: {} -> {}", labels, keys);
+                index.drop();
+                dropped++;
+            }
         }
 
-        schema.constraintFor(Label.label(BASE_LABEL))
-                .assertPropertyIsUnique(EntityType.ID_KEY)
-                .create();
-        schema.indexFor(Label.label(BASE_LABEL))
-                .on(EntityType.TYPE_KEY)
-                .create();
-
-        // Create an index on each mandatory or indexed property and
-        // a unique constraint on unique properties.
-        for (EntityClass cls : EntityClass.values()) {
-            Set<String> propertyKeys = Sets.newHashSet();
-            propertyKeys.addAll(ClassUtils.getIndexedPropertyKeys(cls.getJavaClass()));
-            propertyKeys.addAll(ClassUtils.getMandatoryPropertyKeys(cls.getJavaClass()));
-            for (String prop : propertyKeys) {
-                logger.trace("Creating index on property: {} -> {}", cls.getName(), prop);
-                schema.indexFor(Label.label(cls.getName()))
-                        .on(prop)
-                        .create();
-            }
+        for (Map.Entry<String, String> unique : constraints.entries()) {
+            logger.trace("Creating constraint on unique property: {} -> {}",
+                    unique.getKey(), unique.getValue());
+            schema.constraintFor(Label.label(unique.getKey()))
+                    .assertPropertyIsUnique(unique.getValue())
+                    .create();
+        }
+        for (Map.Entry<String, String> prop : indexes.entries()) {
+            logger.trace("Creating index on property: {} -> {}", prop.getKey(), prop.getValue());
+            schema.indexFor(Label.label(prop.getKey()))
+                    .on(prop.getValue())
+                    .create();
+        }
+        logger.info("Schema updated: {} created, {} dropped",
+                constraints.size() + indexes.size(), dropped);
+    }
 
-            Collection<String> uniquePropertyKeys = ClassUtils.getUniquePropertyKeys(cls.getJavaClass());
-            for (String unique : uniquePropertyKeys) {
-                logger.trace("Creating constraint on unique property: {} -> {}",
-                        cls.getName(), unique);
-                schema.constraintFor(Label.label(cls.getName()))
-                        .assertPropertyIsUnique(unique)
-                        .create();
+    /**
+     * Wait for all schema indexes to come online, logging the progress
+     * of any that are still being populated. This must be called after
+     * the transaction that created the indexes has committed.
+     *
+     * @param graph   the Neo4j database
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @throws IllegalStateException if an index fails or is not online in time
+     */
+    public static void awaitIndexesOnline(GraphDatabaseService graph, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try (Transaction tx = graph.beginTx()) {
+            Schema schema = graph.schema();
+            for (IndexDefinition index : schema.getIndexes()) {
+                if (schema.getIndexState(index) == Schema.IndexState.POPULATING) {
+                    logger.info("Waiting for index {} -> {} ({}% complete)",
+                            Lists.newArrayList(index.getLabels()),
+                            Lists.newArrayList(index.getPropertyKeys()),
+                            schema.getIndexPopulationProgress(index).getCompletedPercentage());
+                }
+                schema.awaitIndexOnline(index, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
             }
+            tx.success();
         }
     }
 }
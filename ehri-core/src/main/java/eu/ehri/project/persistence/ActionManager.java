@@ -95,23 +95,43 @@ public final class ActionManager {
     public static final String EVENT_LINK = "EventLink";
     public static final String LINK_TYPE = "_linkType";
 
+    /**
+     * System property giving the default number of versions between
+     * full snapshots when version data is stored as compressed deltas.
+     * Values lower than 2 (the default) store every version in full.
+     */
+    public static final String VERSION_SNAPSHOT_INTERVAL = "ehri.versionSnapshotInterval";
+
     private final FramedGraph<?> graph;
     private final GraphManager manager;
     private final Entity scope;
     private final Serializer versionSerializer;
     private final BundleManager dao;
+    private final int snapshotInterval;
 
     /**
-     * Constructor with scope.
+     * Constructor with scope and version snapshot interval.
      *
-     * @param graph The framed graph
+     * @param graph            The framed graph
+     * @param scope            The event scope
+     * @param snapshotInterval The number of versions between full snapshots
      */
-    public ActionManager(FramedGraph<?> graph, Entity scope) {
+    public ActionManager(FramedGraph<?> graph, Entity scope, int snapshotInterval) {
         this.graph = graph;
         this.manager = GraphManagerFactory.getInstance(graph);
         this.scope = Optional.ofNullable(scope).orElse(SystemScope.getInstance());
         this.versionSerializer = new Serializer.Builder(graph).dependentOnly().build();
         this.dao = new BundleManager(graph);
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * Constructor with scope.
+     *
+     * @param graph The framed graph
+     */
+    public ActionManager(FramedGraph<?> graph, Entity scope) {
+        this(graph, scope, Integer.getInteger(VERSION_SNAPSHOT_INTERVAL, 1));
     }
 
     /**
@@ -261,7 +281,7 @@ public final class ActionManager {
                     for (Pair<Entity, Bundle> entityBundle : toVersion) {
                         Entity subject = entityBundle.getKey();
                         Bundle version = entityBundle.getValue();
-                        Version ev = dao.create(version, Version.class);
+                        Version ev = createVersionNode(subject, version);
                         replaceAtHead(subject.asVertex(), ev.asVertex(),
                                 Ontology.ENTITY_HAS_PRIOR_VERSION,
                                 Ontology.ENTITY_HAS_PRIOR_VERSION, Direction.OUT);
@@ -373,7 +393,20 @@ public final class ActionManager {
      */
     public ActionManager setScope(Entity frame) {
         return new ActionManager(graph,
-                Optional.ofNullable(frame).orElse(SystemScope.getInstance()));
+                Optional.ofNullable(frame).orElse(SystemScope.getInstance()), snapshotInterval);
+    }
+
+    /**
+     * Set the number of versions between full snapshots. Intermediate
+     * versions are stored as compressed deltas against the previous
+     * version of the same item.
+     *
+     * @param interval the snapshot interval; values lower than 2
+     *                 store every version in full
+     * @return A new ActionManager instance.
+     */
+    public ActionManager withVersionSnapshotInterval(int interval) {
+        return new ActionManager(graph, scope, interval);
     }
 
 
@@ -500,6 +533,28 @@ public final class ActionManager {
         }
     }
 
+    /**
+     * Create a version node, storing its data as a delta against the
+     * subject's current latest version unless a full snapshot is due.
+     */
+    private Version createVersionNode(Entity subject, Bundle version) throws ValidationError {
+        Iterator<Vertex> iter = subject.asVertex()
+                .getVertices(Direction.OUT, Ontology.ENTITY_HAS_PRIOR_VERSION).iterator();
+        if (iter.hasNext()) {
+            Vertex previous = iter.next();
+            int depth = VersionCodec.getDeltaDepth(previous) + 1;
+            if (depth < snapshotInterval) {
+                String data = version.getDataValue(Ontology.VERSION_ENTITY_DATA);
+                String delta = VersionCodec.createDelta(VersionCodec.getEntityData(previous), data);
+                Version ev = dao.create(version.removeDataValue(Ontology.VERSION_ENTITY_DATA), Version.class);
+                manager.setProperty(ev.asVertex(), VersionCodec.DELTA_KEY, delta);
+                manager.setProperty(ev.asVertex(), VersionCodec.DELTA_DEPTH_KEY, depth);
+                return ev;
+            }
+        }
+        return dao.create(version, Version.class);
+    }
+
     /**
      * Create a link vertex. This we stamp with a descriptive
      * type purely for debugging purposes.
@@ -19,7 +19,9 @@
 
 package eu.ehri.project.persistence;
 
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.tinkerpop.blueprints.Direction;
@@ -53,6 +55,7 @@ public final class BundleManager {
     private final FramedGraph<?> graph;
     private final GraphManager manager;
     private final Serializer serializer;
+    private final LookupCache lookups;
     private final BundleValidator validator;
 
     /**
@@ -65,7 +68,8 @@ public final class BundleManager {
         this.graph = graph;
         manager = GraphManagerFactory.getInstance(graph);
         serializer = new Serializer.Builder(graph).dependentOnly().build();
-        validator = new BundleValidator(manager, scopeIds);
+        lookups = new LookupCache(manager);
+        validator = new BundleValidator(lookups, scopeIds);
     }
 
     /**
@@ -120,6 +124,28 @@ public final class BundleManager {
                 vertexMutation.getPrior());
     }
 
+    /**
+     * Entry point for creating or updating a bundle when the caller has
+     * already serialized the existing item, for example in order to merge
+     * the new data with it. The snapshot is used in place of re-reading the
+     * item and its dependent subtree from the graph when diffing, so it must
+     * have been produced by a dependent-only {@link Serializer} and reflect
+     * the current state of the item.
+     *
+     * @param bundle  The bundle to create or update
+     * @param current A dependent-only serialization of the existing item,
+     *                or null if the item does not exist
+     * @param cls     The frame class of the return type
+     * @return A frame mutation
+     */
+    public <T extends Entity> Mutation<T> createOrUpdate(Bundle bundle, Bundle current, Class<T> cls)
+            throws ValidationError {
+        Bundle bundleWithIds = validator.validateForUpdate(bundle);
+        Mutation<Vertex> vertexMutation = createOrUpdateInner(bundleWithIds, current);
+        return new Mutation<>(graph.frame(vertexMutation.getNode(), cls), vertexMutation.getState(),
+                vertexMutation.getPrior());
+    }
+
     /**
      * Delete a bundle and dependent items, returning the total number of vertices deleted.
      *
@@ -134,6 +160,32 @@ public final class BundleManager {
         }
     }
 
+    /**
+     * Resolve the existence of a window of bundles, and any other items
+     * they will be validated against, with bulk lookups, so that creating
+     * or updating them does not require a separate index query per item.
+     * This replaces any previously-prefetched lookups.
+     *
+     * @param bundles a collection of bundles that are about to be saved
+     * @return this bundle manager
+     */
+    public BundleManager prefetch(Collection<Bundle> bundles) {
+        validator.prefetch(bundles);
+        return this;
+    }
+
+    /**
+     * Discard any lookups resolved by {@link #prefetch(Collection)}. This
+     * should be called once the prefetched bundles have been saved, since
+     * the cache is not told about changes made by other means.
+     *
+     * @return this bundle manager
+     */
+    public BundleManager clearPrefetched() {
+        lookups.clear();
+        return this;
+    }
+
     public BundleManager withScopeIds(Collection<String> scopeIds) {
         return new BundleManager(graph, scopeIds);
     }
@@ -146,6 +198,7 @@ public final class BundleManager {
             c = deleteCount(child, c);
         }
         manager.deleteVertex(bundle.getId());
+        lookups.deleted(bundle);
         return c + 1;
     }
 
@@ -158,8 +211,22 @@ public final class BundleManager {
      * @throws RuntimeException when an item is said to exist, but could not be found
      */
     private Mutation<Vertex> createOrUpdateInner(Bundle bundle) {
+        return createOrUpdateInner(bundle, null);
+    }
+
+    /**
+     * Insert or update an item, using the given serialization of the
+     * existing item, if present, rather than reading it from the graph.
+     *
+     * @param bundle  The bundle to create or update
+     * @param current The existing item's bundle, or null if not known
+     * @return A vertex mutation
+     */
+    private Mutation<Vertex> createOrUpdateInner(Bundle bundle, Bundle current) {
         try {
-            if (manager.exists(bundle.getId())) {
+            if (current != null) {
+                return updateInner(bundle, current);
+            } else if (lookups.exists(bundle.getId())) {
                 return updateInner(bundle);
             } else {
                 return new Mutation<>(createInner(bundle), MutationState.CREATED);
@@ -182,6 +249,7 @@ public final class BundleManager {
         try {
             Vertex node = manager.createVertex(bundle.getId(), bundle.getType(),
                     bundle.getData());
+            lookups.saved(bundle);
             createDependents(node, bundle.getBundleJavaClass(), bundle.getRelations());
             return node;
         } catch (IntegrityError e) {
@@ -201,27 +269,53 @@ public final class BundleManager {
     private Mutation<Vertex> updateInner(Bundle bundle) throws ItemNotFound {
         Vertex node = manager.getVertex(bundle.getId());
         try {
-            Bundle currentBundle = serializer.vertexToBundle(node);
-            Bundle newBundle = bundle.dependentsOnly();
-            if (!currentBundle.equals(newBundle)) {
-                if (logger.isTraceEnabled()) {
-                    logger.trace("Bundles differ: {}:{}", bundle.getType(), bundle.getId());
-                    logger.trace(currentBundle.diff(newBundle));
-                }
-                node = manager.updateVertex(bundle.getId(), bundle.getType(),
-                        bundle.getData());
-                updateDependents(node, bundle.getBundleJavaClass(), bundle.getRelations());
-                return new Mutation<>(node, MutationState.UPDATED, currentBundle);
-            } else {
-                logger.debug("Not updating equivalent bundle: {}:{}", bundle.getType(), bundle.getId());
-                return new Mutation<>(node, MutationState.UNCHANGED);
-            }
+            return updateInner(node, bundle, serializer.vertexToBundle(node));
         } catch (SerializationError serializationError) {
             throw new RuntimeException("Unexpected serialization error " +
                     "checking bundle for equivalency", serializationError);
         }
     }
 
+    /**
+     * Update a bundle and save its dependent items, diffing against an
+     * existing serialization of the item.
+     *
+     * @param bundle        The bundle to update
+     * @param currentBundle The item's current dependent-only bundle
+     * @return A vertex mutation
+     */
+    private Mutation<Vertex> updateInner(Bundle bundle, Bundle currentBundle) throws ItemNotFound {
+        return updateInner(manager.getVertex(bundle.getId()), bundle, currentBundle);
+    }
+
+    private Mutation<Vertex> updateInner(Vertex node, Bundle bundle, Bundle currentBundle)
+            throws ItemNotFound {
+        Bundle newBundle = bundle.dependentsOnly();
+        if (!currentBundle.equals(newBundle)) {
+            if (logger.isTraceEnabled()) {
+                logger.trace("Bundles differ: {}:{}", bundle.getType(), bundle.getId());
+                logger.trace(currentBundle.diff(newBundle));
+            }
+            // Only rewrite this item's own properties if they have changed,
+            // since the difference may lie entirely in the dependent subtree.
+            if (!withoutRelations(currentBundle).equals(withoutRelations(newBundle))) {
+                node = manager.updateVertex(bundle.getId(), bundle.getType(),
+                        bundle.getData());
+            }
+            lookups.saved(bundle);
+            updateDependents(node, bundle.getBundleJavaClass(), bundle.getRelations(),
+                    currentBundle.getRelations());
+            return new Mutation<>(node, MutationState.UPDATED, currentBundle);
+        } else {
+            logger.debug("Not updating equivalent bundle: {}:{}", bundle.getType(), bundle.getId());
+            return new Mutation<>(node, MutationState.UNCHANGED);
+        }
+    }
+
+    private static Bundle withoutRelations(Bundle bundle) {
+        return bundle.replaceRelations(ArrayListMultimap.create());
+    }
+
     /**
      * Saves the dependent relations within a given bundle. Relations that are not dependent are ignored.
      *
@@ -252,8 +346,10 @@ public final class BundleManager {
      * @param master The master vertex
      * @param cls The master vertex class
      * @param relations A map of relations
+     * @param current The master's current dependent relations
      */
-    private void updateDependents(Vertex master, Class<?> cls, Multimap<String, Bundle> relations) {
+    private void updateDependents(Vertex master, Class<?> cls, Multimap<String, Bundle> relations,
+            Multimap<String, Bundle> current) {
 
         // Get a list of dependent relationships for this class, and their
         // directions.
@@ -262,8 +358,14 @@ public final class BundleManager {
         // Build a list of the IDs of existing dependents we're going to be
         // updating.
         Set<String> updating = getUpdateSet(relations);
+        // Index the current dependents so their subtrees do not have to be
+        // serialized again when updating or deleting them.
+        Map<String, Bundle> currentById = Maps.newHashMap();
+        for (Bundle child : current.values()) {
+            currentById.put(child.getId(), child);
+        }
         // Any that we're not going to update can have their subtrees deleted.
-        deleteMissingFromUpdateSet(master, dependents, updating);
+        deleteMissingFromUpdateSet(master, dependents, updating, currentById);
 
         // Now go throw and create or update the new subtrees.
         for (String relation : relations.keySet()) {
@@ -278,7 +380,8 @@ public final class BundleManager {
                         relation, direction);
 
                 for (Bundle bundle : relations.get(relation)) {
-                    Vertex child = createOrUpdateInner(bundle).getNode();
+                    Vertex child = createOrUpdateInner(bundle,
+                            currentById.get(bundle.getId())).getNode();
                     // Create a relation if there isn't one already
                     if (!currentRels.contains(child)) {
                         createChildRelationship(master, child, relation,
@@ -304,13 +407,16 @@ public final class BundleManager {
     }
 
     private void deleteMissingFromUpdateSet(Vertex master,
-            Map<String, Direction> dependents, Set<String> updating) {
+            Map<String, Direction> dependents, Set<String> updating, Map<String, Bundle> current) {
         for (Entry<String, Direction> relEntry : dependents.entrySet()) {
             for (Vertex v : getCurrentRelationships(master,
                     relEntry.getKey(), relEntry.getValue())) {
-                if (!updating.contains(manager.getId(v))) {
+                String id = manager.getId(v);
+                if (!updating.contains(id)) {
                     try {
-                        delete(serializer.entityToBundle(graph.frame(v,
+                        delete(current.containsKey(id)
+                                ? current.get(id)
+                                : serializer.entityToBundle(graph.frame(v,
                                 manager.getEntityClass(v).getJavaClass())));
                     } catch (SerializationError e) {
                         throw new RuntimeException(e);
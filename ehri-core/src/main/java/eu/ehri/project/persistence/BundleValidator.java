@@ -19,11 +19,11 @@
 
 package eu.ehri.project.persistence;
 
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.tinkerpop.blueprints.CloseableIterable;
-import com.tinkerpop.blueprints.Vertex;
 import eu.ehri.project.core.GraphManager;
 import eu.ehri.project.exceptions.ValidationError;
 import eu.ehri.project.models.annotations.EntityType;
@@ -31,21 +31,44 @@ import eu.ehri.project.models.utils.ClassUtils;
 
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 /**
  * Class responsible for validating bundles.
  */
 public final class BundleValidator {
 
-    private final GraphManager manager;
+    private final LookupCache lookups;
     private final List<String> scopes;
 
     public BundleValidator(GraphManager manager, Collection<String> scopes) {
-        this.manager = manager;
+        this(new LookupCache(manager), scopes);
+    }
+
+    BundleValidator(LookupCache lookups, Collection<String> scopes) {
+        this.lookups = lookups;
         this.scopes = Lists.newArrayList(Optional.ofNullable(scopes)
                 .orElse(Lists.newArrayList()));
     }
 
+    /**
+     * Resolve node existence and unique property values for a window
+     * of bundles in bulk, so that subsequent validation of those bundles
+     * can be answered from memory. Bundles with invalid data are skipped.
+     *
+     * @param bundles a collection of bundles which are about to be validated
+     */
+    void prefetch(Collection<Bundle> bundles) {
+        List<Bundle> withIds = Lists.newArrayListWithCapacity(bundles.size());
+        for (Bundle bundle : bundles) {
+            if (validateTreeData(bundle).isEmpty()) {
+                withIds.add(bundle.generateIds(scopes));
+            }
+        }
+        lookups.prefetch(withIds);
+    }
+
     /**
      * Validate the data in the bundle, according to the target class, and
      * ensure it is fit for creating in the graph.
@@ -93,7 +116,7 @@ public final class BundleValidator {
     }
 
     private enum ValidationType {
-        data, create, update
+        create, update
     }
 
     /**
@@ -105,14 +128,7 @@ public final class BundleValidator {
      * or containing found errors
      */
     private ErrorSet validateTreeForUpdate(Bundle bundle) {
-        ErrorSet.Builder builder = new ErrorSet.Builder();
-        if (bundle.getId() == null)
-            builder.addError(Bundle.ID_KEY, Messages
-                    .getString("BundleValidator.missingIdForUpdate")); //$NON-NLS-1$
-        checkUniquenessOnUpdate(bundle, builder);
-        checkChildren(bundle, builder, ValidationType.update);
-        checkDuplicateIds(bundle, builder);
-        return builder.build();
+        return validateTree(bundle, ValidationType.update);
     }
 
     /**
@@ -124,12 +140,7 @@ public final class BundleValidator {
      * or containing found errors
      */
     private ErrorSet validateTreeForCreate(Bundle bundle) {
-        ErrorSet.Builder builder = new ErrorSet.Builder();
-        checkIntegrity(bundle, builder);
-        checkUniqueness(bundle, builder);
-        checkChildren(bundle, builder, ValidationType.create);
-        checkDuplicateIds(bundle, builder);
-        return builder.build();
+        return validateTree(bundle, ValidationType.create);
     }
 
     /**
@@ -143,20 +154,47 @@ public final class BundleValidator {
         ErrorSet.Builder builder = new ErrorSet.Builder();
         checkFields(bundle, builder);
         checkEntityType(bundle, builder);
-        checkChildren(bundle, builder, ValidationType.data);
+        checkChildren(bundle, builder, this::validateTreeData);
+        return builder.build();
+    }
+
+    /**
+     * Validate a bundle tree for creation or update. IDs that are
+     * duplicated within the tree are found up-front with a single
+     * traversal, so each node is only visited once more to check it
+     * and build its error set.
+     */
+    private ErrorSet validateTree(Bundle bundle, ValidationType type) {
+        return validateNode(bundle, type, new DuplicateIds(bundle), new AtomicInteger());
+    }
+
+    private ErrorSet validateNode(Bundle bundle, ValidationType type,
+            DuplicateIds duplicates, AtomicInteger position) {
+        int index = position.getAndIncrement();
+        ErrorSet.Builder builder = new ErrorSet.Builder();
+        if (type == ValidationType.create) {
+            checkIntegrity(bundle, builder);
+            checkUniqueness(bundle, builder);
+        } else {
+            if (bundle.getId() == null)
+                builder.addError(Bundle.ID_KEY, Messages
+                        .getString("BundleValidator.missingIdForUpdate")); //$NON-NLS-1$
+            checkUniquenessOnUpdate(bundle, builder);
+        }
+        checkChildren(bundle, builder, child -> validateNode(child, type, duplicates, position));
+        for (String id : duplicates.get(index)) {
+            builder.addError(Bundle.ID_KEY, MessageFormat.format(
+                    Messages.getString("BundleValidator.duplicateId"), id));
+        }
         return builder.build();
     }
 
     private void checkChildren(Bundle bundle,
-            ErrorSet.Builder builder, ValidationType type) {
+            ErrorSet.Builder builder, Function<Bundle, ErrorSet> validate) {
         final Set<String> ids = Sets.newHashSet();
         for (Map.Entry<String, Bundle> entry : bundle.getDependentRelations().entries()) {
             Bundle child = entry.getValue();
-            ErrorSet errorSet = type == ValidationType.data
-                    ? validateTreeData(child)
-                    : (type == ValidationType.create
-                        ? validateTreeForCreate(child)
-                        : validateTreeForUpdate(child));
+            ErrorSet errorSet = validate.apply(child);
             if (errorSet.isEmpty() && child.getId() != null) {
                 if (ids.contains(child.getId())) {
                     ListMultimap<String, String> errs = child.getType().getIdGen()
@@ -172,15 +210,50 @@ public final class BundleValidator {
         }
     }
 
-    private static void checkDuplicateIds(Bundle bundle, ErrorSet.Builder builder) {
-        final Set<String> ids = Sets.newHashSet();
-        bundle.dependentsOnly().forEach(b -> {
-            if (ids.contains(b.getId())) {
-                builder.addError(Bundle.ID_KEY, MessageFormat.format(
-                        Messages.getString("BundleValidator.duplicateId"), b.getId()));
+    /**
+     * The IDs duplicated within each subtree of a bundle, keyed by the
+     * pre-order position of the subtree's root node. A duplicate is
+     * reported on every node whose subtree contains more than one
+     * occurrence of the ID.
+     */
+    private static final class DuplicateIds {
+        private final ListMultimap<Integer, String> duplicates = ArrayListMultimap.create();
+
+        DuplicateIds(Bundle bundle) {
+            List<String> ids = Lists.newArrayList();
+            List<Integer> parents = Lists.newArrayList();
+            Map<String, Integer> counts = Maps.newHashMap();
+            collect(bundle, -1, ids, parents, counts);
+
+            // Duplicates are rare, so only walk up from the nodes
+            // whose IDs occur more than once.
+            Map<Integer, Set<String>> seen = Maps.newHashMap();
+            for (int i = 0; i < ids.size(); i++) {
+                String id = ids.get(i);
+                if (counts.get(id) > 1) {
+                    for (int node = i; node != -1; node = parents.get(node)) {
+                        if (!seen.computeIfAbsent(node, k -> Sets.newHashSet()).add(id)) {
+                            duplicates.put(node, id);
+                        }
+                    }
+                }
+            }
+        }
+
+        List<String> get(int position) {
+            return duplicates.get(position);
+        }
+
+        private static void collect(Bundle bundle, int parent, List<String> ids,
+                List<Integer> parents, Map<String, Integer> counts) {
+            int position = ids.size();
+            ids.add(bundle.getId());
+            parents.add(parent);
+            counts.merge(bundle.getId(), 1, Integer::sum);
+            for (Bundle child : bundle.getDependentRelations().values()) {
+                collect(child, position, ids, parents, counts);
             }
-            ids.add(b.getId());
-        });
+        }
     }
 
     /**
@@ -248,7 +321,7 @@ public final class BundleValidator {
                     MessageFormat.format(Messages.getString("BundleValidator.missingIdForCreate"),
                     bundle.getId()));
         }
-        if (manager.exists(bundle.getId())) {
+        if (lookups.exists(bundle.getId())) {
             ListMultimap<String, String> idErrors = bundle
                     .getType().getIdGen().handleIdCollision(scopes, bundle);
             for (Map.Entry<String, String> entry : idErrors.entries()) {
@@ -263,13 +336,9 @@ public final class BundleValidator {
     private void checkUniqueness(Bundle bundle, ErrorSet.Builder builder) {
         for (String ukey : bundle.getUniquePropertyKeys()) {
             Object uval = bundle.getDataValue(ukey);
-            if (uval != null) {
-                try (CloseableIterable<Vertex> vertices = manager.getVertices(ukey, uval, bundle.getType())) {
-                    if (vertices.iterator().hasNext()) {
-                        builder.addError(ukey, MessageFormat.format(Messages
-                                .getString("BundleValidator.uniquenessError"), uval));
-                    }
-                }
+            if (uval != null && lookups.getIdByPropertyValue(ukey, uval, bundle.getType()).isPresent()) {
+                builder.addError(ukey, MessageFormat.format(Messages
+                        .getString("BundleValidator.uniquenessError"), uval));
             }
         }
     }
@@ -282,16 +351,11 @@ public final class BundleValidator {
         for (String ukey : bundle.getUniquePropertyKeys()) {
             Object uval = bundle.getDataValue(ukey);
             if (uval != null) {
-                try (CloseableIterable<Vertex> vertices = manager.getVertices(ukey, uval, bundle.getType())) {
-                    if (vertices.iterator().hasNext()) {
-                        Vertex v = vertices.iterator().next();
-                        // If it's the same vertex, we don't have a problem...
-                        if (!manager.getId(v).equals(bundle.getId())) {
-                            builder.addError(ukey, MessageFormat.format(Messages
-                                    .getString("BundleValidator.uniquenessError"), uval));
-
-                        }
-                    }
+                Optional<String> owner = lookups.getIdByPropertyValue(ukey, uval, bundle.getType());
+                // If it's the same vertex, we don't have a problem...
+                if (owner.isPresent() && !owner.get().equals(bundle.getId())) {
+                    builder.addError(ukey, MessageFormat.format(Messages
+                            .getString("BundleValidator.uniquenessError"), uval));
                 }
             }
         }
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.persistence;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.core.GraphManager;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.utils.ClassUtils;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A cache of node existence and unique-property lookups which can be
+ * populated in bulk for a window of incoming bundles, so that validating
+ * and saving them does not require a separate index query per node.
+ * <p>
+ * Lookups for IDs and values that were not prefetched fall through to
+ * the graph manager. The cache must be told about nodes that are
+ * saved or deleted while it is in use, but only tracks changes to
+ * those that were prefetched, and should be cleared once the batch
+ * of bundles it was populated for has been saved.
+ */
+final class LookupCache {
+
+    private final GraphManager manager;
+    private final Map<String, Boolean> existence = Maps.newHashMap();
+    private final Table<EntityClass, String, Map<Object, Optional<String>>> values = HashBasedTable.create();
+    // The reverse of the above: the value each known owner holds
+    private final Table<EntityClass, String, Map<String, Object>> owned = HashBasedTable.create();
+
+    LookupCache(GraphManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Resolve the existence of every node in a set of bundle trees, and
+     * the owners of their unique property values, with one bulk lookup
+     * for the IDs and one per unique key type. Previously cached lookups
+     * are discarded.
+     *
+     * @param bundles a collection of bundles with generated IDs
+     */
+    void prefetch(Collection<Bundle> bundles) {
+        clear();
+        Set<String> ids = Sets.newHashSet();
+        Table<EntityClass, String, Set<Object>> uniqueValues = HashBasedTable.create();
+        for (Bundle bundle : bundles) {
+            collect(bundle, ids, uniqueValues);
+        }
+
+        Set<String> existing = manager.getExistingIds(ids);
+        for (String id : ids) {
+            existence.put(id, existing.contains(id));
+        }
+
+        for (Table.Cell<EntityClass, String, Set<Object>> cell : uniqueValues.cellSet()) {
+            Map<Object, String> owners = manager.getIdsByPropertyValues(
+                    cell.getColumnKey(), cell.getValue(), cell.getRowKey());
+            Map<Object, Optional<String>> known = Maps.newHashMap();
+            Map<String, Object> byOwner = Maps.newHashMap();
+            for (Object value : cell.getValue()) {
+                String owner = owners.get(value);
+                known.put(value, Optional.ofNullable(owner));
+                if (owner != null) {
+                    byOwner.put(owner, value);
+                }
+            }
+            values.put(cell.getRowKey(), cell.getColumnKey(), known);
+            owned.put(cell.getRowKey(), cell.getColumnKey(), byOwner);
+        }
+    }
+
+    /**
+     * Check if a node with the given ID exists.
+     *
+     * @param id a string ID
+     * @return whether a node with that ID exists in the graph
+     */
+    boolean exists(String id) {
+        Boolean exists = existence.get(id);
+        return exists != null ? exists : manager.exists(id);
+    }
+
+    /**
+     * Get the ID of a node of the given type with the given value
+     * for a property.
+     *
+     * @param key   the property key
+     * @param value the property value
+     * @param type  the entity type
+     * @return the ID of a node with that value, if any
+     */
+    Optional<String> getIdByPropertyValue(String key, Object value, EntityClass type) {
+        Map<Object, Optional<String>> known = values.get(type, key);
+        if (known != null && known.containsKey(value)) {
+            return known.get(value);
+        }
+        try (CloseableIterable<Vertex> vertices = manager.getVertices(key, value, type)) {
+            Iterator<Vertex> iterator = vertices.iterator();
+            return iterator.hasNext()
+                    ? Optional.of(manager.getId(iterator.next()))
+                    : Optional.empty();
+        }
+    }
+
+    /**
+     * Record that a node has been created or updated with the given data.
+     *
+     * @param bundle the saved bundle
+     */
+    void saved(Bundle bundle) {
+        existence.computeIfPresent(bundle.getId(), (id, exists) -> true);
+        for (String key : bundle.getUniquePropertyKeys()) {
+            Map<Object, Optional<String>> known = values.get(bundle.getType(), key);
+            if (known != null) {
+                release(bundle, key, known);
+                Object value = bundle.getDataValue(key);
+                if (value != null && known.containsKey(value)) {
+                    known.put(value, Optional.of(bundle.getId()));
+                    owned.get(bundle.getType(), key).put(bundle.getId(), value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record that a node has been deleted.
+     *
+     * @param bundle the deleted bundle
+     */
+    void deleted(Bundle bundle) {
+        existence.computeIfPresent(bundle.getId(), (id, exists) -> false);
+        for (String key : bundle.getUniquePropertyKeys()) {
+            Map<Object, Optional<String>> known = values.get(bundle.getType(), key);
+            if (known != null) {
+                release(bundle, key, known);
+            }
+        }
+    }
+
+    /**
+     * Discard all cached lookups.
+     */
+    void clear() {
+        existence.clear();
+        values.clear();
+        owned.clear();
+    }
+
+    // Forget that the bundle's node holds the value it previously
+    // held for a unique key, if any.
+    private void release(Bundle bundle, String key, Map<Object, Optional<String>> known) {
+        Object previous = owned.get(bundle.getType(), key).remove(bundle.getId());
+        if (previous != null) {
+            known.put(previous, Optional.empty());
+        }
+    }
+
+    private static void collect(Bundle bundle, Set<String> ids,
+            Table<EntityClass, String, Set<Object>> uniqueValues) {
+        if (bundle.getId() != null) {
+            ids.add(bundle.getId());
+        }
+        for (String key : ClassUtils.getUniquePropertyKeys(bundle.getBundleJavaClass())) {
+            Object value = bundle.getDataValue(key);
+            if (value != null) {
+                Set<Object> keyValues = uniqueValues.get(bundle.getType(), key);
+                if (keyValues == null) {
+                    keyValues = Sets.newHashSet();
+                    uniqueValues.put(bundle.getType(), key, keyValues);
+                }
+                keyValues.add(value);
+            }
+        }
+        for (Bundle child : bundle.getDependentRelations().values()) {
+            collect(child, ids, uniqueValues);
+        }
+    }
+}
@@ -26,6 +26,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.FramedGraph;
+import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.exceptions.SerializationError;
 import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.models.annotations.Dependent;
@@ -466,6 +467,11 @@ public final class Serializer {
                     .equals(EntityType.TYPE_KEY) || key.startsWith("_")))
                 data.put(key, item.getProperty(key));
         }
+        // Versions stored as deltas have no data property of their
+        // own, so reconstruct it from the version chain.
+        if (!lite && type.equals(EntityClass.VERSION)) {
+            data.computeIfAbsent(Ontology.VERSION_ENTITY_DATA, k -> VersionCodec.getEntityData(item));
+        }
         return data;
     }
 
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.persistence;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.flipkart.zjsonpatch.JsonDiff;
+import com.flipkart.zjsonpatch.JsonPatch;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.definitions.Ontology;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encoding and decoding of version data stored as compressed
+ * JSON-Patch deltas.
+ * <p>
+ * A version either holds a full snapshot of its item's data in the
+ * {@link Ontology#VERSION_ENTITY_DATA} property or a gzipped, Base64-encoded
+ * patch against the next-oldest version in the item's version chain. Deltas
+ * are kept in hidden properties so they are never serialized directly.
+ */
+public final class VersionCodec {
+
+    /**
+     * Hidden property holding a compressed JSON-Patch against the
+     * previous version.
+     */
+    public static final String DELTA_KEY = "__entityDelta";
+
+    /**
+     * Hidden property holding the number of deltas between this version
+     * and the nearest full snapshot.
+     */
+    public static final String DELTA_DEPTH_KEY = "__entityDeltaDepth";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final ObjectWriter writer = mapper.writerWithDefaultPrettyPrinter();
+
+    private VersionCodec() {
+    }
+
+    /**
+     * Get the number of deltas that must be applied to the nearest
+     * full snapshot to reconstruct this version.
+     *
+     * @param version a version vertex
+     * @return a delta depth, zero for full snapshots
+     */
+    public static int getDeltaDepth(Vertex version) {
+        Integer depth = version.getProperty(DELTA_DEPTH_KEY);
+        return depth == null ? 0 : depth;
+    }
+
+    /**
+     * Create a compressed delta between two serialized versions.
+     *
+     * @param previousData the JSON data of the previous version
+     * @param data         the JSON data of the new version
+     * @return a gzipped JSON-Patch, encoded as Base64
+     */
+    public static String createDelta(String previousData, String data) {
+        try {
+            JsonNode diff = JsonDiff.asJson(mapper.readTree(previousData), mapper.readTree(data));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (OutputStream out = new GZIPOutputStream(bytes)) {
+                mapper.writeValue(out, diff);
+            }
+            return Base64.getEncoder().encodeToString(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException("Error creating version delta", e);
+        }
+    }
+
+    /**
+     * Reconstruct the serialized data of a version, applying any
+     * deltas to the nearest full snapshot.
+     *
+     * @param version a version vertex
+     * @return the version's JSON data, or null if it has none
+     */
+    public static String getEntityData(Vertex version) {
+        Deque<String> deltas = new ArrayDeque<>();
+        Vertex current = version;
+        while (current != null) {
+            String data = current.getProperty(Ontology.VERSION_ENTITY_DATA);
+            if (data != null) {
+                return deltas.isEmpty() ? data : applyDeltas(data, deltas);
+            }
+            String delta = current.getProperty(DELTA_KEY);
+            if (delta == null) {
+                if (deltas.isEmpty()) {
+                    return null;
+                }
+                break;
+            }
+            deltas.push(delta);
+            Iterator<Vertex> prior = current
+                    .getVertices(Direction.OUT, Ontology.ENTITY_HAS_PRIOR_VERSION).iterator();
+            current = prior.hasNext() ? prior.next() : null;
+        }
+        throw new IllegalStateException("No snapshot found in version chain for version: "
+                + version.getProperty(Ontology.VERSION_ENTITY_ID));
+    }
+
+    private static String applyDeltas(String data, Deque<String> deltas) {
+        try {
+            JsonNode node = mapper.readTree(data);
+            while (!deltas.isEmpty()) {
+                try (InputStream in = new GZIPInputStream(
+                        new ByteArrayInputStream(Base64.getDecoder().decode(deltas.pop())))) {
+                    node = JsonPatch.apply(mapper.readTree(in), node);
+                }
+            }
+            return writer.writeValueAsString(node);
+        } catch (IOException e) {
+            throw new RuntimeException("Error applying version delta", e);
+        }
+    }
+}
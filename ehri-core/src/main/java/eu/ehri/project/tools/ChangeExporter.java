@@ -0,0 +1,409 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.tools;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.collect.Sets;
+import com.tinkerpop.frames.FramedGraph;
+import eu.ehri.project.core.GraphManager;
+import eu.ehri.project.core.GraphManagerFactory;
+import eu.ehri.project.definitions.EventTypes;
+import eu.ehri.project.exceptions.ItemNotFound;
+import eu.ehri.project.exceptions.SerializationError;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.base.Accessible;
+import eu.ehri.project.models.events.SystemEvent;
+import eu.ehri.project.models.events.Version;
+import eu.ehri.project.persistence.ActionManager;
+import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.persistence.Serializer;
+
+import org.joda.time.DateTime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Export the items that have been created, updated or deleted
+ * since a given event, or a given time, for incremental
+ * synchronisation of downstream systems.
+ * <p>
+ * The global event stream is walked from the most recent event
+ * back to the checkpoint, so the cost is proportional to the
+ * number of events since then rather than the size of the
+ * database. Each changed item is reported once, most recently
+ * changed first, as soon as it is found, so only the IDs of the
+ * items already reported are held in memory. The export also
+ * contains the ID of the most recent event, which can be used as
+ * the checkpoint for the next export.
+ */
+public class ChangeExporter {
+
+    private static final ObjectMapper jsonMapper = new ObjectMapper();
+
+    public enum ChangeType {
+        created, updated, deleted
+    }
+
+    /**
+     * A changed item, and the most recent event that changed it.
+     */
+    public static class Change {
+        private final String id;
+        private final String type;
+        private final ChangeType changeType;
+        private final String eventId;
+        private final String timestamp;
+
+        Change(String id, String type, ChangeType changeType, String eventId, String timestamp) {
+            this.id = id;
+            this.type = type;
+            this.changeType = changeType;
+            this.eventId = eventId;
+            this.timestamp = timestamp;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public ChangeType getChangeType() {
+            return changeType;
+        }
+
+        public String getEventId() {
+            return eventId;
+        }
+
+        public String getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return changeType + ": " + id + " (" + type + ") @ " + eventId;
+        }
+    }
+
+    /**
+     * The outcome of walking the changes after a checkpoint.
+     */
+    public static class ChangeSummary {
+        private final String checkpoint;
+        private final int count;
+
+        ChangeSummary(String checkpoint, int count) {
+            this.checkpoint = checkpoint;
+            this.count = count;
+        }
+
+        /**
+         * @return the ID of the most recent event, or the original
+         * checkpoint if there have been none since
+         */
+        public String getCheckpoint() {
+            return checkpoint;
+        }
+
+        /**
+         * @return the number of changes reported
+         */
+        public int getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Where the changes to be reported stop: at a given event, and/or
+     * at events no later than a given time.
+     */
+    private static class Since {
+        private final String eventId;
+        private final DateTime eventTime;
+        private final DateTime time;
+
+        Since(String eventId, DateTime eventTime, DateTime time) {
+            this.eventId = eventId;
+            this.eventTime = eventTime;
+            this.time = time;
+        }
+
+        /**
+         * Whether a global event is at or before the checkpoint. The
+         * event stream is in order, so the checkpoint event itself
+         * marks the end.
+         */
+        boolean reached(SystemEvent event) {
+            return (eventId != null && eventId.equals(event.getId()))
+                    || (time != null && !DateTime.parse(event.getTimestamp()).isAfter(time));
+        }
+
+        /**
+         * Whether an item's event happened at or before the checkpoint.
+         * An item's history need not include the checkpoint event, so
+         * that event's time is used instead.
+         */
+        boolean precedes(SystemEvent event) {
+            if (eventId != null && eventId.equals(event.getId())) {
+                return true;
+            }
+            DateTime eventTime = DateTime.parse(event.getTimestamp());
+            return (this.eventTime != null && !eventTime.isAfter(this.eventTime))
+                    || (time != null && !eventTime.isAfter(time));
+        }
+    }
+
+    private final FramedGraph<?> graph;
+    private final GraphManager manager;
+    private final Serializer serializer;
+    private final Predicate<Accessible> filter;
+    private final boolean filtered;
+
+    private ChangeExporter(FramedGraph<?> graph, Serializer serializer, Predicate<Accessible> filter,
+            boolean filtered) {
+        this.graph = graph;
+        this.manager = GraphManagerFactory.getInstance(graph);
+        this.serializer = serializer;
+        this.filter = filter;
+        this.filtered = filtered;
+    }
+
+    public ChangeExporter(FramedGraph<?> graph) {
+        this(graph, new Serializer.Builder(graph).dependentOnly().build(), item -> true, false);
+    }
+
+    /**
+     * Use the given serializer for the data of changed items.
+     *
+     * @param serializer a serializer
+     * @return a new change exporter
+     */
+    public ChangeExporter withSerializer(Serializer serializer) {
+        return new ChangeExporter(graph, serializer, filter, filtered);
+    }
+
+    /**
+     * Only export existing items that match the given predicate,
+     * for example, those visible to a particular user.
+     * <p>
+     * Deletions are then left out altogether, since a deleted item
+     * can no longer be tested, and reporting them would reveal the
+     * IDs of items the predicate would have hidden.
+     *
+     * @param filter an item predicate
+     * @return a new change exporter
+     */
+    public ChangeExporter withFilter(Predicate<Accessible> filter) {
+        return new ChangeExporter(graph, serializer, filter, true);
+    }
+
+    /**
+     * Check that changes can be found after a checkpoint, so that an
+     * invalid one can be reported before any output is written.
+     *
+     * @param sinceEventId   the ID of the last event seen, if any
+     * @param sinceTimestamp an ISO 8601 timestamp, if any
+     * @throws ItemNotFound             if the given event does not exist
+     * @throws IllegalArgumentException if the timestamp is not valid
+     */
+    public void checkSince(Optional<String> sinceEventId, Optional<String> sinceTimestamp) throws ItemNotFound {
+        getSince(sinceEventId, sinceTimestamp);
+    }
+
+    /**
+     * Report the items changed after a checkpoint, most recently
+     * changed first.
+     *
+     * @param sinceEventId   the ID of the last event seen, if any
+     * @param sinceTimestamp an ISO 8601 timestamp, if any. Only events
+     *                       after this time are included.
+     * @param consumer       a consumer for each change
+     * @return the new checkpoint and the number of changes
+     * @throws ItemNotFound             if the given event does not exist,
+     *                                  or is no longer in the event stream
+     * @throws IllegalArgumentException if the timestamp is not valid
+     */
+    public ChangeSummary getChanges(Optional<String> sinceEventId, Optional<String> sinceTimestamp,
+            Consumer<Change> consumer) throws ItemNotFound {
+        Since since = getSince(sinceEventId, sinceTimestamp);
+        Iterator<SystemEvent> events = new ActionManager(graph).getLatestGlobalEvents().iterator();
+        return getChanges(events, since, sinceEventId.orElse(null), consumer);
+    }
+
+    /**
+     * Write the items changed after a checkpoint as a JSON object,
+     * containing the new checkpoint and a list of changes, most
+     * recently changed first. The changes include the current data
+     * of created and updated items, and are written as they are found.
+     *
+     * @param stream         the output stream
+     * @param sinceEventId   the ID of the last event seen, if any
+     * @param sinceTimestamp an ISO 8601 timestamp, if any
+     * @return the new checkpoint and the number of changes written
+     * @throws ItemNotFound             if the given event does not exist
+     * @throws IllegalArgumentException if the timestamp is not valid
+     */
+    public ChangeSummary export(OutputStream stream, Optional<String> sinceEventId,
+            Optional<String> sinceTimestamp) throws IOException, ItemNotFound {
+        Since since = getSince(sinceEventId, sinceTimestamp);
+        PeekingIterator<SystemEvent> events = Iterators.peekingIterator(
+                new ActionManager(graph).getLatestGlobalEvents().iterator());
+        String checkpoint = events.hasNext() && !since.reached(events.peek())
+                ? events.peek().getId()
+                : sinceEventId.orElse(null);
+        try (JsonGenerator g = jsonMapper.getFactory().createGenerator(stream)) {
+            g.writeStartObject();
+            g.writeStringField("checkpoint", checkpoint);
+            g.writeArrayFieldStart("changes");
+            AtomicInteger count = new AtomicInteger();
+            getChanges(events, since, checkpoint, change -> {
+                Optional<Accessible> item = getItem(change);
+                if (change.getChangeType() == ChangeType.deleted ? filtered : !item.isPresent()) {
+                    return;
+                }
+                try {
+                    g.writeStartObject();
+                    g.writeStringField(Bundle.ID_KEY, change.getId());
+                    g.writeStringField(Bundle.TYPE_KEY, change.getType());
+                    g.writeStringField("change", change.getChangeType().name());
+                    g.writeStringField("event", change.getEventId());
+                    g.writeStringField("timestamp", change.getTimestamp());
+                    if (item.isPresent()) {
+                        g.writeFieldName("data");
+                        jsonMapper.writeValue(g, serializer.entityToData(item.get()));
+                    }
+                    g.writeEndObject();
+                    g.flush();
+                    count.incrementAndGet();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (SerializationError e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            g.writeEndArray();
+            g.writeEndObject();
+            return new ChangeSummary(checkpoint, count.get());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private ChangeSummary getChanges(Iterator<SystemEvent> events, Since since, String checkpoint,
+            Consumer<Change> consumer) throws ItemNotFound {
+        Set<String> seen = Sets.newHashSet();
+        boolean reached = false;
+        boolean first = true;
+        while (events.hasNext()) {
+            SystemEvent event = events.next();
+            if (since.reached(event)) {
+                reached = true;
+                break;
+            }
+            if (first) {
+                checkpoint = event.getId();
+                first = false;
+            }
+            String timestamp = event.getTimestamp();
+            if (event.getEventType() == EventTypes.deletion) {
+                // Deleted items are no longer connected to their
+                // events, but their final versions are.
+                for (Version version : event.getPriorVersions()) {
+                    String id = version.getEntityId();
+                    if (seen.add(id)) {
+                        consumer.accept(new Change(id, version.getEntityType(), getChangeType(id, since),
+                                event.getId(), timestamp));
+                    }
+                }
+            } else {
+                for (Accessible subject : event.getSubjects()) {
+                    String id = subject.getId();
+                    if (seen.add(id)) {
+                        consumer.accept(new Change(id, subject.getType(), getChangeType(id, since),
+                                event.getId(), timestamp));
+                    }
+                }
+            }
+        }
+        if (since.eventId != null && !reached) {
+            // The event exists, but has been pruned from the stream.
+            throw new ItemNotFound(since.eventId);
+        }
+        return new ChangeSummary(checkpoint, seen.size());
+    }
+
+    private Since getSince(Optional<String> sinceEventId, Optional<String> sinceTimestamp) throws ItemNotFound {
+        DateTime time = sinceTimestamp.map(DateTime::parse).orElse(null);
+        if (sinceEventId.isPresent()) {
+            SystemEvent event = manager.getEntity(sinceEventId.get(), EntityClass.SYSTEM_EVENT, SystemEvent.class);
+            return new Since(event.getId(), DateTime.parse(event.getTimestamp()), time);
+        }
+        return new Since(null, null, time);
+    }
+
+    /**
+     * An item is created, rather than updated, if it was created
+     * after the checkpoint. Only the part of its history after the
+     * checkpoint needs to be looked at to find out.
+     */
+    private ChangeType getChangeType(String id, Since since) {
+        try {
+            Accessible item = manager.getEntity(id, Accessible.class);
+            for (SystemEvent event : item.getHistory()) {
+                if (since.precedes(event)) {
+                    break;
+                }
+                if (event.getEventType() == EventTypes.creation) {
+                    return ChangeType.created;
+                }
+            }
+            return ChangeType.updated;
+        } catch (ItemNotFound e) {
+            return ChangeType.deleted;
+        }
+    }
+
+    private Optional<Accessible> getItem(Change change) {
+        if (change.getChangeType() == ChangeType.deleted) {
+            return Optional.empty();
+        }
+        try {
+            Accessible item = manager.getEntity(change.getId(), Accessible.class);
+            return filter.test(item) ? Optional.of(item) : Optional.empty();
+        } catch (ItemNotFound e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.FramedGraph;
 import eu.ehri.project.core.GraphManager;
@@ -17,6 +18,7 @@ import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.idgen.GenericIdGenerator;
 import eu.ehri.project.persistence.ActionManager;
 import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.persistence.VersionCodec;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -136,6 +138,15 @@ public class DbUpgrader1to2 {
     }
 
     public DbUpgrader1to2 upgradeTypeValues() throws IOException {
+        // Versions stored as deltas are reconstructed from the versions
+        // before them, so read their data before any of those change.
+        Map<Object, String> deltaData = Maps.newHashMap();
+        for (Vertex v : graph.getVertices()) {
+            if (v.getProperty(VersionCodec.DELTA_KEY) != null) {
+                deltaData.put(v.getId(), VersionCodec.getEntityData(v));
+            }
+        }
+
         for (Vertex v : graph.getVertices()) {
             String oldType = v.getProperty(EntityType.TYPE_KEY);
             if (changeMap.containsKey(oldType)) {
@@ -149,7 +160,9 @@ public class DbUpgrader1to2 {
                     String newTypeId = changeMap.get(oldTypeId);
                     v.setProperty(EntityType.ID_KEY, newTypeId);
                 } else if (newType.equals(Entities.VERSION)) {
-                    String entityData = v.getProperty(Ontology.VERSION_ENTITY_DATA);
+                    String entityData = deltaData.containsKey(v.getId())
+                            ? deltaData.get(v.getId())
+                            : VersionCodec.getEntityData(v);
                     JsonNode node = jsonMapper.readTree(entityData);
                     if (!node.isObject()) {
                         throw new RuntimeException("Unexpected JSON object: " + node.getNodeType());
@@ -160,6 +173,10 @@ public class DbUpgrader1to2 {
 
                     manager.setProperty(v, Ontology.VERSION_ENTITY_CLASS, newType);
                     manager.setProperty(v, Ontology.VERSION_ENTITY_DATA, after);
+                    // The upgraded data is stored in full, since deltas
+                    // against the old data no longer apply.
+                    v.removeProperty(VersionCodec.DELTA_KEY);
+                    v.removeProperty(VersionCodec.DELTA_DEPTH_KEY);
                 }
 
                 onChange.changed();
@@ -2,10 +2,13 @@ package eu.ehri.project.tools;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.frames.FramedGraph;
 import eu.ehri.project.core.GraphManager;
 import eu.ehri.project.core.GraphManagerFactory;
+import eu.ehri.project.core.impl.neo4j.Neo4j2Graph;
 import eu.ehri.project.definitions.EventTypes;
 import eu.ehri.project.exceptions.ItemNotFound;
 import eu.ehri.project.exceptions.SerializationError;
@@ -17,11 +20,26 @@ import eu.ehri.project.persistence.ActionManager;
 import eu.ehri.project.persistence.Bundle;
 import eu.ehri.project.persistence.BundleManager;
 import eu.ehri.project.persistence.Serializer;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.api.txstate.TxStateHolder;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * Find and replace text in item properties.
@@ -29,29 +47,75 @@ import java.util.Optional;
  * Unlike a Cypher query, this class takes care of managing
  * the audit log to record changes, and also tries to prevent
  * accidental misuse.
+ * <p>
+ * Matching is read-only and, when the graph allows it, spread
+ * over several threads, each of which scans a range of node IDs in
+ * its own transaction. Replacements are then applied by the calling
+ * thread, optionally in batches.
  */
 public class FindReplace {
 
     private static final Logger logger = LoggerFactory.getLogger(FindReplace.class);
 
+    private static final int RANGE_SIZE = 500;
+
     private final FramedGraph<?> graph;
     private final boolean commit;
     private final int maxItems;
+    private final int parallelism;
+    private final int batchSize;
+    private final Runnable onBatch;
     private final GraphManager manager;
     private final ActionManager actionManager;
     private final Serializer depSerializer;
     private final BundleManager dao;
 
-    public FindReplace(FramedGraph<?> graph, boolean commit, int maxItems) {
+    private FindReplace(FramedGraph<?> graph, boolean commit, int maxItems,
+            int parallelism, int batchSize, Runnable onBatch) {
         this.graph = graph;
         this.commit = commit;
         this.maxItems = maxItems;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.onBatch = onBatch;
         this.manager = GraphManagerFactory.getInstance(graph);
         this.actionManager = new ActionManager(graph);
         this.depSerializer = new Serializer.Builder(graph).dependentOnly().build();
         this.dao = new BundleManager(graph);
     }
 
+    public FindReplace(FramedGraph<?> graph, boolean commit, int maxItems) {
+        this(graph, commit, maxItems, Runtime.getRuntime().availableProcessors(),
+                Integer.MAX_VALUE, () -> {
+                });
+    }
+
+    /**
+     * Set the number of threads used to find matches.
+     *
+     * @param parallelism a positive integer
+     * @return a new find/replace instance
+     */
+    public FindReplace withParallelism(int parallelism) {
+        Preconditions.checkArgument(parallelism > 0, "Parallelism must be positive.");
+        return new FindReplace(graph, commit, maxItems, parallelism, batchSize, onBatch);
+    }
+
+    /**
+     * Apply replacements in batches of the given number of items, each
+     * with its own event. The callback runs after each batch and should
+     * commit the current transaction.
+     *
+     * @param batchSize the number of items changed per batch
+     * @param onBatch   a callback that commits the current transaction
+     * @return a new find/replace instance
+     */
+    public FindReplace withBatches(int batchSize, Runnable onBatch) {
+        Preconditions.checkArgument(batchSize > 0, "Batch size must be positive.");
+        return new FindReplace(graph, commit, maxItems, parallelism, batchSize,
+                Preconditions.checkNotNull(onBatch));
+    }
+
     /**
      * Find and replace a string
      *
@@ -69,10 +133,6 @@ public class FindReplace {
             EntityClass contentType, EntityClass entityType,
             String property, String textToFind, String replacement,
             Actioner actioner, String logMessage) throws ValidationError {
-
-        Preconditions.checkNotNull(entityType, "Entity type cannot be null.");
-        Preconditions.checkNotNull(property, "Property name cannot be null.");
-        Preconditions.checkNotNull(textToFind, "Text to find cannot be null.");
         Preconditions.checkArgument(!commit || replacement != null,
                 "Replacement text cannot be null if committing a replacement value.");
         Preconditions.checkArgument(!commit || logMessage != null,
@@ -82,60 +142,212 @@ public class FindReplace {
         logger.info("Replace: '{}'", replacement);
 
         List<List<String>> todo = Lists.newArrayList();
+        Set<String> ids = Sets.newLinkedHashSet();
+        find(contentType, entityType, property, textToFind, match -> {
+            todo.add(match);
+            ids.add(match.get(0));
+        });
+
+        if (commit) {
+            replace(contentType, entityType, property, textToFind, replacement,
+                    ids, actioner, logMessage);
+        }
+
+        return todo;
+    }
+
+    /**
+     * Find items containing a string, without changing them. Matches are
+     * passed to the consumer, on the calling thread, as they are found and
+     * in the order in which the items are stored. Once matches have been
+     * found in the configured maximum number of items no more are sought.
+     *
+     * @param contentType the content type of the top-level item
+     * @param entityType  the entity type of the property-holding node
+     * @param property    the name of the property to search
+     * @param textToFind  the text to find
+     * @param matches     a consumer for lists each comprising: the parent
+     *                    item ID, the child item ID, and the current text
+     *                    value in which a match was found
+     */
+    public void find(EntityClass contentType, EntityClass entityType,
+            String property, String textToFind, Consumer<List<String>> matches) {
+        Preconditions.checkNotNull(entityType, "Entity type cannot be null.");
+        Preconditions.checkNotNull(property, "Property name cannot be null.");
+        Preconditions.checkNotNull(textToFind, "Text to find cannot be null.");
+
+        Optional<GraphDatabaseService> db = getParallelDatabase();
+        if (db.isPresent()) {
+            findInParallel(db.get(), contentType, entityType, property, textToFind, matches);
+        } else {
+            int found = 0;
+            try (CloseableIterable<Accessible> entities = manager.getEntities(contentType, Accessible.class)) {
+                for (Accessible entity : entities) {
+                    if (found >= maxItems) {
+                        break;
+                    }
+                    List<List<String>> entityMatches = findIn(entity, entityType, property, textToFind);
+                    if (!entityMatches.isEmpty()) {
+                        entityMatches.forEach(matches);
+                        found++;
+                    }
+                }
+            }
+        }
+    }
+
+    private void findInParallel(GraphDatabaseService db, EntityClass contentType,
+            EntityClass entityType, String property, String textToFind,
+            Consumer<List<String>> matches) {
+        long[] nodeIds = getNodeIds(contentType);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setNameFormat("find-replace-%d").setDaemon(true).build());
+        try {
+            // Keep a bounded window of node ID ranges in flight and hand
+            // back their results in order.
+            Deque<Future<List<List<List<String>>>>> window = new ArrayDeque<>();
+            int next = 0;
+            int found = 0;
+            while (found < maxItems && (next < nodeIds.length || !window.isEmpty())) {
+                while (next < nodeIds.length && window.size() < parallelism * 2) {
+                    long[] range = Arrays.copyOfRange(nodeIds, next, Math.min(next + RANGE_SIZE, nodeIds.length));
+                    window.add(executor.submit(() -> findInRange(db, range, entityType, property, textToFind)));
+                    next += range.length;
+                }
+                for (List<List<String>> entityMatches : window.remove().get()) {
+                    if (found >= maxItems) {
+                        break;
+                    }
+                    entityMatches.forEach(matches);
+                    found++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<List<List<String>>> findInRange(GraphDatabaseService db, long[] nodeIds,
+            EntityClass entityType, String property, String textToFind) {
+        List<List<List<String>>> found = Lists.newArrayList();
+        try (Transaction tx = db.beginTx()) {
+            for (long nodeId : nodeIds) {
+                Accessible entity = graph.getVertex(nodeId, Accessible.class);
+                if (entity != null) {
+                    List<List<String>> entityMatches = findIn(entity, entityType, property, textToFind);
+                    if (!entityMatches.isEmpty()) {
+                        found.add(entityMatches);
+                    }
+                }
+            }
+            tx.success();
+        }
+        return found;
+    }
+
+    private List<List<String>> findIn(Accessible entity, EntityClass entityType,
+            String property, String textToFind) {
+        try {
+            List<List<String>> matches = Lists.newArrayList();
+            depSerializer.entityToBundle(entity).map(d -> {
+                if (d.getType().equals(entityType)) {
+                    Object v = d.getDataValue(property);
+                    if (find(textToFind, v)) {
+                        matches.add(Lists.newArrayList(entity.getId(),
+                                d.getId(), v.toString()));
+                    }
+                }
+                return d;
+            });
+            if (!matches.isEmpty()) {
+                logger.info("Found in {}", entity.getId());
+            }
+            return matches;
+        } catch (SerializationError e) {
+            throw new RuntimeException(e);
+        }
+    }
 
+    private void replace(EntityClass contentType, EntityClass entityType,
+            String property, String textToFind, String replacement,
+            Set<String> ids, Actioner actioner, String logMessage) throws ValidationError {
         EventTypes eventType = contentType.equals(entityType)
                 ? EventTypes.modification
                 : EventTypes.modifyDependent;
         ActionManager.EventContext context = actionManager
                 .newEventContext(actioner, eventType, Optional.ofNullable(logMessage));
 
-        try (CloseableIterable<Accessible> entities = manager.getEntities(contentType, Accessible.class)) {
-            for (Accessible entity : entities) {
-                if (todo.size() >= maxItems) {
-                    break;
-                }
+        try {
+            for (String id : ids) {
+                Accessible entity = manager.getEntity(id, Accessible.class);
+                context.createVersion(entity);
+                context.addSubjects(entity);
 
-                Bundle bundle = depSerializer.entityToBundle(entity);
-                List<List<String>> matches = Lists.newArrayList();
-                bundle.map(d -> {
+                Bundle newBundle = depSerializer.entityToBundle(entity).map(d -> {
                     if (d.getType().equals(entityType)) {
-                        Object v = d.getDataValue(property);
-                        if (find(textToFind, v)) {
-                            matches.add(Lists.newArrayList(entity.getId(),
-                                    d.getId(), v.toString()));
-                        }
+                        Object newValue = replace(textToFind, replacement, d.getDataValue(property));
+                        return d.withDataValue(property, newValue);
                     }
                     return d;
                 });
+                dao.update(newBundle, Accessible.class);
 
-                if (!matches.isEmpty()) {
-                    todo.addAll(matches);
-                    logger.info("Found in {}", entity.getId());
-
-                    if (commit) {
-                        context.createVersion(entity);
-                        context.addSubjects(entity);
-
-                        Bundle newBundle = bundle.map(d -> {
-                            if (d.getType().equals(entityType)) {
-                                Object newValue = replace(textToFind, replacement, d.getDataValue(property));
-                                return d.withDataValue(property, newValue);
-                            }
-                            return d;
-                        });
-                        dao.update(newBundle, Accessible.class);
-                    }
+                if (context.getSubjects().size() >= batchSize) {
+                    context.commit();
+                    onBatch.run();
+                    context = actionManager
+                            .newEventContext(actioner, eventType, Optional.ofNullable(logMessage));
                 }
             }
         } catch (SerializationError | ItemNotFound e) {
             throw new RuntimeException(e);
         }
 
-        if (commit && !context.getSubjects().isEmpty()) {
+        if (!context.getSubjects().isEmpty()) {
             context.commit();
         }
+    }
 
-        return todo;
+    private long[] getNodeIds(EntityClass contentType) {
+        List<Long> ids = Lists.newArrayList();
+        try (CloseableIterable<Accessible> entities = manager.getEntities(contentType, Accessible.class)) {
+            for (Accessible entity : entities) {
+                ids.add((Long) entity.asVertex().getId());
+            }
+        }
+        long[] nodeIds = ids.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(nodeIds);
+        return nodeIds;
+    }
+
+    /**
+     * Matching can only be done by other threads if they see the same
+     * data as this one, i.e. the graph is Neo4j and this thread's
+     * transaction, if any, has no uncommitted changes.
+     */
+    private Optional<GraphDatabaseService> getParallelDatabase() {
+        if (parallelism < 2 || !(graph.getBaseGraph() instanceof Neo4j2Graph)) {
+            return Optional.empty();
+        }
+        GraphDatabaseService db = ((Neo4j2Graph) graph.getBaseGraph()).getRawGraph();
+        if (!(db instanceof GraphDatabaseAPI)) {
+            return Optional.empty();
+        }
+        KernelTransaction tx = ((GraphDatabaseAPI) db).getDependencyResolver()
+                .resolveDependency(ThreadToStatementContextBridge.class)
+                .getKernelTransactionBoundToThisThread(false);
+        if (tx != null && (!(tx instanceof TxStateHolder) || ((TxStateHolder) tx).hasTxStateWithChanges())) {
+            return Optional.empty();
+        }
+        return Optional.of(db);
     }
 
     private boolean find(String needle, Object data) {
@@ -19,7 +19,10 @@
 
 package eu.ehri.project.tools;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.tinkerpop.frames.FramedGraph;
 import eu.ehri.project.acl.SystemScope;
 import eu.ehri.project.core.GraphManager;
@@ -37,10 +40,17 @@ import eu.ehri.project.models.events.Version;
 import eu.ehri.project.models.idgen.IdGenerator;
 import eu.ehri.project.persistence.Bundle;
 import eu.ehri.project.persistence.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 
 /**
  * Util class for re-generating the IDs for a given
@@ -54,12 +64,16 @@ import java.util.Optional;
  * necessitates bulk ID re-generation.
  */
 public class IdRegenerator {
+    private static final Logger logger = LoggerFactory.getLogger(IdRegenerator.class);
+
     private final FramedGraph<?> graph;
     private final GraphManager manager;
     private final Serializer depSerializer;
     private final boolean dryrun;
     private final boolean skipCollisions;
     private final boolean collisionMode;
+    private final int batchSize;
+    private final Runnable commit;
 
     public static class IdCollisionError extends Exception {
         IdCollisionError(String from, String to) {
@@ -69,36 +83,29 @@ public class IdRegenerator {
     }
 
     public IdRegenerator(FramedGraph<?> graph) {
-        this(graph, true, false, false);
+        this(graph, true, false, false, Integer.MAX_VALUE, () -> {
+        });
     }
 
     private IdRegenerator(FramedGraph<?> graph, boolean dryrun, boolean skipCollisions,
-            boolean collisionMode) {
+            boolean collisionMode, int batchSize, Runnable commit) {
         this.graph = graph;
         this.manager = GraphManagerFactory.getInstance(graph);
         this.depSerializer = new Serializer.Builder(graph).dependentOnly().build();
         this.dryrun = dryrun;
         this.skipCollisions = skipCollisions;
         this.collisionMode = collisionMode;
+        this.batchSize = batchSize;
+        this.commit = commit;
     }
 
     public List<List<String>> reGenerateIds(PermissionScope scope, Iterable<? extends Entity> items) throws
             IdCollisionError {
-        List<List<String>> remaps = Lists.newArrayList();
-        for (Entity item : items) {
-            Optional<List<String>> optionalRemap = reGenerateId(scope, item);
-            optionalRemap.ifPresent(remaps::add);
-        }
-        return remaps;
+        return reGenerate(items, item -> scope);
     }
 
     public List<List<String>> reGenerateIds(Iterable<? extends Accessible> items) throws IdCollisionError {
-        List<List<String>> remaps = Lists.newArrayList();
-        for (Accessible item : items) {
-            Optional<List<String>> optionalRemap = reGenerateId(item);
-            optionalRemap.ifPresent(remaps::add);
-        }
-        return remaps;
+        return reGenerate(items, item -> item.as(Accessible.class).getPermissionScope());
     }
 
     public Optional<List<String>> reGenerateId(Accessible item) throws IdCollisionError {
@@ -107,63 +114,145 @@ public class IdRegenerator {
 
     Optional<List<String>> reGenerateId(PermissionScope permissionScope, Entity item)
             throws IdCollisionError {
-        String currentId = item.getId();
-        Collection<String> idChain = Lists.newArrayList();
-        if (permissionScope != null && !permissionScope.equals(SystemScope.getInstance())) {
-            idChain.addAll(permissionScope.idPath());
+        List<List<String>> remaps = reGenerate(Lists.newArrayList(item), i -> permissionScope);
+        return remaps.stream().findFirst();
+    }
+
+    /**
+     * Compute the new IDs for all the items up front, check them for
+     * collisions with each other and with existing items in one go,
+     * and then, unless this is a dry run, rename the items in an order
+     * that frees each ID before it is reused.
+     */
+    private List<List<String>> reGenerate(Iterable<? extends Entity> items,
+            Function<Entity, PermissionScope> scopes) throws IdCollisionError {
+        Map<String, Entity> entities = Maps.newHashMap();
+        Map<String, PermissionScope> entityScopes = Maps.newHashMap();
+        Map<String, String> renames = Maps.newLinkedHashMap();
+        for (Entity item : items) {
+            PermissionScope scope = scopes.apply(item);
+            String currentId = item.getId();
+            String newId = generateId(getIdChain(scope), item);
+            if (!newId.equals(currentId)) {
+                renames.put(currentId, newId);
+                entities.put(currentId, item);
+                entityScopes.put(currentId, scope);
+            }
         }
 
-        EntityClass entityClass = manager.getEntityClass(item);
-        try {
-            IdGenerator idgen = entityClass.getIdGen();
-            Bundle itemBundle = depSerializer.entityToBundle(item);
-            String newId = idgen.generateId(idChain, itemBundle);
-            if (collisionMode) {
-                if (!newId.equals(currentId) && manager.exists(newId)) {
-                    List<String> collision = Lists.newArrayList(currentId, newId);
-                    return Optional.of(collision);
+        // An item collides if it shares its new ID with another item,
+        // or if the ID belongs to an existing item that is not itself
+        // being renamed, or that collides, or that would have to be
+        // renamed first in a cycle.
+        Map<String, Integer> targetCounts = Maps.newHashMap();
+        renames.values().forEach(id -> targetCounts.merge(id, 1, Integer::sum));
+        Set<String> existing = manager.getExistingIds(renames.values());
+        Set<String> collisions = Sets.newHashSet();
+        renames.forEach((from, to) -> {
+            if (targetCounts.get(to) > 1 || (existing.contains(to) && !renames.containsKey(to))) {
+                collisions.add(from);
+            }
+        });
+        List<String> ordered = Lists.newArrayListWithExpectedSize(renames.size());
+        Set<String> placed = Sets.newHashSet(collisions);
+        for (String from : renames.keySet()) {
+            Deque<String> chain = new ArrayDeque<>();
+            String current = from;
+            while (current != null && !placed.contains(current) && !chain.contains(current)) {
+                chain.push(current);
+                String to = renames.get(current);
+                current = renames.containsKey(to) ? to : null;
+            }
+            boolean blocked = current != null && (collisions.contains(current) || chain.contains(current));
+            while (!chain.isEmpty()) {
+                String id = chain.pop();
+                if (blocked) {
+                    collisions.add(id);
                 } else {
-                    return Optional.empty();
+                    ordered.add(id);
                 }
-            } else {
-                if (!newId.equals(currentId)) {
-                    if (manager.exists(newId)) {
-                        if (!skipCollisions) {
-                            throw new IdCollisionError(currentId, newId);
-                        } else {
-                            return Optional.empty();
-                        }
-                    } else {
-                        if (!dryrun) {
-                            manager.renameVertex(item.asVertex(), currentId, newId);
-
-                            // Rename all the descriptions
-                            String idBase = idgen.getIdBase(itemBundle);
-                            Collection<String> descIdChain = Lists.newArrayList(idChain);
-                            descIdChain.add(idBase);
-                            for (Description d : item.as(Described.class).getDescriptions()) {
-                                Bundle desc = depSerializer.entityToBundle(d);
-                                String newDescriptionId = desc.getType().getIdGen().generateId(descIdChain, desc);
-                                manager.renameVertex(d.asVertex(), d.getId(), newDescriptionId);
-                            }
-
-                            // Change the ID on any versions...
-                            for (Version v : item.as(Versioned.class).getAllPriorVersions()) {
-                                manager.setProperty(v.asVertex(), Ontology.VERSION_ENTITY_ID, newId);
-                            }
-                        }
-                        List<String> remap = Lists.newArrayList(currentId, newId);
-                        return Optional.of(remap);
-                    }
-                } else {
-                    return Optional.empty();
+                placed.add(id);
+            }
+        }
+
+        List<List<String>> remaps = Lists.newArrayList();
+        if (collisionMode) {
+            for (String from : renames.keySet()) {
+                if (collisions.contains(from)) {
+                    remaps.add(Lists.newArrayList(from, renames.get(from)));
+                }
+            }
+            return remaps;
+        }
+
+        if (!skipCollisions) {
+            for (String from : renames.keySet()) {
+                if (collisions.contains(from)) {
+                    throw new IdCollisionError(from, renames.get(from));
+                }
+            }
+        }
+
+        for (String from : ordered) {
+            String to = renames.get(from);
+            if (!dryrun) {
+                rename(entityScopes.get(from), entities.get(from), to);
+                if ((remaps.size() + 1) % batchSize == 0) {
+                    commit.run();
+                    logger.info("Renamed {} of {} items", remaps.size() + 1, ordered.size());
                 }
             }
+            remaps.add(Lists.newArrayList(from, to));
+        }
+        if (!dryrun && !remaps.isEmpty()) {
+            logger.info("Renamed {} items", remaps.size());
+        }
+        return remaps;
+    }
+
+    private void rename(PermissionScope scope, Entity item, String newId) {
+        try {
+            Collection<String> idChain = getIdChain(scope);
+            IdGenerator idgen = manager.getEntityClass(item).getIdGen();
+            Bundle itemBundle = depSerializer.entityToBundle(item);
+            manager.renameVertex(item.asVertex(), item.getId(), newId);
+
+            // Rename all the descriptions
+            String idBase = idgen.getIdBase(itemBundle);
+            Collection<String> descIdChain = Lists.newArrayList(idChain);
+            descIdChain.add(idBase);
+            for (Description d : item.as(Described.class).getDescriptions()) {
+                Bundle desc = depSerializer.entityToBundle(d);
+                String newDescriptionId = desc.getType().getIdGen().generateId(descIdChain, desc);
+                manager.renameVertex(d.asVertex(), d.getId(), newDescriptionId);
+            }
+
+            // Change the ID on any versions...
+            for (Version v : item.as(Versioned.class).getAllPriorVersions()) {
+                manager.setProperty(v.asVertex(), Ontology.VERSION_ENTITY_ID, newId);
+            }
         } catch (SerializationError e) {
             throw new RuntimeException(e);
         }
     }
 
+    private String generateId(Collection<String> idChain, Entity item) {
+        try {
+            EntityClass entityClass = manager.getEntityClass(item);
+            return entityClass.getIdGen().generateId(idChain, depSerializer.entityToBundle(item));
+        } catch (SerializationError e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Collection<String> getIdChain(PermissionScope permissionScope) {
+        Collection<String> idChain = Lists.newArrayList();
+        if (permissionScope != null && !permissionScope.equals(SystemScope.getInstance())) {
+            idChain.addAll(permissionScope.idPath());
+        }
+        return idChain;
+    }
+
     /**
      * Obtain a re-generator that will actually perform the rename
      * step.
@@ -172,7 +261,7 @@ public class IdRegenerator {
      * @return a new, more dangerous, re-generator
      */
     public IdRegenerator withActualRename(boolean doIt) {
-        return new IdRegenerator(graph, !doIt, skipCollisions, collisionMode);
+        return new IdRegenerator(graph, !doIt, skipCollisions, collisionMode, batchSize, commit);
     }
 
     /**
@@ -183,7 +272,7 @@ public class IdRegenerator {
      * @return a new, more tolerant, re-generator
      */
     public IdRegenerator skippingCollisions(boolean skipCollisions) {
-        return new IdRegenerator(graph, dryrun, skipCollisions, collisionMode);
+        return new IdRegenerator(graph, dryrun, skipCollisions, collisionMode, batchSize, commit);
     }
 
     /**
@@ -194,6 +283,21 @@ public class IdRegenerator {
      * @return a new, more tolerant, re-generator
      */
     public IdRegenerator collisionMode(boolean collisionMode) {
-        return new IdRegenerator(graph, dryrun, skipCollisions, collisionMode);
+        return new IdRegenerator(graph, dryrun, skipCollisions, collisionMode, batchSize, commit);
+    }
+
+    /**
+     * Obtain a re-generator that renames items in batches, running
+     * the given callback, which should commit the current transaction,
+     * after each batch.
+     *
+     * @param batchSize the number of items renamed per batch
+     * @param commit    a callback that commits the current transaction
+     * @return a new re-generator
+     */
+    public IdRegenerator withBatches(int batchSize, Runnable commit) {
+        Preconditions.checkArgument(batchSize > 0, "Batch size must be positive.");
+        return new IdRegenerator(graph, dryrun, skipCollisions, collisionMode,
+                batchSize, Preconditions.checkNotNull(commit));
     }
 }
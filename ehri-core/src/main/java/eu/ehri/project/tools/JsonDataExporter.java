@@ -28,8 +28,11 @@ import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Graph;
 import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.definitions.Entities;
+import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.persistence.VersionCodec;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -43,8 +46,8 @@ import java.util.Map;
  */
 public class JsonDataExporter {
 
-    private static final JsonFactory jsonFactory = new JsonFactory();
     private static final ObjectMapper jsonMapper = new ObjectMapper();
+    private static final JsonFactory jsonFactory = jsonMapper.getFactory();
 
     /**
      * Export the graph as JSON.
@@ -58,14 +61,12 @@ public class JsonDataExporter {
         try (JsonGenerator g = jsonFactory.createGenerator(stream)) {
             g.writeStartArray();
             for (Vertex vertex : graph.getVertices()) {
-
-                Map<String, Object> data = Maps.newHashMap();
-                data.put(Bundle.ID_KEY, vertex.getProperty(EntityType.ID_KEY));
-                data.put(Bundle.TYPE_KEY, vertex.getProperty(EntityType.TYPE_KEY));
-                data.put(Bundle.DATA_KEY, getProperties(vertex));
-                data.put(Bundle.REL_KEY, getRelations(vertex));
-
-                jsonMapper.writeValue(g, data);
+                g.writeStartObject();
+                g.writeObjectField(Bundle.ID_KEY, vertex.getProperty(EntityType.ID_KEY));
+                g.writeObjectField(Bundle.TYPE_KEY, vertex.getProperty(EntityType.TYPE_KEY));
+                g.writeObjectField(Bundle.DATA_KEY, getProperties(vertex));
+                g.writeObjectField(Bundle.REL_KEY, getRelations(vertex));
+                g.writeEndObject();
                 g.writeRaw('\n');
             }
             g.writeEndArray();
@@ -79,6 +80,11 @@ public class JsonDataExporter {
                 props.put(key, vertex.getProperty(key));
             }
         }
+        // Versions stored as deltas have no data property of their
+        // own, so reconstruct it from the version chain.
+        if (Entities.VERSION.equals(vertex.getProperty(EntityType.TYPE_KEY))) {
+            props.computeIfAbsent(Ontology.VERSION_ENTITY_DATA, k -> VersionCodec.getEntityData(vertex));
+        }
         return props;
     }
 
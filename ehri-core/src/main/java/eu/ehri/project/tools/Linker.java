@@ -19,14 +19,21 @@
 
 package eu.ehri.project.tools;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.tinkerpop.frames.FramedGraph;
 import eu.ehri.project.api.Api;
 import eu.ehri.project.api.ApiFactory;
+import eu.ehri.project.core.GraphManager;
+import eu.ehri.project.core.GraphManagerFactory;
 import eu.ehri.project.definitions.EventTypes;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.exceptions.DeserializationError;
+import eu.ehri.project.exceptions.ItemNotFound;
 import eu.ehri.project.exceptions.PermissionDenied;
 import eu.ehri.project.exceptions.ValidationError;
 import eu.ehri.project.models.AccessPoint;
@@ -42,14 +49,24 @@ import eu.ehri.project.models.cvoc.Concept;
 import eu.ehri.project.models.cvoc.Vocabulary;
 import eu.ehri.project.persistence.ActionManager;
 import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.utils.CheckpointDir;
 import eu.ehri.project.utils.Slugify;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 
@@ -61,31 +78,69 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class Linker {
 
     private static final Logger logger = LoggerFactory.getLogger(Linker.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final Splitter splitter = Splitter.on('\t');
 
     private static final String LINK_TYPE = "associative";
     private static final String DEFAULT_LANG = "eng";
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private static final String NAMES = "names.json";
+    private static final String COUNTS = "counts.json";
+    private static final String LINKS = "links.tsv";
+    private static final List<String> STATE_FILES = Lists.newArrayList(NAMES, COUNTS, LINKS);
+
+    private enum Phase {
+        SCAN,
+        CONCEPTS,
+        // Links are partly made, up to the checkpoint's position
+        LINKING,
+        LINKS
+    }
+
+    private static class Checkpoint {
+        private final Phase phase;
+        private final long position;
+        private final int linkCount;
+
+        private Checkpoint(Phase phase, long position, int linkCount) {
+            this.phase = phase;
+            this.position = position;
+            this.linkCount = linkCount;
+        }
+    }
 
     private final FramedGraph<?> graph;
+    private final GraphManager manager;
     private final boolean tolerant;
     private final boolean excludeSingles;
     private final Set<AccessPointType> accessPointTypes;
     private final String defaultLanguageCode;
     private final Optional<String> logMessage;
+    private final Path checkpointDir;
+    private final Runnable commit;
+    private final int batchSize;
 
     private Linker(FramedGraph<?> graph, Set<AccessPointType> accessPointTypes,
             String defaultLanguageCode, Optional<String> logMessage,
-            boolean tolerant, boolean excludeSingles) {
+            boolean tolerant, boolean excludeSingles,
+            Path checkpointDir, Runnable commit, int batchSize) {
         this.graph = graph;
+        this.manager = GraphManagerFactory.getInstance(graph);
         this.accessPointTypes = accessPointTypes;
         this.defaultLanguageCode = defaultLanguageCode;
         this.tolerant = tolerant;
         this.excludeSingles = excludeSingles;
         this.logMessage = logMessage;
+        this.checkpointDir = checkpointDir;
+        this.commit = commit;
+        this.batchSize = batchSize;
     }
 
     public Linker(FramedGraph<?> graph) {
         this(graph, Sets.newHashSet(),
-                DEFAULT_LANG, Optional.empty(), false, true);
+                DEFAULT_LANG, Optional.empty(), false, true,
+                null, null, DEFAULT_BATCH_SIZE);
     }
 
     /**
@@ -93,13 +148,21 @@ public class Linker {
      * access points for all collections within a repository, then link
      * those concepts to the relevant documentary units.
      * <p>
+     * The work is done in two phases. The first scans the repository's
+     * access points once, collecting the distinct concept names and
+     * writing the pending links to a working file rather than holding
+     * them in memory. The second creates the concepts and then the links.
+     * <p>
      * One creation event will be generated for the newly-created concepts
      * (with the vocabulary as the scope) and another for the newly-created
-     * links. Currently events will still be created if no concepts/links
-     * are made.
+     * links. If checkpoints are enabled (see {@link #withCheckpoints(Path, Runnable)})
+     * the concepts and links are instead committed in batches, each
+     * with its own event, and running the operation again after a failure
+     * continues from the last committed batch.
      * <p>
-     * It should be advised that this function is not idempotent and
-     * running it twice will generate concepts/links twice.
+     * It should be advised that, other than when resuming from a checkpoint,
+     * this function is not idempotent and running it twice will generate
+     * concepts/links twice.
      * <p>
      * NB. One could argue this function does too much...
      *
@@ -113,57 +176,127 @@ public class Linker {
             Vocabulary vocabulary,
             Actioner user)
             throws ValidationError, PermissionDenied {
+        try (CheckpointDir dir = checkpointDir != null
+                ? CheckpointDir.open(checkpointDir, commit, STATE_FILES)
+                : CheckpointDir.temporary("linker-", STATE_FILES)) {
+            int linkCount = createAndLink(dir, repository, vocabulary, user);
+            dir.complete();
+            return linkCount;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        // First, build a map of access point names to (null) concepts
-        Map<String, String> conceptIdentifierNames = Maps.newHashMap();
-        Map<String, Optional<Concept>> identifierConcept = Maps.newHashMap();
-        Map<String, Integer> identifierCount = Maps.newHashMap();
-
-        for (DocumentaryUnit doc : repository.getAllDocumentaryUnits()) {
-            for (DocumentaryUnitDescription description : doc.getDocumentDescriptions()) {
-                for (AccessPoint relationship : description.getAccessPoints()) {
-                    if (accessPointTypes.isEmpty() || accessPointTypes
-                            .contains(relationship.getRelationshipType())) {
-                        String trimmedName = relationship.getName().trim();
-                        String identifier = getIdentifier(relationship);
-                        String prior = conceptIdentifierNames.get(identifier);
-                        if (identifier.isEmpty() || trimmedName.isEmpty()) {
-                            logger.warn("Ignoring empty access point name");
-                        } else if (prior != null && !prior.equals(trimmedName)) {
-                            logger.warn("Concept name/slug collision: '{}' -> '{}'", trimmedName,
-                                    prior);
-                        } else {
-                            conceptIdentifierNames.put(identifier, trimmedName);
-                            identifierConcept.put(identifier, Optional.empty());
-                            int count = identifierCount.containsKey(identifier)
-                                    ? identifierCount.get(identifier)
-                                    : 0;
-                            identifierCount.put(identifier, count + 1);
-                        }
-                    }
-                }
+    private int createAndLink(CheckpointDir dir, Repository repository, Vocabulary vocabulary, Actioner user)
+            throws ValidationError, PermissionDenied, IOException {
+        Optional<Checkpoint> done = readCheckpoint(dir, repository, vocabulary);
+        done.ifPresent(c -> logger.info("Resuming linking of {} after phase: {}", repository.getId(), c.phase));
+
+        Path namesFile = dir.resolve(NAMES);
+        Path countsFile = dir.resolve(COUNTS);
+        Path linksFile = dir.resolve(LINKS);
+
+        // First, build a map of access point identifiers to names, and
+        // record the links to be made...
+        Map<String, String> conceptIdentifierNames;
+        Map<String, Integer> identifierCount;
+        if (!done.isPresent()) {
+            conceptIdentifierNames = Maps.newTreeMap();
+            identifierCount = Maps.newHashMap();
+            scan(repository, conceptIdentifierNames, identifierCount, linksFile);
+
+            // Abort if we've got no concepts - this avoids creating
+            // an event unnecessarily...
+            if (!willCreateItems(identifierCount, excludeSingles)) {
+                return 0;
             }
+            mapper.writeValue(namesFile.toFile(), conceptIdentifierNames);
+            mapper.writeValue(countsFile.toFile(), identifierCount);
+            checkpoint(dir, repository, vocabulary, new Checkpoint(Phase.SCAN, 0, 0));
+        } else {
+            conceptIdentifierNames = mapper.readValue(namesFile.toFile(),
+                    new TypeReference<Map<String, String>>() {
+                    });
+            identifierCount = mapper.readValue(countsFile.toFile(),
+                    new TypeReference<Map<String, Integer>>() {
+                    });
         }
 
-        // Abort if we've got no concepts - this avoids creating
-        // an event unnecessarily...
-        if (!willCreateItems(identifierCount, excludeSingles)) {
-            return 0;
+        ActionManager actionManager = new ActionManager(graph);
+        Api api = ApiFactory.noLogging(graph, user.as(Accessor.class));
+        Map<String, Concept> identifierConcept = Maps.newHashMap();
+        if (done.isPresent()) {
+            // Pick up concepts committed by an earlier run rather than
+            // creating them again.
+            for (Concept concept : vocabulary.getConcepts()) {
+                String identifier = concept.getIdentifier();
+                if (identifier != null && conceptIdentifierNames.containsKey(identifier)) {
+                    identifierConcept.put(identifier, concept);
+                }
+            }
         }
 
         // Now create concepts for all the names
-        ActionManager actionManager = new ActionManager(graph);
+        if (isPending(done, Phase.CONCEPTS)) {
+            createConcepts(api, actionManager.setScope(vocabulary), vocabulary, user,
+                    conceptIdentifierNames, identifierCount, identifierConcept);
+            checkpoint(dir, repository, vocabulary, new Checkpoint(Phase.CONCEPTS, 0, 0));
+        }
+
+        // Now link the concepts with elements having the access point from
+        // which the concept originally derived.
+        if (!isPending(done, Phase.LINKS)) {
+            return done.get().linkCount;
+        }
+        Checkpoint from = done.filter(c -> c.phase == Phase.LINKING)
+                .orElse(new Checkpoint(Phase.LINKING, 0, 0));
+        return createLinks(dir, api, actionManager, repository, vocabulary, user,
+                linksFile, from, identifierCount, identifierConcept);
+    }
+
+    private void scan(Repository repository, Map<String, String> conceptIdentifierNames,
+            Map<String, Integer> identifierCount, Path linksFile) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(linksFile, StandardCharsets.UTF_8)) {
+            for (DocumentaryUnit doc : repository.getAllDocumentaryUnits()) {
+                for (DocumentaryUnitDescription description : doc.getDocumentDescriptions()) {
+                    for (AccessPoint relationship : description.getAccessPoints()) {
+                        if (accessPointTypes.isEmpty() || accessPointTypes
+                                .contains(relationship.getRelationshipType())) {
+                            String trimmedName = relationship.getName().trim();
+                            String identifier = getIdentifier(relationship);
+                            String prior = conceptIdentifierNames.get(identifier);
+                            if (identifier.isEmpty() || trimmedName.isEmpty()) {
+                                logger.warn("Ignoring empty access point name");
+                                continue;
+                            } else if (prior != null && !prior.equals(trimmedName)) {
+                                logger.warn("Concept name/slug collision: '{}' -> '{}'", trimmedName,
+                                        prior);
+                            } else {
+                                conceptIdentifierNames.put(identifier, trimmedName);
+                                identifierCount.merge(identifier, 1, Integer::sum);
+                            }
+                            writer.write(identifier + "\t" + doc.getId() + "\t" + relationship.getId());
+                            writer.newLine();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void createConcepts(Api api, ActionManager actionManager, Vocabulary vocabulary,
+            Actioner user, Map<String, String> conceptIdentifierNames,
+            Map<String, Integer> identifierCount, Map<String, Concept> identifierConcept)
+            throws ValidationError, PermissionDenied {
         ActionManager.EventContext conceptEvent = actionManager
-                .setScope(vocabulary)
                 .newEventContext(user, EventTypes.creation, logMessage);
-        Api api = ApiFactory.noLogging(graph, user.as(Accessor.class));
 
         for (Map.Entry<String, String> idName : conceptIdentifierNames.entrySet()) {
             String identifier = idName.getKey();
             String name = idName.getValue();
 
             // if we're excluding "unique" access points, skip this...
-            if (identifierCount.get(identifier) < 2 && excludeSingles) {
+            if (!isIncluded(identifierCount, identifier) || identifierConcept.containsKey(identifier)) {
                 continue;
             }
 
@@ -179,7 +312,7 @@ public class Linker {
             try {
                 Concept concept = api.create(conceptBundle, Concept.class);
                 concept.setVocabulary(vocabulary);
-                identifierConcept.put(identifier, Optional.of(concept));
+                identifierConcept.put(identifier, concept);
                 conceptEvent.addSubjects(concept);
             } catch (ValidationError validationError) {
                 // If this happens it is most likely because two access points
@@ -197,54 +330,105 @@ public class Linker {
             } catch (DeserializationError e) {
                 throw new RuntimeException(e);
             }
+
+            if (checkpointDir != null && conceptEvent.getSubjects().size() >= batchSize) {
+                conceptEvent.commit();
+                commit.run();
+                conceptEvent = actionManager.newEventContext(user, EventTypes.creation, logMessage);
+            }
         }
 
-        conceptEvent.commit();
+        if (!conceptEvent.getSubjects().isEmpty()) {
+            conceptEvent.commit();
+        }
+    }
 
-        // Now link the concepts with elements having the access point from
-        // which the concept originally derived.
+    private int createLinks(CheckpointDir dir, Api api, ActionManager actionManager, Repository repository,
+            Vocabulary vocabulary, Actioner user, Path linksFile, Checkpoint from,
+            Map<String, Integer> identifierCount, Map<String, Concept> identifierConcept)
+            throws PermissionDenied, ValidationError, IOException {
         ActionManager.EventContext linkEvent = actionManager
                 .newEventContext(user, EventTypes.creation, logMessage);
-        int linkCount = 0;
-        for (DocumentaryUnit doc : repository.getAllDocumentaryUnits()) {
-            for (DocumentaryUnitDescription description : doc.getDocumentDescriptions()) {
-                for (AccessPoint relationship : description.getAccessPoints()) {
-                    if (accessPointTypes.isEmpty() || accessPointTypes
-                            .contains(relationship.getRelationshipType())) {
-
-                        String identifier = getIdentifier(relationship);
-                        // if we're excluding "unique" access points, skip this...
-                        if (identifierCount.get(identifier) < 2 && excludeSingles) {
-                            continue;
-                        }
+        int linkCount = from.linkCount;
+        long position = 0;
+        try (BufferedReader reader = Files.newBufferedReader(linksFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (++position <= from.position) {
+                    continue;
+                }
+                List<String> task = splitter.splitToList(line);
+                String identifier = task.get(0);
+                Concept concept = identifierConcept.get(identifier);
+                // if we're excluding "unique" access points, skip this...
+                if (concept == null || !isIncluded(identifierCount, identifier)) {
+                    continue;
+                }
 
-                        Optional<Concept> conceptOpt = identifierConcept.get(identifier);
-                        try {
-                            if (conceptOpt != null && conceptOpt.isPresent()) {
-                                Concept concept = conceptOpt.get();
-                                Bundle linkBundle = Bundle.Builder.withClass(EntityClass.LINK)
-                                        .addDataValue(Ontology.LINK_HAS_TYPE, LINK_TYPE)
-                                        .build();
-                                Link link = api.create(linkBundle, Link.class);
-                                link.addLinkTarget(doc);
-                                link.addLinkTarget(concept);
-                                link.addLinkBody(relationship);
-                                linkEvent.addSubjects(link);
-                                linkCount++;
-                            }
-                        } catch (DeserializationError e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
+                try {
+                    DocumentaryUnit doc = manager.getEntity(task.get(1), DocumentaryUnit.class);
+                    AccessPoint relationship = manager.getEntity(task.get(2), AccessPoint.class);
+                    Bundle linkBundle = Bundle.Builder.withClass(EntityClass.LINK)
+                            .addDataValue(Ontology.LINK_HAS_TYPE, LINK_TYPE)
+                            .build();
+                    Link link = api.create(linkBundle, Link.class);
+                    link.addLinkTarget(doc);
+                    link.addLinkTarget(concept);
+                    link.addLinkBody(relationship);
+                    linkEvent.addSubjects(link);
+                    linkCount++;
+                } catch (ItemNotFound e) {
+                    logger.warn("Skipping link for missing item: {}", e.getValue());
+                } catch (DeserializationError e) {
+                    throw new RuntimeException(e);
+                }
+
+                if (checkpointDir != null && linkEvent.getSubjects().size() >= batchSize) {
+                    linkEvent.commit();
+                    checkpoint(dir, repository, vocabulary, new Checkpoint(Phase.LINKING, position, linkCount));
+                    linkEvent = actionManager.newEventContext(user, EventTypes.creation, logMessage);
                 }
             }
         }
 
-        linkEvent.commit();
-
+        if (!linkEvent.getSubjects().isEmpty()) {
+            linkEvent.commit();
+        }
+        checkpoint(dir, repository, vocabulary, new Checkpoint(Phase.LINKS, position, linkCount));
         return linkCount;
     }
 
+    /**
+     * Keep the working state of the linker in the given directory and
+     * commit the created concepts and links in batches, recording a
+     * checkpoint after each, so that a failed run can be resumed. See
+     * {@link CheckpointDir} for how the directory and callback are used.
+     *
+     * @param dir    a directory for the linker state
+     * @param commit a callback that commits the current transaction
+     * @return a new linker object
+     */
+    public Linker withCheckpoints(Path dir, Runnable commit) {
+        return new Linker(graph, accessPointTypes, defaultLanguageCode,
+                logMessage, tolerant, excludeSingles,
+                checkNotNull(dir), checkNotNull(commit), batchSize);
+    }
+
+    /**
+     * Set the number of concepts or links committed together
+     * when checkpoints are enabled.
+     *
+     * @param batchSize a positive integer
+     * @return a new linker object
+     */
+    public Linker withBatchSize(int batchSize) {
+        checkArgument(batchSize > 0, "Batch size must be positive: %s", batchSize);
+        return new Linker(graph, accessPointTypes, defaultLanguageCode,
+                logMessage, tolerant, excludeSingles,
+                checkpointDir, commit, batchSize);
+    }
+
+
     /**
      * Set the linker to ignore concepts which would only connect to a single
      * item.
@@ -254,7 +438,8 @@ public class Linker {
      */
     public Linker withExcludeSingles(boolean excludeSingles) {
         return new Linker(graph, accessPointTypes, DEFAULT_LANG,
-                logMessage, tolerant, excludeSingles);
+                logMessage, tolerant, excludeSingles,
+                checkpointDir, commit, batchSize);
     }
 
     /**
@@ -267,7 +452,8 @@ public class Linker {
      */
     public Linker withTolerant(boolean tolerant) {
         return new Linker(graph, accessPointTypes, DEFAULT_LANG,
-                logMessage, tolerant, excludeSingles);
+                logMessage, tolerant, excludeSingles,
+                checkpointDir, commit, batchSize);
     }
 
     /**
@@ -278,7 +464,8 @@ public class Linker {
      */
     public Linker withDefaultLanguage(String defaultLanguageCode) {
         return new Linker(graph, accessPointTypes, checkNotNull(defaultLanguageCode),
-                logMessage, tolerant, excludeSingles);
+                logMessage, tolerant, excludeSingles,
+                checkpointDir, commit, batchSize);
     }
 
     /**
@@ -289,7 +476,8 @@ public class Linker {
      */
     Linker withLogMessage(String logMessage) {
         return new Linker(graph, accessPointTypes, checkNotNull(defaultLanguageCode),
-                Optional.ofNullable(logMessage), tolerant, excludeSingles);
+                Optional.ofNullable(logMessage), tolerant, excludeSingles,
+                checkpointDir, commit, batchSize);
     }
 
     /**
@@ -300,7 +488,8 @@ public class Linker {
      */
     public Linker withLogMessage(Optional<String> logMessage) {
         return new Linker(graph, accessPointTypes, checkNotNull(defaultLanguageCode),
-                checkNotNull(logMessage), tolerant, excludeSingles);
+                checkNotNull(logMessage), tolerant, excludeSingles,
+                checkpointDir, commit, batchSize);
     }
 
     /**
@@ -313,7 +502,8 @@ public class Linker {
      */
     public Linker withAccessPointTypes(Set<AccessPointType> accessPointTypes) {
         return new Linker(graph, Sets.newHashSet(checkNotNull(accessPointTypes)),
-                defaultLanguageCode, logMessage, tolerant, excludeSingles);
+                defaultLanguageCode, logMessage, tolerant, excludeSingles,
+                checkpointDir, commit, batchSize);
     }
 
     /**
@@ -327,7 +517,8 @@ public class Linker {
         Set<AccessPointType> tmp = Sets.newHashSet(checkNotNull(accessPointTypes));
         tmp.add(accessPointType);
         return new Linker(graph, tmp, defaultLanguageCode,
-                logMessage, tolerant, excludeSingles);
+                logMessage, tolerant, excludeSingles,
+                checkpointDir, commit, batchSize);
     }
 
     // Helpers...
@@ -349,9 +540,41 @@ public class Linker {
         return true;
     }
 
+    private boolean isIncluded(Map<String, Integer> identifierCounts, String identifier) {
+        Integer count = identifierCounts.get(identifier);
+        return count != null && (count > 1 || !excludeSingles);
+    }
+
+    private static boolean isPending(Optional<Checkpoint> done, Phase phase) {
+        return !done.isPresent() || done.get().phase.compareTo(phase) < 0;
+    }
+
+    private void checkpoint(CheckpointDir dir, Repository repository, Vocabulary vocabulary, Checkpoint checkpoint)
+            throws IOException {
+        dir.write(repository.getId(), vocabulary.getId(), checkpoint.phase.name(),
+                String.valueOf(checkpoint.position), String.valueOf(checkpoint.linkCount));
+    }
+
+    private Optional<Checkpoint> readCheckpoint(CheckpointDir dir, Repository repository, Vocabulary vocabulary)
+            throws IOException {
+        Optional<List<String>> values = dir.read();
+        if (!values.isPresent()) {
+            return Optional.empty();
+        }
+        List<String> lines = values.get();
+        if (lines.size() != 5 || !repository.getId().equals(lines.get(0))
+                || !vocabulary.getId().equals(lines.get(1))) {
+            throw new IllegalStateException(String.format(
+                    "Checkpoint in %s does not belong to a linking of %s to %s",
+                    checkpointDir, repository.getId(), vocabulary.getId()));
+        }
+        return Optional.of(new Checkpoint(Phase.valueOf(lines.get(2)),
+                Long.parseLong(lines.get(3)), Integer.parseInt(lines.get(4))));
+    }
+
     private static String getIdentifier(AccessPoint relationship) {
         return Slugify.slugify(relationship.getName().trim())
                 .replaceAll("^-+", "")
                 .replaceAll("-+$", "");
     }
-}
\ No newline at end of file
+}
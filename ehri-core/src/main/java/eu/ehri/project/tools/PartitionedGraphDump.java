@@ -0,0 +1,513 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.tools;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransientFailureException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Dump and restore a Neo4j graph as a directory of gzipped,
+ * newline-delimited JSON partitions.
+ * <p>
+ * Nodes are partitioned by ranges of their internal ID, and each
+ * partition is written to its own pair of node and relationship
+ * files by a separate thread. A <code>manifest.json</code> file
+ * describes the partitions. Node labels and typed property values
+ * are preserved, so a restore does not need to re-label vertices
+ * after loading them.
+ * <p>
+ * Restoring is done in two phases: first the nodes of every partition
+ * are created in parallel, then the relationships. Both are committed
+ * in batches, so the target graph must be empty: a failure part way
+ * through would otherwise leave the restored data mixed with the
+ * existing data.
+ */
+public class PartitionedGraphDump {
+
+    private static final Logger logger = LoggerFactory.getLogger(PartitionedGraphDump.class);
+
+    public static final String MANIFEST = "manifest.json";
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int MAX_RETRIES = 10;
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    private static final String TYPE_KEY = "@type";
+    private static final String VALUE_KEY = "@value";
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final ObjectMapper jsonMapper = new ObjectMapper(jsonFactory);
+
+    private final GraphDatabaseService db;
+    private final int bufferSize;
+
+    /**
+     * Constructor.
+     *
+     * @param db         the Neo4j database
+     * @param bufferSize the number of items to create per transaction
+     *                   when restoring
+     */
+    public PartitionedGraphDump(GraphDatabaseService db, int bufferSize) {
+        this.db = db;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Dump the graph to a directory, which will be created if it
+     * does not exist.
+     *
+     * @param dir        the output directory
+     * @param partitions the number of partitions, each of which is
+     *                   written by its own thread
+     * @return the total number of nodes written
+     */
+    public long dump(Path dir, int partitions) throws IOException {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Number of partitions must be at least 1");
+        }
+        Files.createDirectories(dir);
+        long maxId = getMaxNodeId();
+        long size = (maxId + partitions) / partitions;
+
+        List<Callable<Map<String, Object>>> tasks = Lists.newArrayList();
+        for (int i = 0; i < partitions; i++) {
+            long from = i * size;
+            long to = Math.min(maxId + 1, from + size);
+            String name = String.format("%05d", i);
+            tasks.add(() -> dumpPartition(dir, name, from, to));
+        }
+        List<Map<String, Object>> parts = runAll(tasks);
+
+        long nodes = 0;
+        for (Map<String, Object> part : parts) {
+            nodes += (Long) part.get("nodeCount");
+        }
+        Map<String, Object> manifest = ImmutableMap.of(
+                "version", FORMAT_VERSION,
+                "compression", "gzip",
+                "maxNodeId", maxId,
+                "partitions", parts);
+        jsonMapper.writerWithDefaultPrettyPrinter()
+                .writeValue(dir.resolve(MANIFEST).toFile(), manifest);
+        return nodes;
+    }
+
+    /**
+     * Restore a graph from a dump directory into an empty database.
+     *
+     * @param dir the dump directory, containing a manifest file
+     * @return the total number of nodes created
+     * @throws IllegalStateException if the database is not empty
+     */
+    public long restore(Path dir) throws IOException {
+        if (!isEmpty()) {
+            throw new IllegalStateException(
+                    "Cannot restore a dump into a database that already contains data");
+        }
+        JsonNode manifest = jsonMapper.readTree(dir.resolve(MANIFEST).toFile());
+        if (manifest.path("version").asInt() != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported dump format version: "
+                    + manifest.path("version"));
+        }
+        long maxId = manifest.path("maxNodeId").asLong();
+        if (maxId >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Dump node ID range is too large: " + maxId);
+        }
+
+        // Maps the node IDs in the dump to those of the created nodes.
+        // Partitions cover disjoint ID ranges so each thread writes to
+        // a separate region of the array.
+        long[] idMap = new long[(int) maxId + 1];
+        Arrays.fill(idMap, -1L);
+
+        List<Callable<Long>> nodeTasks = Lists.newArrayList();
+        List<Callable<Long>> edgeTasks = Lists.newArrayList();
+        for (JsonNode part : manifest.path("partitions")) {
+            Path nodes = dir.resolve(part.path("nodes").asText());
+            Path edges = dir.resolve(part.path("edges").asText());
+            nodeTasks.add(() -> restoreNodes(nodes, idMap));
+            edgeTasks.add(() -> restoreEdges(edges, idMap));
+        }
+        long count = 0;
+        for (long c : runAll(nodeTasks)) {
+            count += c;
+        }
+        long edges = 0;
+        for (long c : runAll(edgeTasks)) {
+            edges += c;
+        }
+        logger.info("Restored {} nodes and {} relationships", count, edges);
+        return count;
+    }
+
+    private boolean isEmpty() {
+        try (Transaction tx = db.beginTx();
+             Result result = db.execute("MATCH (n) RETURN n LIMIT 1")) {
+            boolean empty = !result.hasNext();
+            tx.success();
+            return empty;
+        }
+    }
+
+    private long getMaxNodeId() {
+        try (Transaction tx = db.beginTx();
+             Result result = db.execute("MATCH (n) RETURN max(id(n)) AS max")) {
+            Object max = result.next().get("max");
+            tx.success();
+            return max == null ? -1L : ((Number) max).longValue();
+        }
+    }
+
+    private Map<String, Object> dumpPartition(Path dir, String name, long from, long to)
+            throws IOException {
+        String nodeFile = "nodes-" + name + ".json.gz";
+        String edgeFile = "edges-" + name + ".json.gz";
+        long nodeCount = 0;
+        long edgeCount = 0;
+        try (Transaction tx = db.beginTx();
+             JsonGenerator nodes = createGenerator(dir.resolve(nodeFile));
+             JsonGenerator edges = createGenerator(dir.resolve(edgeFile))) {
+            for (long id = from; id < to; id++) {
+                Node node;
+                try {
+                    node = db.getNodeById(id);
+                } catch (NotFoundException e) {
+                    continue;
+                }
+                nodes.writeStartObject();
+                nodes.writeNumberField("id", id);
+                nodes.writeArrayFieldStart("labels");
+                for (Label label : node.getLabels()) {
+                    nodes.writeString(label.name());
+                }
+                nodes.writeEndArray();
+                writeProperties(nodes, node);
+                nodes.writeEndObject();
+                nodeCount++;
+
+                for (Relationship rel : node.getRelationships(Direction.OUTGOING)) {
+                    edges.writeStartObject();
+                    edges.writeStringField("label", rel.getType().name());
+                    edges.writeNumberField("out", id);
+                    edges.writeNumberField("in", rel.getEndNodeId());
+                    writeProperties(edges, rel);
+                    edges.writeEndObject();
+                    edgeCount++;
+                }
+            }
+            tx.success();
+        }
+        logger.debug("Dumped partition {}: {} nodes, {} relationships", name, nodeCount, edgeCount);
+        Map<String, Object> part = Maps.newLinkedHashMap();
+        part.put("from", from);
+        part.put("to", to);
+        part.put("nodes", nodeFile);
+        part.put("edges", edgeFile);
+        part.put("nodeCount", nodeCount);
+        part.put("edgeCount", edgeCount);
+        return part;
+    }
+
+    private long restoreNodes(Path file, long[] idMap) throws IOException {
+        long count = 0;
+        try (MappingIterator<JsonNode> records = readRecords(file)) {
+            while (records.hasNext()) {
+                try (Transaction tx = db.beginTx()) {
+                    for (int i = 0; i < bufferSize && records.hasNext(); i++) {
+                        JsonNode record = records.next();
+                        ArrayNode labelNames = (ArrayNode) record.path("labels");
+                        Label[] labels = new Label[labelNames.size()];
+                        for (int j = 0; j < labels.length; j++) {
+                            labels[j] = Label.label(labelNames.get(j).asText());
+                        }
+                        Node node = db.createNode(labels);
+                        readProperties(record, node);
+                        idMap[record.path("id").asInt()] = node.getId();
+                        count++;
+                    }
+                    tx.success();
+                }
+            }
+        }
+        return count;
+    }
+
+    private long restoreEdges(Path file, long[] idMap) throws IOException {
+        long count = 0;
+        try (MappingIterator<JsonNode> records = readRecords(file)) {
+            List<JsonNode> batch = Lists.newArrayListWithCapacity(bufferSize);
+            while (records.hasNext()) {
+                batch.add(records.next());
+                if (batch.size() >= bufferSize || !records.hasNext()) {
+                    createRelationships(batch, idMap);
+                    count += batch.size();
+                    batch.clear();
+                }
+            }
+        }
+        return count;
+    }
+
+    private void createRelationships(List<JsonNode> batch, long[] idMap) {
+        // Relationships from different partitions may share end nodes.
+        // Taking the node locks up-front, in ID order, stops concurrent
+        // batches deadlocking; should a transient failure occur anyway
+        // the batch is rolled back and tried again.
+        SortedSet<Long> nodeIds = Sets.newTreeSet();
+        for (JsonNode record : batch) {
+            nodeIds.add(mappedId(idMap, record.path("out").asInt()));
+            nodeIds.add(mappedId(idMap, record.path("in").asInt()));
+        }
+        for (int attempt = 1; ; attempt++) {
+            try (Transaction tx = db.beginTx()) {
+                for (long id : nodeIds) {
+                    tx.acquireWriteLock(db.getNodeById(id));
+                }
+                for (JsonNode record : batch) {
+                    Node out = db.getNodeById(mappedId(idMap, record.path("out").asInt()));
+                    Node in = db.getNodeById(mappedId(idMap, record.path("in").asInt()));
+                    Relationship rel = out.createRelationshipTo(in,
+                            RelationshipType.withName(record.path("label").asText()));
+                    readProperties(record, rel);
+                }
+                tx.success();
+                return;
+            } catch (TransientFailureException e) {
+                if (attempt >= MAX_RETRIES) {
+                    throw e;
+                }
+                logger.debug("Retrying relationship batch after transient failure: {}",
+                        e.getMessage());
+            }
+        }
+    }
+
+    private static long mappedId(long[] idMap, int id) {
+        long mapped = idMap[id];
+        if (mapped == -1L) {
+            throw new IllegalStateException("Relationship refers to a node not in the dump: " + id);
+        }
+        return mapped;
+    }
+
+    private static <T> List<T> runAll(List<Callable<T>> tasks) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, tasks.size()));
+        try {
+            List<T> results = Lists.newArrayListWithCapacity(tasks.size());
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static JsonGenerator createGenerator(Path file) throws IOException {
+        OutputStream out = new GZIPOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file), IO_BUFFER_SIZE), IO_BUFFER_SIZE);
+        JsonGenerator generator = jsonFactory.createGenerator(out);
+        generator.setRootValueSeparator(new SerializedString("\n"));
+        return generator;
+    }
+
+    private static MappingIterator<JsonNode> readRecords(Path file) throws IOException {
+        InputStream in = new GZIPInputStream(new BufferedInputStream(
+                Files.newInputStream(file), IO_BUFFER_SIZE), IO_BUFFER_SIZE);
+        return jsonMapper.readerFor(JsonNode.class).readValues(in);
+    }
+
+    // Property values are written as plain JSON where their type
+    // survives a round-trip (strings, booleans, ints and doubles)
+    // and otherwise as a {"@type": ..., "@value": ...} object.
+
+    private static void writeProperties(JsonGenerator g, PropertyContainer item)
+            throws IOException {
+        g.writeObjectFieldStart("properties");
+        for (Map.Entry<String, Object> prop : item.getAllProperties().entrySet()) {
+            g.writeFieldName(prop.getKey());
+            writeValue(g, prop.getValue());
+        }
+        g.writeEndObject();
+    }
+
+    private static void writeValue(JsonGenerator g, Object value) throws IOException {
+        if (value instanceof String) {
+            g.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            g.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            g.writeNumber((Integer) value);
+        } else if (value instanceof Double) {
+            g.writeNumber((Double) value);
+        } else {
+            g.writeStartObject();
+            if (value instanceof Long) {
+                g.writeStringField(TYPE_KEY, "long");
+                g.writeNumberField(VALUE_KEY, (Long) value);
+            } else if (value instanceof Short) {
+                g.writeStringField(TYPE_KEY, "short");
+                g.writeNumberField(VALUE_KEY, (Short) value);
+            } else if (value instanceof Byte) {
+                g.writeStringField(TYPE_KEY, "byte");
+                g.writeNumberField(VALUE_KEY, (Byte) value);
+            } else if (value instanceof Float) {
+                g.writeStringField(TYPE_KEY, "float");
+                g.writeNumberField(VALUE_KEY, (Float) value);
+            } else if (value instanceof Character) {
+                g.writeStringField(TYPE_KEY, "char");
+                g.writeStringField(VALUE_KEY, value.toString());
+            } else if (value instanceof String[]) {
+                g.writeStringField(TYPE_KEY, "string[]");
+                g.writeFieldName(VALUE_KEY);
+                jsonMapper.writeValue(g, value);
+            } else if (value.getClass().isArray()) {
+                g.writeStringField(TYPE_KEY,
+                        value.getClass().getComponentType().getSimpleName() + "[]");
+                g.writeFieldName(VALUE_KEY);
+                jsonMapper.writeValue(g, value instanceof char[]
+                        ? new String((char[]) value) : value);
+            } else {
+                throw new IllegalArgumentException(
+                        "Unsupported property type: " + value.getClass());
+            }
+            g.writeEndObject();
+        }
+    }
+
+    private static void readProperties(JsonNode record, PropertyContainer item) {
+        Iterator<Map.Entry<String, JsonNode>> fields = record.path("properties").fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            item.setProperty(field.getKey(), readValue(field.getValue()));
+        }
+    }
+
+    private static Object readValue(JsonNode node) {
+        if (node.isTextual()) {
+            return node.textValue();
+        } else if (node.isBoolean()) {
+            return node.booleanValue();
+        } else if (node.isInt()) {
+            return node.intValue();
+        } else if (node.isNumber()) {
+            return node.doubleValue();
+        }
+        String type = node.path(TYPE_KEY).asText();
+        JsonNode value = node.path(VALUE_KEY);
+        switch (type) {
+            case "long":
+                return value.longValue();
+            case "short":
+                return (short) value.intValue();
+            case "byte":
+                return (byte) value.intValue();
+            case "float":
+                return value.floatValue();
+            case "char":
+                return value.textValue().charAt(0);
+            case "char[]":
+                return value.textValue().toCharArray();
+            default:
+                try {
+                    return jsonMapper.treeToValue(value, arrayClass(type));
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("Invalid property value: " + node, e);
+                }
+        }
+    }
+
+    private static Class<?> arrayClass(String type) {
+        switch (type) {
+            case "string[]":
+                return String[].class;
+            case "boolean[]":
+                return boolean[].class;
+            case "int[]":
+                return int[].class;
+            case "long[]":
+                return long[].class;
+            case "short[]":
+                return short[].class;
+            case "byte[]":
+                return byte[].class;
+            case "float[]":
+                return float[].class;
+            case "double[]":
+                return double[].class;
+            default:
+                throw new IllegalArgumentException("Unsupported property type: " + type);
+        }
+    }
+}
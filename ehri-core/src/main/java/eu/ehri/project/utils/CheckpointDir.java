@@ -0,0 +1,164 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.utils;
+
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The working directory of a long-running operation, such as linking
+ * or syncing, which keeps its intermediate state in files.
+ * <p>
+ * When a directory is given, the operation records its progress there
+ * in a checkpoint after each batch or phase, so that if it fails part
+ * way through it can be continued by running it again with the same
+ * directory and arguments. The state is removed once it completes.
+ * <p>
+ * The commit callback runs before each checkpoint is recorded and must
+ * make the changes to the graph so far durable, i.e. commit the current
+ * transaction. Without that a checkpoint could outlive changes that were
+ * later rolled back.
+ * <p>
+ * When no directory is given, the state is kept in a temporary directory
+ * which is removed when this is closed, and no checkpoints are recorded.
+ */
+public class CheckpointDir implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointDir.class);
+
+    private static final String CHECKPOINT = "checkpoint";
+
+    private final Path dir;
+    private final Runnable commit;
+    private final List<String> stateFiles;
+
+    private CheckpointDir(Path dir, Runnable commit, Collection<String> stateFiles) {
+        this.dir = dir;
+        this.commit = commit;
+        this.stateFiles = Lists.newArrayList(CHECKPOINT);
+        this.stateFiles.addAll(stateFiles);
+    }
+
+    /**
+     * Open a checkpointed working directory, creating it if necessary.
+     *
+     * @param dir        the directory
+     * @param commit     a callback that commits the current transaction
+     * @param stateFiles the names of the state files the operation keeps
+     * @return a checkpoint directory
+     */
+    public static CheckpointDir open(Path dir, Runnable commit, Collection<String> stateFiles) throws IOException {
+        return new CheckpointDir(Files.createDirectories(checkNotNull(dir)), checkNotNull(commit), stateFiles);
+    }
+
+    /**
+     * Open a temporary working directory, without checkpoints.
+     *
+     * @param prefix     a prefix for the directory name
+     * @param stateFiles the names of the state files the operation keeps
+     * @return a checkpoint directory
+     */
+    public static CheckpointDir temporary(String prefix, Collection<String> stateFiles) throws IOException {
+        return new CheckpointDir(Files.createTempDirectory(prefix), null, stateFiles);
+    }
+
+    /**
+     * Resolve the path of a state file.
+     *
+     * @param name the file name
+     * @return a path within the directory
+     */
+    public Path resolve(String name) {
+        return dir.resolve(name);
+    }
+
+    /**
+     * Read the last checkpoint, if there is one.
+     *
+     * @return the values recorded by the last checkpoint
+     */
+    public Optional<List<String>> read() throws IOException {
+        Path file = dir.resolve(CHECKPOINT);
+        if (commit == null || !Files.exists(file)) {
+            return Optional.empty();
+        }
+        return Optional.of(Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Commit the current transaction and then record a checkpoint.
+     * The checkpoint file is replaced atomically, so a failure while
+     * writing it leaves the previous one in place. Without a directory
+     * this does nothing.
+     *
+     * @param values the values to record, which must not contain
+     *               line breaks
+     */
+    public void write(String... values) throws IOException {
+        if (commit != null) {
+            commit.run();
+            Path tmp = dir.resolve(CHECKPOINT + ".tmp");
+            Files.write(tmp, Lists.newArrayList(values), StandardCharsets.UTF_8);
+            Files.move(tmp, dir.resolve(CHECKPOINT),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.debug("Checkpoint in {}: {}", dir, values);
+        }
+    }
+
+    /**
+     * Remove the state once the operation has completed, since
+     * there is nothing to resume.
+     */
+    public void complete() throws IOException {
+        deleteState();
+    }
+
+    /**
+     * Remove a temporary directory and its state. A checkpointed
+     * directory is left as it is, so the operation can be resumed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (commit == null) {
+            deleteState();
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private void deleteState() throws IOException {
+        for (String name : stateFiles) {
+            Files.deleteIfExists(dir.resolve(name));
+        }
+    }
+}
@@ -198,6 +198,37 @@ public class AclManagerTest extends GraphTestBase {
         assertTrue(acl.getGlobalPermissions(user).has(COUNTRY, CREATE));
     }
 
+    @Test
+    public void testGlobalPermissionChangesAcrossCommits() throws Exception {
+        loader.loadTestData();
+        graph.getBaseGraph().commit();
+        AclManager acl = new AclManager(graph);
+        UserProfile user = manager.getEntity("reto", UserProfile.class);
+        Group portal = manager.getEntity("portal", Group.class);
+        Group niod = manager.getEntity("niod", Group.class);
+        assertFalse(acl.hasPermission(COUNTRY, CREATE, user));
+        assertFalse(AclManager.belongsToAdmin(user));
+
+        // Uncommitted changes are seen by the transaction that made them...
+        acl.setPermissionMatrix(portal, GlobalPermissionSet.newBuilder().set(COUNTRY, OWNER).build());
+        portal.addMember(user);
+        assertTrue(acl.hasPermission(COUNTRY, CREATE, user));
+        graph.getBaseGraph().commit();
+
+        // ... and by subsequent ones once committed.
+        assertTrue(acl.hasPermission(COUNTRY, UPDATE, user));
+        assertFalse(acl.getGlobalPermissions(user).has(COUNTRY, UPDATE));
+        niod.addMember(user);
+        graph.getBaseGraph().commit();
+        assertTrue(AclManager.belongsToAdmin(user));
+
+        niod.removeMember(user);
+        portal.removeMember(user);
+        graph.getBaseGraph().commit();
+        assertFalse(AclManager.belongsToAdmin(user));
+        assertFalse(acl.hasPermission(COUNTRY, CREATE, user));
+    }
+
     @Test
     public void testGrantPermission() throws Exception {
         loader.loadTestData();
@@ -20,7 +20,9 @@
 package eu.ehri.project.core;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.tinkerpop.blueprints.TransactionalGraph;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.FramedGraph;
@@ -151,6 +153,24 @@ public class GraphManagerTest {
             assertEquals(TEST_VALUE, vertex.getProperty(TEST_KEY));
         }
 
+        @Test
+        public void testGetExistingIds() throws Exception {
+            manager.createVertex(TEST_ID1, TEST_TYPE, ImmutableMap.of(TEST_KEY, TEST_VALUE));
+            assertEquals(Sets.newHashSet(TEST_ID1),
+                    manager.getExistingIds(Lists.newArrayList(TEST_ID1, NON_EXISTING_ID)));
+            assertTrue(manager.getExistingIds(Lists.newArrayList()).isEmpty());
+        }
+
+        @Test
+        public void testGetIdsByPropertyValues() throws Exception {
+            manager.createVertex(TEST_ID1, TEST_TYPE, ImmutableMap.of(TEST_KEY, TEST_VALUE));
+            Map<Object, String> ids = manager.getIdsByPropertyValues(
+                    TEST_KEY, Lists.newArrayList(TEST_VALUE, "other"), TEST_TYPE);
+            assertEquals(ImmutableMap.of(TEST_VALUE, TEST_ID1), ids);
+            assertTrue(manager.getIdsByPropertyValues(
+                    TEST_KEY, Lists.newArrayList(TEST_VALUE), EntityClass.GROUP).isEmpty());
+        }
+
         @Test
         public void testDeleteVertex() throws IntegrityError, ItemNotFound {
             Map<String, String> data = ImmutableMap.of(TEST_KEY, TEST_VALUE);
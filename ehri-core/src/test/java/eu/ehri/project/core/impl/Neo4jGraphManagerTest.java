@@ -8,12 +8,20 @@ import eu.ehri.project.core.GraphManager;
 import eu.ehri.project.core.impl.neo4j.Neo4j2Graph;
 import eu.ehri.project.core.impl.neo4j.Neo4j2Vertex;
 import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.annotations.EntityType;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
 import org.neo4j.test.TestGraphDatabaseFactory;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.CoreMatchers.hasItem;
 import static org.junit.Assert.*;
@@ -60,6 +68,71 @@ public class Neo4jGraphManagerTest {
         assertThat(updatedLabels, hasItem(EntityClass.REPOSITORY.toString()));
     }
 
+    @Test
+    public void testSetLabelsOnlyWritesChangedLabels() throws Exception {
+        Neo4j2Vertex vertex = createTestVertex("foo", EntityClass.DOCUMENTARY_UNIT);
+        AtomicInteger writes = new AtomicInteger();
+        Neo4j2Vertex counting = new Neo4j2Vertex(vertex.getRawVertex(), graph.getBaseGraph()) {
+            @Override
+            public void addLabel(String label) {
+                writes.incrementAndGet();
+                super.addLabel(label);
+            }
+
+            @Override
+            public void removeLabel(String label) {
+                writes.incrementAndGet();
+                super.removeLabel(label);
+            }
+        };
+        Neo4jGraphManager<?> neo4jManager = (Neo4jGraphManager<?>) manager;
+        neo4jManager.setLabels(counting);
+        assertEquals(0, writes.get());
+
+        counting.setProperty(EntityType.TYPE_KEY, EntityClass.REPOSITORY.getName());
+        neo4jManager.setLabels(counting);
+        assertEquals(2, writes.get());
+        List<String> labels = Lists.newArrayList(counting.getLabels());
+        assertEquals(2, labels.size());
+        assertThat(labels, hasItem(Neo4jGraphManager.BASE_LABEL));
+        assertThat(labels, hasItem(EntityClass.REPOSITORY.toString()));
+    }
+
+    @Test
+    public void testCreateIndicesAndConstraintsIncrementally() throws Exception {
+        GraphDatabaseService db = graph.getBaseGraph().getRawGraph();
+        try (Transaction tx = db.beginTx()) {
+            Neo4jGraphManager.createIndicesAndConstraints(db);
+            db.schema().indexFor(Label.label("Obsolete")).on("foo").create();
+            tx.success();
+        }
+        Neo4jGraphManager.awaitIndexesOnline(db, 1, TimeUnit.MINUTES);
+        int indexCount;
+        try (Transaction tx = db.beginTx()) {
+            indexCount = Lists.newArrayList(db.schema().getIndexes()).size();
+            for (IndexDefinition index : db.schema().getIndexes(Label.label(Neo4jGraphManager.BASE_LABEL))) {
+                if (!index.isConstraintIndex()) {
+                    index.drop();
+                }
+            }
+            tx.success();
+        }
+
+        // Only the missing index is created and only the obsolete one dropped
+        try (Transaction tx = db.beginTx()) {
+            Neo4jGraphManager.createIndicesAndConstraints(db);
+            Schema schema = db.schema();
+            assertFalse(schema.getIndexes(Label.label("Obsolete")).iterator().hasNext());
+            assertEquals(indexCount - 1, Lists.newArrayList(schema.getIndexes()).size());
+            for (IndexDefinition index : schema.getIndexes()) {
+                boolean recreated = Lists.newArrayList(index.getPropertyKeys()).contains(EntityType.TYPE_KEY);
+                assertEquals(recreated ? Schema.IndexState.POPULATING : Schema.IndexState.ONLINE,
+                        schema.getIndexState(index));
+            }
+            tx.success();
+        }
+    }
+
     private Neo4j2Vertex createTestVertex(String id, EntityClass type) throws Exception {
         return (Neo4j2Vertex)manager.createVertex(id, type,
                 Maps.<String, Object>newHashMap());
@@ -20,7 +20,9 @@
 package eu.ehri.project.persistence;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import eu.ehri.project.definitions.EventTypes;
+import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.exceptions.DeserializationError;
 import eu.ehri.project.exceptions.ValidationError;
 import eu.ehri.project.models.DocumentaryUnit;
@@ -164,4 +166,39 @@ public class ActionManagerTest extends AbstractFixtureTest {
         assertEquals(1, Iterables.size(event2.getPriorVersions()));
         assertEquals(2, Iterables.size(doc.getAllPriorVersions()));
     }
+
+    @Test
+    public void testCreatingDeltaVersions() throws Exception {
+        ActionManager am = new ActionManager(graph).withVersionSnapshotInterval(3);
+        BundleManager dao = new BundleManager(graph);
+        Serializer serializer = new Serializer.Builder(graph).dependentOnly().build();
+        Bundle docBundle = Bundle.fromData(TestData.getTestDocBundle());
+        DocumentaryUnit doc = dao.create(docBundle, DocumentaryUnit.class);
+        Actioner actioner = graph.frame(validUser.asVertex(), Actioner.class);
+
+        List<String> expected = Lists.newArrayList();
+        for (int i = 0; i < 5; i++) {
+            Bundle before = serializer.entityToBundle(doc);
+            expected.add(0, before.toJson());
+            dao.update(before.withDataValue("identifier", "changed-" + i), DocumentaryUnit.class);
+            am.newEventContext(doc, actioner, EventTypes.modification)
+                    .createVersion(doc, before).commit();
+        }
+
+        List<Version> versions = Lists.newArrayList(doc.getAllPriorVersions());
+        assertEquals(5, versions.size());
+        // Oldest first: snapshot, delta, delta, snapshot, delta
+        List<Integer> depths = Lists.newArrayList();
+        for (Version version : Lists.reverse(versions)) {
+            depths.add(VersionCodec.getDeltaDepth(version.asVertex()));
+        }
+        assertEquals(Lists.newArrayList(0, 1, 2, 0, 1), depths);
+        for (int i = 0; i < versions.size(); i++) {
+            Version version = versions.get(i);
+            assertEquals(Bundle.fromString(expected.get(i)),
+                    Bundle.fromString(version.getEntityData()));
+            assertEquals(version.getEntityData(), new Serializer(graph).entityToBundle(version)
+                    .getDataValue(Ontology.VERSION_ENTITY_DATA));
+        }
+    }
 }
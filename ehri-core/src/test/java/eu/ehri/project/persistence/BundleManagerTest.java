@@ -20,6 +20,7 @@
 package eu.ehri.project.persistence;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.exceptions.DeserializationError;
 import eu.ehri.project.exceptions.IntegrityError;
@@ -184,6 +185,42 @@ public class BundleManagerTest extends ModelTestBase {
         }
     }
 
+    @Test
+    public void testCreateOrUpdateWithCurrentBundle() throws Exception {
+        DocumentaryUnit c1 = manager.getEntity(ID, DocumentaryUnit.class);
+        Serializer depSerializer = new Serializer.Builder(graph).dependentOnly().build();
+        Bundle current = depSerializer.entityToBundle(c1);
+        BundleManager persister = new BundleManager(graph);
+
+        Mutation<DocumentaryUnit> unchanged = persister
+                .createOrUpdate(current, current, DocumentaryUnit.class);
+        assertEquals(MutationState.UNCHANGED, unchanged.getState());
+
+        // Delete a date period from description cd1 and change
+        // the name of the other description.
+        int cd1 = "cd1".equals(DataUtils.getItem(current, "describes[0]").getId()) ? 0 : 1;
+        String deletePath = "describes[" + cd1 + "]/hasDate[0]";
+        String otherPath = "describes[" + (1 - cd1) + "]";
+        String dpid = DataUtils.getItem(current, deletePath).getId();
+        Bundle newBundle = DataUtils.deleteItem(current, deletePath);
+        newBundle = DataUtils.setItem(newBundle, otherPath,
+                DataUtils.getItem(newBundle, otherPath)
+                        .withDataValue(Ontology.NAME_KEY, "Changed"));
+
+        Mutation<DocumentaryUnit> mutation = persister
+                .createOrUpdate(newBundle, current, DocumentaryUnit.class);
+        assertEquals(MutationState.UPDATED, mutation.getState());
+        assertEquals(current, mutation.getPrior().get());
+        assertEquals(newBundle, depSerializer.entityToBundle(mutation.getNode()));
+        assertEquals(2, Iterables.size(c1.getDocumentDescriptions()));
+        try {
+            manager.getEntity(dpid, DatePeriod.class);
+            fail("Date period '" + dpid + "' found in index after update.");
+        } catch (ItemNotFound e) {
+            // No problem
+        }
+    }
+
     @Test(expected = ItemNotFound.class)
     public void testDeletingWholeBundle() throws SerializationError,
             ValidationError, ItemNotFound {
@@ -237,4 +274,17 @@ public class BundleManagerTest extends ModelTestBase {
         DocumentaryUnit doc = new BundleManager(graph).create(b1, DocumentaryUnit.class);
         assertEquals("foo_ארכיו_bar", doc.getId());
     }
+
+    @Test
+    public void testClearPrefetched() throws Exception {
+        Bundle b1 = Bundle.fromData(TestData.getTestDocBundle());
+        BundleManager persister = new BundleManager(graph);
+        persister.prefetch(Lists.newArrayList(b1));
+
+        // Created behind the prefetching manager's back...
+        DocumentaryUnit doc = new BundleManager(graph).create(b1, DocumentaryUnit.class);
+        Mutation<DocumentaryUnit> mutation = persister.clearPrefetched()
+                .createOrUpdate(b1.withId(doc.getId()), DocumentaryUnit.class);
+        assertEquals(MutationState.UNCHANGED, mutation.getState());
+    }
 }
@@ -2,15 +2,21 @@ package eu.ehri.project.persistence;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.exceptions.ValidationError;
+import eu.ehri.project.models.AccessPointType;
 import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.persistence.utils.DataUtils;
 import eu.ehri.project.test.AbstractFixtureTest;
 import eu.ehri.project.test.TestData;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.junit.Assert.assertEquals;
@@ -19,6 +25,8 @@ import static org.junit.Assert.fail;
 
 public class BundleValidatorTest extends AbstractFixtureTest {
 
+    private static final Logger logger = LoggerFactory.getLogger(BundleValidatorTest.class);
+
     @Test
     public void testValidateForCreate() throws Exception {
         Bundle test = Bundle.fromData(TestData.getTestDocBundle());
@@ -49,6 +57,29 @@ public class BundleValidatorTest extends AbstractFixtureTest {
         }
     }
 
+    @Test
+    public void testValidateIntegrityWithPrefetch() throws Exception {
+        Bundle test = DataUtils.setItem(
+                Bundle.fromData(TestData.getTestDocBundle()),
+                "describes[-1]", Bundle.Builder.withClass(EntityClass.DOCUMENTARY_UNIT_DESCRIPTION)
+                        .addData(ImmutableMap.of(
+                                Ontology.IDENTIFIER_KEY, "someid-01",
+                                Ontology.NAME_KEY, "Description with duplicate identifier",
+                                Ontology.LANGUAGE_OF_DESCRIPTION, "eng"
+                        )).build());
+
+        BundleValidator bundleValidator = new BundleValidator(manager, Lists.newArrayList());
+        bundleValidator.prefetch(Lists.newArrayList(test));
+        try {
+            bundleValidator.validateForCreate(test);
+            fail("Bundle validation should have failed with duplicate ID error");
+        } catch (ValidationError e) {
+            List<String> errs = DataUtils.get(e.getErrorSet(), "describes[1]/languageCode");
+            assertEquals(1, errs.size());
+            assertThat(errs.get(0), containsString("Value 'eng-someid_01' exists and must be unique"));
+        }
+    }
+
     @Test
     public void testValidateIntegrity2() throws Exception {
         // Check a weird case where the ID of a dependent item generates the same as
@@ -95,4 +126,68 @@ public class BundleValidatorTest extends AbstractFixtureTest {
             assertThat(errs.get(0), containsString("Property value must be one of"));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testValidateNestedDuplicateIds() throws Exception {
+        // A dependent item with the same ID as its parent description
+        Bundle test = DataUtils.setItem(
+                Bundle.fromData(TestData.getTestDocBundle()),
+                "describes[-1]", Bundle.Builder.withClass(EntityClass.DOCUMENTARY_UNIT_DESCRIPTION)
+                        .setId("desc1")
+                        .addData(ImmutableMap.of(
+                                Ontology.NAME_KEY, "Description with nested duplicate identifier",
+                                Ontology.LANGUAGE_OF_DESCRIPTION, "fra"
+                        ))
+                        .addRelation(Ontology.HAS_ACCESS_POINT, Bundle.Builder.withClass(EntityClass.ACCESS_POINT)
+                                .setId("desc1")
+                                .addDataValue(Ontology.NAME_KEY, "Test")
+                                .addDataValue(Ontology.ACCESS_POINT_TYPE, AccessPointType.subject.name())
+                                .build())
+                        .build());
+
+        BundleValidator bundleValidator = new BundleValidator(manager, Lists.newArrayList());
+        try {
+            bundleValidator.validateForCreate(test);
+            fail("Bundle validation should have failed with duplicate ID error");
+        } catch (ValidationError e) {
+            assertEquals(Lists.newArrayList("Duplicate ID: desc1"),
+                    DataUtils.get(e.getErrorSet(), "id"));
+            assertEquals(Lists.newArrayList("Duplicate ID: desc1"),
+                    DataUtils.get(e.getErrorSet(), "describes[1]/id"));
+            assertEquals(Lists.newArrayList(),
+                    DataUtils.get(e.getErrorSet(), "describes[1]/relatesTo[0]/id"));
+        }
+    }
+
+    @Test
+    public void testValidateLargeBundle() throws Exception {
+        // Benchmark validation of a synthetic 10,000 node bundle: a
+        // unit with 99 descriptions, each having 100 access points.
+        Bundle.Builder builder = Bundle.Builder.withClass(EntityClass.DOCUMENTARY_UNIT)
+                .addDataValue(Ontology.IDENTIFIER_KEY, "large");
+        for (int i = 0; i < 99; i++) {
+            Bundle.Builder desc = Bundle.Builder.withClass(EntityClass.DOCUMENTARY_UNIT_DESCRIPTION)
+                    .addDataValue(Ontology.IDENTIFIER_KEY, "desc-" + i)
+                    .addDataValue(Ontology.NAME_KEY, "Description " + i)
+                    .addDataValue(Ontology.LANGUAGE_OF_DESCRIPTION, "eng");
+            for (int j = 0; j < 100; j++) {
+                desc.addRelation(Ontology.HAS_ACCESS_POINT, Bundle.Builder.withClass(EntityClass.ACCESS_POINT)
+                        .addDataValue(Ontology.NAME_KEY, "Access point " + j)
+                        .addDataValue(Ontology.ACCESS_POINT_TYPE, AccessPointType.subject.name())
+                        .build());
+            }
+            builder.addRelation(Ontology.DESCRIPTION_FOR_ENTITY, desc.build());
+        }
+        Bundle test = builder.build();
+
+        BundleValidator bundleValidator = new BundleValidator(manager, Lists.newArrayList());
+        long start = System.nanoTime();
+        Bundle withIds = bundleValidator.validateForCreate(test);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("Validated 10,000 node bundle in {}ms", elapsed);
+
+        Set<String> ids = Sets.newHashSet();
+        withIds.forEach(b -> ids.add(b.getId()));
+        assertEquals(10000, ids.size());
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.tools;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import eu.ehri.project.acl.AclManager;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.exceptions.ItemNotFound;
+import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.Repository;
+import eu.ehri.project.persistence.ActionManager;
+import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.persistence.Serializer;
+import eu.ehri.project.test.AbstractFixtureTest;
+import eu.ehri.project.test.TestData;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static eu.ehri.project.tools.ChangeExporter.ChangeType;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeExporterTest extends AbstractFixtureTest {
+
+    private Serializer depSerializer;
+    private ChangeExporter exporter;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        depSerializer = new Serializer.Builder(graph).dependentOnly().build();
+        exporter = new ChangeExporter(graph);
+    }
+
+    @Test
+    public void testGetChanges() throws Exception {
+        String repoId = loggingApi(validUser)
+                .create(Bundle.fromData(TestData.getTestAgentBundle()), Repository.class)
+                .getId();
+        String checkpoint = new ActionManager(graph).getLatestGlobalEvent().getId();
+
+        Bundle r1 = depSerializer.entityToBundle(manager.getEntity("r1", Repository.class));
+        loggingApi(validUser).update(r1.withDataValue("name", "Changed"), Repository.class);
+        DocumentaryUnit doc = loggingApi(validUser)
+                .create(Bundle.fromData(TestData.getTestDocBundle()), DocumentaryUnit.class);
+        loggingApi(validUser).delete(repoId);
+        String latest = new ActionManager(graph).getLatestGlobalEvent().getId();
+
+        List<ChangeExporter.Change> changes = Lists.newArrayList();
+        ChangeExporter.ChangeSummary summary = exporter
+                .getChanges(Optional.of(checkpoint), Optional.empty(), changes::add);
+        assertEquals(latest, summary.getCheckpoint());
+        assertEquals(3, summary.getCount());
+        Map<String, ChangeType> changeTypes = getChangeTypes(changes);
+        assertEquals(3, changeTypes.size());
+        assertEquals(ChangeType.updated, changeTypes.get("r1"));
+        assertEquals(ChangeType.created, changeTypes.get(doc.getId()));
+        assertEquals(ChangeType.deleted, changeTypes.get(repoId));
+        // Changes are ordered by when they last happened, latest first
+        assertEquals(repoId, changes.get(0).getId());
+        assertEquals(EntityClass.REPOSITORY.getName(), changes.get(0).getType());
+
+        // Items changed more than once are only reported once
+        List<ChangeExporter.Change> all = Lists.newArrayList();
+        exporter.getChanges(Optional.empty(), Optional.empty(), all::add);
+        assertEquals(3, all.size());
+        assertEquals(ChangeType.deleted, getChangeTypes(all).get(repoId));
+        assertEquals(ChangeType.created, getChangeTypes(all).get(doc.getId()));
+
+        // Nothing has changed since the latest event
+        List<ChangeExporter.Change> none = Lists.newArrayList();
+        summary = exporter.getChanges(Optional.of(latest), Optional.empty(), none::add);
+        assertTrue(none.isEmpty());
+        assertEquals(latest, summary.getCheckpoint());
+    }
+
+    @Test(expected = ItemNotFound.class)
+    public void testGetChangesSinceUnknownEvent() throws Exception {
+        exporter.getChanges(Optional.of("not-an-event"), Optional.empty(), change -> {
+        });
+    }
+
+    @Test
+    public void testGetChangesSinceTimestamp() throws Exception {
+        loggingApi(validUser)
+                .create(Bundle.fromData(TestData.getTestAgentBundle()), Repository.class);
+        Thread.sleep(10);
+        String timestamp = ActionManager.getTimestamp();
+        Thread.sleep(10);
+        DocumentaryUnit doc = loggingApi(validUser)
+                .create(Bundle.fromData(TestData.getTestDocBundle()), DocumentaryUnit.class);
+
+        List<ChangeExporter.Change> changes = Lists.newArrayList();
+        exporter.getChanges(Optional.empty(), Optional.of(timestamp), changes::add);
+        assertEquals(1, changes.size());
+        assertEquals(doc.getId(), changes.get(0).getId());
+
+        // The same instant in a different time zone gives the same
+        // result, although it would not compare equally as a string.
+        String offsetTimestamp = DateTime.parse(timestamp)
+                .withZone(DateTimeZone.forOffsetHours(-10)).toString();
+        changes.clear();
+        exporter.getChanges(Optional.empty(), Optional.of(offsetTimestamp), changes::add);
+        assertEquals(1, changes.size());
+        assertEquals(doc.getId(), changes.get(0).getId());
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        String checkpoint = loggingApi(validUser)
+                .create(Bundle.fromData(TestData.getTestDocBundle())
+                        .withDataValue(Ontology.IDENTIFIER_KEY, "foo"), DocumentaryUnit.class)
+                .getId();
+        loggingApi(validUser).delete(checkpoint);
+        DocumentaryUnit doc = loggingApi(validUser)
+                .create(Bundle.fromData(TestData.getTestDocBundle()), DocumentaryUnit.class);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.export(out, Optional.empty(), Optional.empty());
+        JsonNode json = new ObjectMapper().readTree(out.toByteArray());
+        assertEquals(new ActionManager(graph).getLatestGlobalEvent().getId(),
+                json.path("checkpoint").asText());
+        JsonNode changes = json.path("changes");
+        assertEquals(2, changes.size());
+        assertEquals(doc.getId(), changes.get(0).path(Bundle.ID_KEY).asText());
+        assertEquals("created", changes.get(0).path("change").asText());
+        assertEquals(doc.getId(), changes.get(0).path("data").path(Bundle.ID_KEY).asText());
+        assertEquals("deleted", changes.get(1).path("change").asText());
+        assertFalse(changes.get(1).has("data"));
+
+        // Filtered items are left out, and so are deletions
+        out = new ByteArrayOutputStream();
+        exporter.withFilter(item -> true).export(out, Optional.empty(), Optional.empty());
+        changes = new ObjectMapper().readTree(out.toByteArray()).path("changes");
+        assertEquals(1, changes.size());
+        assertEquals(doc.getId(), changes.get(0).path(Bundle.ID_KEY).asText());
+        out = new ByteArrayOutputStream();
+        exporter.withFilter(item -> false).export(out, Optional.empty(), Optional.empty());
+        assertEquals(0, new ObjectMapper().readTree(out.toByteArray()).path("changes").size());
+    }
+
+    @Test
+    public void testExportHidesDeletionsOfRestrictedItems() throws Exception {
+        DocumentaryUnit hidden = loggingApi(validUser)
+                .create(Bundle.fromData(TestData.getTestDocBundle()), DocumentaryUnit.class);
+        AclManager aclManager = new AclManager(graph);
+        aclManager.setAccessors(hidden, Lists.newArrayList(validUser));
+        String hiddenId = hidden.getId();
+        loggingApi(validUser).delete(hiddenId);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.export(out, Optional.empty(), Optional.empty());
+        assertTrue(new ObjectMapper().readTree(out.toByteArray()).path("changes")
+                .findValuesAsText(Bundle.ID_KEY).contains(hiddenId));
+
+        // A user who could not see the item is not told of its deletion
+        out = new ByteArrayOutputStream();
+        exporter.withFilter(item -> aclManager.canAccess(item, invalidUser))
+                .export(out, Optional.empty(), Optional.empty());
+        assertFalse(new ObjectMapper().readTree(out.toByteArray()).path("changes")
+                .findValuesAsText(Bundle.ID_KEY).contains(hiddenId));
+    }
+
+    private static Map<String, ChangeType> getChangeTypes(List<ChangeExporter.Change> changeList) {
+        Map<String, ChangeType> changes = Maps.newHashMap();
+        for (ChangeExporter.Change change : changeList) {
+            changes.put(change.getId(), change.getChangeType());
+        }
+        return changes;
+    }
+}
@@ -3,6 +3,11 @@ package eu.ehri.project.tools;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.Lists;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.definitions.Entities;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.annotations.EntityType;
+import eu.ehri.project.persistence.VersionCodec;
 import eu.ehri.project.test.GraphTestBase;
 import org.junit.Test;
 
@@ -10,6 +15,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class DbUpgrader1To2Test extends GraphTestBase {
 
@@ -44,4 +50,30 @@ public class DbUpgrader1To2Test extends GraphTestBase {
                 .path("describes").path(0).path("relationships")
                 .path("hasDate").path(0).path("type").asText());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testUpgradeDeltaVersions() throws Exception {
+        String before = "{\"type\":\"documentaryUnit\",\"data\":{\"identifier\":\"a\"}}";
+        String after = "{\"type\":\"documentaryUnit\",\"data\":{\"identifier\":\"b\"}}";
+        Vertex snapshot = graph.addVertex(null);
+        snapshot.setProperty(EntityType.TYPE_KEY, "version");
+        snapshot.setProperty(Ontology.VERSION_ENTITY_DATA, before);
+        Vertex delta = graph.addVertex(null);
+        delta.setProperty(EntityType.TYPE_KEY, "version");
+        delta.setProperty(VersionCodec.DELTA_KEY, VersionCodec.createDelta(before, after));
+        delta.setProperty(VersionCodec.DELTA_DEPTH_KEY, 1);
+        delta.addEdge(Ontology.ENTITY_HAS_PRIOR_VERSION, snapshot);
+
+        new DbUpgrader1to2(graph, () -> {}).upgradeTypeValues();
+
+        ObjectMapper mapper = new ObjectMapper();
+        for (Vertex version : Lists.newArrayList(snapshot, delta)) {
+            assertEquals(Entities.VERSION, version.getProperty(EntityType.TYPE_KEY));
+            assertNull(version.getProperty(VersionCodec.DELTA_KEY));
+            assertEquals("DocumentaryUnit", mapper.readTree(
+                    (String) version.getProperty(Ontology.VERSION_ENTITY_DATA)).path("type").asText());
+        }
+        assertEquals("b", mapper.readTree((String) delta.getProperty(Ontology.VERSION_ENTITY_DATA))
+                .path("data").path("identifier").asText());
+    }
+}
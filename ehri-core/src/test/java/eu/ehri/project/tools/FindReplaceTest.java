@@ -1,6 +1,7 @@
 package eu.ehri.project.tools;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.models.base.Description;
@@ -80,6 +81,40 @@ public class FindReplaceTest extends AbstractFixtureTest {
         assertEquals(4, todo.size());
     }
 
+    @Test
+    public void testFindInParallel() throws Exception {
+        graph.getBaseGraph().commit();
+        FindReplace findReplace = new FindReplace(graph, false, 100).withParallelism(2);
+        List<List<String>> found = Lists.newArrayList();
+        findReplace.find(EntityClass.REPOSITORY, EntityClass.REPOSITORY_DESCRIPTION,
+                "name", "Description", found::add);
+        assertEquals(4, found.size());
+        assertThat(found.get(0), equalTo(Lists.newArrayList("r1", "rd1", "NIOD Description")));
+
+        List<List<String>> limited = Lists.newArrayList();
+        findReplace = new FindReplace(graph, false, 2).withParallelism(2);
+        findReplace.find(EntityClass.REPOSITORY, EntityClass.REPOSITORY_DESCRIPTION,
+                "name", "Description", limited::add);
+        assertThat(limited, equalTo(found.subList(0, 2)));
+    }
+
+    @Test
+    public void testFindAndReplaceInBatches() throws Exception {
+        graph.getBaseGraph().commit();
+        int eventCount = Iterables.size(api(validUser).actionManager().getLatestGlobalEvents());
+        FindReplace findReplace = new FindReplace(graph, true, 100)
+                .withBatches(3, () -> graph.getBaseGraph().commit());
+        List<List<String>> done = findReplace.findAndReplace(
+                EntityClass.REPOSITORY, EntityClass.REPOSITORY_DESCRIPTION,
+                "name", "Description",
+                "Test", validUser, "This is a test");
+        assertEquals(4, done.size());
+        assertEquals(eventCount + 2,
+                Iterables.size(api(validUser).actionManager().getLatestGlobalEvents()));
+        assertEquals("SOMA Test",
+                manager.getEntity("rd4", Description.class).getName());
+    }
+
     @Test
     public void testFindAndReplaceNoneFound() throws Exception {
         FindReplace findReplace = new FindReplace(graph, false, 100);
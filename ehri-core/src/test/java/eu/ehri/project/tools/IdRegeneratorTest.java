@@ -20,6 +20,7 @@
 package eu.ehri.project.tools;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.models.DocumentaryUnitDescription;
@@ -36,6 +37,7 @@ import org.junit.Test;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -156,4 +158,37 @@ public class IdRegeneratorTest extends AbstractFixtureTest {
         assertEquals("nl-r1-c1-c2-c3", remap.get("c3"));
         assertEquals("nl-r1-c4", remap.get("c4"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReGenerateIdsWithSharedNewId() throws Exception {
+        DocumentaryUnit doc1 = manager.getEntity("c1", DocumentaryUnit.class);
+        DocumentaryUnit doc2 = manager.getEntity("c4", DocumentaryUnit.class);
+        // Both items would now be renamed to the same ID
+        manager.setProperty(doc1.asVertex(), Ontology.IDENTIFIER_KEY, "c4");
+        List<DocumentaryUnit> docs = Lists.newArrayList(doc1, doc2);
+        assertEquals(2, idRegenerator.collisionMode(true).reGenerateIds(docs).size());
+        assertTrue(idRegenerator.withActualRename(true)
+                .skippingCollisions(true).reGenerateIds(docs).isEmpty());
+        assertEquals("c1", doc1.getId());
+        try {
+            idRegenerator.withActualRename(true).reGenerateIds(docs);
+            fail("Renaming should have failed on a collision");
+        } catch (IdRegenerator.IdCollisionError e) {
+            assertEquals("c4", doc2.getId());
+        }
+    }
+
+    @Test
+    public void testReGenerateIdsInBatches() throws Exception {
+        Iterable<DocumentaryUnit> docs = manager.getEntities(EntityClass.DOCUMENTARY_UNIT,
+                DocumentaryUnit.class);
+        AtomicInteger batches = new AtomicInteger();
+        List<List<String>> remaps = idRegenerator.withActualRename(true)
+                .withBatches(2, batches::incrementAndGet)
+                .reGenerateIds(Lists.newArrayList(docs));
+        assertEquals(4, remaps.size());
+        assertEquals(2, batches.get());
+        assertTrue(manager.exists("nl-r1-c1-c2-c3"));
+        assertFalse(manager.exists("c3"));
+    }
+}
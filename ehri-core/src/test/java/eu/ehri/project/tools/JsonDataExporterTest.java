@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.tools;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import eu.ehri.project.definitions.Entities;
+import eu.ehri.project.definitions.EventTypes;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.base.Actioner;
+import eu.ehri.project.models.events.Version;
+import eu.ehri.project.persistence.ActionManager;
+import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.persistence.BundleManager;
+import eu.ehri.project.persistence.Serializer;
+import eu.ehri.project.persistence.VersionCodec;
+import eu.ehri.project.test.AbstractFixtureTest;
+import eu.ehri.project.test.TestData;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JsonDataExporterTest extends AbstractFixtureTest {
+
+    @Test
+    public void testOutputGraphWithDeltaVersions() throws Exception {
+        ActionManager am = new ActionManager(graph).withVersionSnapshotInterval(3);
+        BundleManager dao = new BundleManager(graph);
+        Serializer serializer = new Serializer.Builder(graph).dependentOnly().build();
+        DocumentaryUnit doc = dao.create(Bundle.fromData(TestData.getTestDocBundle()), DocumentaryUnit.class);
+        Actioner actioner = graph.frame(validUser.asVertex(), Actioner.class);
+        for (int i = 0; i < 3; i++) {
+            Bundle before = serializer.entityToBundle(doc);
+            dao.update(before.withDataValue("identifier", "changed-" + i), DocumentaryUnit.class);
+            am.newEventContext(doc, actioner, EventTypes.modification)
+                    .createVersion(doc, before).commit();
+        }
+        List<Version> versions = Lists.newArrayList(doc.getAllPriorVersions());
+        assertTrue(VersionCodec.getDeltaDepth(versions.get(0).asVertex()) > 0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonDataExporter.outputGraph(graph, out);
+        JsonNode items = new ObjectMapper().readTree(out.toByteArray());
+        int count = 0;
+        for (Version version : versions) {
+            for (JsonNode item : items) {
+                if (Entities.VERSION.equals(item.path(Bundle.TYPE_KEY).asText())
+                        && version.getId().equals(item.path(Bundle.ID_KEY).asText())) {
+                    assertEquals(version.getEntityData(),
+                            item.path(Bundle.DATA_KEY).path(Ontology.VERSION_ENTITY_DATA).asText());
+                    count++;
+                }
+            }
+        }
+        assertEquals(versions.size(), count);
+    }
+}
@@ -22,17 +22,30 @@ package eu.ehri.project.tools;
 import com.google.common.collect.Iterables;
 import eu.ehri.project.models.AccessPointType;
 import eu.ehri.project.models.Repository;
+import eu.ehri.project.models.cvoc.Concept;
 import eu.ehri.project.models.cvoc.Vocabulary;
 import eu.ehri.project.persistence.ActionManager;
 import eu.ehri.project.test.AbstractFixtureTest;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 
 public class LinkerTest extends AbstractFixtureTest {
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     private Linker linker;
     private ActionManager actionManager;
 
@@ -61,6 +74,48 @@ public class LinkerTest extends AbstractFixtureTest {
         assertEquals(actionManager.getLatestGlobalEvent().getLogMessage(), logMessage);
     }
 
+    @Test
+    public void testResumeLinkingFromCheckpoint() throws Exception {
+        Repository repository = manager.getEntity("r1", Repository.class);
+        Vocabulary vocabulary = manager.getEntity("cvoc2", Vocabulary.class);
+        graph.getBaseGraph().commit();
+        int conceptCount = Iterables.size(vocabulary.getConcepts());
+        int linkCount = countLinks(vocabulary);
+        Path dir = tempFolder.newFolder().toPath();
+
+        // Fail when committing the second batch of links, rolling it back...
+        AtomicInteger commits = new AtomicInteger();
+        try {
+            linker.withExcludeSingles(false)
+                    .withBatchSize(1)
+                    .withCheckpoints(dir, () -> {
+                        if (commits.incrementAndGet() == 6) {
+                            graph.getBaseGraph().rollback();
+                            throw new RuntimeException("Interrupted!");
+                        }
+                        graph.getBaseGraph().commit();
+                    })
+                    .createAndLinkRepositoryVocabulary(repository, vocabulary, validUser);
+            fail("Linking should have been interrupted");
+        } catch (RuntimeException e) {
+            assertEquals("Interrupted!", e.getMessage());
+        }
+        assertTrue(Files.exists(dir.resolve("checkpoint")));
+        // ...with the checkpoint showing links are in progress
+        assertEquals("LINKING", Files.readAllLines(dir.resolve("checkpoint")).get(2));
+        assertEquals(conceptCount + 2, Iterables.size(vocabulary.getConcepts()));
+
+        // Resuming creates the remaining link without recreating concepts
+        int newLinkCount = linker.withExcludeSingles(false)
+                .withBatchSize(1)
+                .withCheckpoints(dir, () -> graph.getBaseGraph().commit())
+                .createAndLinkRepositoryVocabulary(repository, vocabulary, validUser);
+        assertEquals(2, newLinkCount);
+        assertEquals(conceptCount + 2, Iterables.size(vocabulary.getConcepts()));
+        assertEquals(linkCount + 2, countLinks(vocabulary));
+        assertFalse(Files.exists(dir.resolve("checkpoint")));
+    }
+
     @Test
     public void testCreateConceptsForRepositoryWithBadAccessPointTypes() throws Exception {
         Repository repository = manager.getEntity("r1", Repository.class);
@@ -95,4 +150,12 @@ public class LinkerTest extends AbstractFixtureTest {
         assertEquals(eventCount,
                 Iterables.size(actionManager.getLatestGlobalEvents()));
     }
+
+    private static int countLinks(Vocabulary vocabulary) {
+        int count = 0;
+        for (Concept concept : vocabulary.getConcepts()) {
+            count += Iterables.size(concept.getLinks());
+        }
+        return count;
+    }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.tools;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.TransactionalGraph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.frames.FramedGraph;
+import eu.ehri.project.core.impl.neo4j.Neo4j2Graph;
+import eu.ehri.project.models.annotations.EntityType;
+import eu.ehri.project.test.AbstractFixtureTest;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PartitionedGraphDumpTest extends AbstractFixtureTest {
+
+    @Test
+    public void testDumpAndRestore() throws Exception {
+        Vertex typed = graph.addVertex(null);
+        typed.setProperty("long", 1L);
+        typed.setProperty("float", 1.5f);
+        typed.setProperty("double", 2.0);
+        typed.setProperty("strings", new String[]{"a", "b"});
+        typed.setProperty("longs", new long[]{1L, 2L});
+        typed.setProperty("bytes", new byte[]{1, 2});
+        graph.getBaseGraph().commit();
+
+        Path dir = Files.createTempDirectory("graph-dump");
+        GraphDatabaseService db1 = ((Neo4j2Graph) graph.getBaseGraph()).getRawGraph();
+        long count = new PartitionedGraphDump(db1, 10).dump(dir, 3);
+        assertTrue(Files.exists(dir.resolve(PartitionedGraphDump.MANIFEST)));
+        assertTrue(Files.exists(dir.resolve("nodes-00002.json.gz")));
+
+        FramedGraph<? extends TransactionalGraph> graph2 = getFramedGraph();
+        try {
+            GraphDatabaseService db2 = ((Neo4j2Graph) graph2.getBaseGraph()).getRawGraph();
+            assertEquals(count, new PartitionedGraphDump(db2, 10).restore(dir));
+            assertEquals(getNodeState(db1), getNodeState(db2));
+            assertEquals(getRelationshipState(db1), getRelationshipState(db2));
+        } finally {
+            graph2.shutdown();
+        }
+    }
+
+    @Test
+    public void testRestoreIntoNonEmptyDatabase() throws Exception {
+        graph.getBaseGraph().commit();
+        Path dir = Files.createTempDirectory("graph-dump");
+        GraphDatabaseService db = ((Neo4j2Graph) graph.getBaseGraph()).getRawGraph();
+        long before = new PartitionedGraphDump(db, 10).dump(dir, 2);
+        try {
+            new PartitionedGraphDump(db, 10).restore(dir);
+            fail("Restoring into a non-empty database should fail");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("already contains data"));
+        }
+        // Nothing was restored
+        assertEquals(before, getNodeState(db).size());
+    }
+
+    private static Multiset<String> getNodeState(GraphDatabaseService db) {
+        Multiset<String> state = HashMultiset.create();
+        try (Transaction tx = db.beginTx()) {
+            for (Node node : db.getAllNodes()) {
+                Set<String> labels = Sets.newTreeSet();
+                for (Label label : node.getLabels()) {
+                    labels.add(label.name());
+                }
+                Map<String, String> props = new TreeMap<>();
+                for (Map.Entry<String, Object> prop : node.getAllProperties().entrySet()) {
+                    Object value = prop.getValue();
+                    props.put(prop.getKey(), value.getClass().getSimpleName() + ":"
+                            + Arrays.deepToString(new Object[]{value}));
+                }
+                state.add(labels + " " + props);
+            }
+            tx.success();
+        }
+        return state;
+    }
+
+    private static Multiset<String> getRelationshipState(GraphDatabaseService db) {
+        Multiset<String> state = HashMultiset.create();
+        try (Transaction tx = db.beginTx()) {
+            for (Relationship rel : db.getAllRelationships()) {
+                state.add(rel.getStartNode().getProperty(EntityType.ID_KEY, "?")
+                        + " -" + rel.getType().name() + "-> "
+                        + rel.getEndNode().getProperty(EntityType.ID_KEY, "?")
+                        + " " + new TreeMap<>(rel.getAllProperties()));
+            }
+            tx.success();
+        }
+        return state;
+    }
+}
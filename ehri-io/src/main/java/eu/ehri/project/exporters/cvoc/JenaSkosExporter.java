@@ -69,10 +69,61 @@ public class JenaSkosExporter implements SkosExporter {
 
     @Override
     public void export(OutputStream outputStream, String base) throws IOException {
-        Model model = export(base);
-        RDFWriter writer = model.getWriter(format);
-        writer.setProperty("relativeURIs", "");
-        writer.write(model, outputStream, base);
+        Optional<RdfBlockWriter.Syntax> syntax = streamingSyntax(format);
+        if (syntax.isPresent()) {
+            exportStream(outputStream, base, syntax.get());
+        } else {
+            // RDF/XML and friends need the whole graph to lay out
+            // their document, so fall back to building a model.
+            Model model = export(base);
+            RDFWriter writer = model.getWriter(format);
+            writer.setProperty("relativeURIs", "");
+            writer.write(model, outputStream, base);
+        }
+    }
+
+    /**
+     * Determine whether a format can be written one concept at a time.
+     *
+     * @param format a Jena RDF format name
+     * @return the streaming syntax, or nothing if the format must
+     * be written from a complete model
+     */
+    private static Optional<RdfBlockWriter.Syntax> streamingSyntax(String format) {
+        if (format == null) {
+            return Optional.empty();
+        }
+        switch (format.toUpperCase()) {
+            case "TTL":
+            case "TURTLE":
+            case "N3":
+                return Optional.of(RdfBlockWriter.Syntax.TURTLE);
+            case "NT":
+            case "N-TRIPLE":
+            case "N-TRIPLES":
+                return Optional.of(RdfBlockWriter.Syntax.N_TRIPLES);
+            default:
+                return Optional.empty();
+        }
+    }
+
+    /**
+     * Write each concept's statements to the stream as soon as they
+     * have been read, so only one concept is held in memory at a time.
+     */
+    private void exportStream(OutputStream outputStream, String base, RdfBlockWriter.Syntax syntax) throws IOException {
+        String baseUri = base == null ? SkosRDFVocabulary.DEFAULT_BASE_URI : base;
+        RdfBlockWriter writer = new RdfBlockWriter(outputStream, SkosRDFVocabulary.NAMESPACES, syntax);
+        writer.start();
+        Model vocabModel = ModelFactory.createDefaultModel();
+        Resource vocabResource = addVocabulary(vocabModel, baseUri);
+        writer.write(vocabModel);
+        for (Concept concept : vocabulary.getConcepts()) {
+            Model conceptModel = ModelFactory.createDefaultModel();
+            addConcept(conceptModel, vocabResource, concept, baseUri);
+            writer.write(conceptModel);
+        }
+        writer.finish();
     }
 
     private String getUri(Concept concept, String baseUri) {
@@ -88,19 +139,17 @@ public class JenaSkosExporter implements SkosExporter {
     }
 
     public Model export(String base) throws IOException {
-
         String baseUri = base == null ? SkosRDFVocabulary.DEFAULT_BASE_URI : base;
-        Iterable<Concept> concepts = vocabulary.getConcepts();
         Model model = ModelFactory.createDefaultModel();
-        Resource skosConcept = model.createResource(SkosRDFVocabulary.CONCEPT.getURI().toString());
         model.setNsPrefixes(SkosRDFVocabulary.NAMESPACES);
-        Property prefLabelProp = model
-                .createProperty(SkosRDFVocabulary.PREF_LABEL.getURI().toString());
-        Property inSchemeProp = model
-                .createProperty(SkosRDFVocabulary.IN_SCHEME.getURI().toString());
-        Property topConceptProp = model
-                .createProperty(SkosRDFVocabulary.HAS_TOP_CONCEPT.getURI().toString());
+        Resource vocabResource = addVocabulary(model, baseUri);
+        for (Concept concept : vocabulary.getConcepts()) {
+            addConcept(model, vocabResource, concept, baseUri);
+        }
+        return model;
+    }
 
+    private Resource addVocabulary(Model model, String baseUri) {
         Resource vocabResource = model.createResource(baseUri + vocabulary.getId());
         model.add(vocabResource, RDF.type, model
                 .createResource(SkosRDFVocabulary.CONCEPT_SCHEME.getURI().toString()));
@@ -113,57 +162,65 @@ public class JenaSkosExporter implements SkosExporter {
                         model.createProperty(DC_URI + dcElement), prop, "en");
             }
         }
+        return vocabResource;
+    }
 
-        for (Concept concept : concepts) {
-            Vertex cv = concept.asVertex();
-            Resource resource = model.createResource(getUri(concept, baseUri));
-            model.add(resource, RDF.type, skosConcept);
-            model.add(resource, inSchemeProp, vocabResource);
+    private void addConcept(Model model, Resource vocabResource, Concept concept, String baseUri) {
+        Resource skosConcept = model.createResource(SkosRDFVocabulary.CONCEPT.getURI().toString());
+        Property prefLabelProp = model
+                .createProperty(SkosRDFVocabulary.PREF_LABEL.getURI().toString());
+        Property inSchemeProp = model
+                .createProperty(SkosRDFVocabulary.IN_SCHEME.getURI().toString());
+        Property topConceptProp = model
+                .createProperty(SkosRDFVocabulary.HAS_TOP_CONCEPT.getURI().toString());
 
-            for (String key : cv.getPropertyKeys()) {
-                writeProperty(model, resource, key, cv.getProperty(key), null);
-            }
+        Vertex cv = concept.asVertex();
+        Resource resource = model.createResource(getUri(concept, baseUri));
+        model.add(resource, RDF.type, skosConcept);
+        model.add(resource, inSchemeProp, vocabResource);
 
-            for (Description description : concept.getDescriptions()) {
-                Vertex cdv = description.asVertex();
-                String lang = getLangCode(description);
-                model.add(resource, prefLabelProp, description.getName(), lang);
-                for (String key : cdv.getPropertyKeys()) {
-                    writeProperty(model, resource, key, cdv.getProperty(key), lang);
-                }
+        for (String key : cv.getPropertyKeys()) {
+            writeProperty(model, resource, key, cv.getProperty(key), null);
+        }
 
-                // In some cases there'll be an unknown property with a key
-                // such as owl:sameAs and a value pointing to some other URL.
-                for (UnknownProperty prop : description.getUnknownProperties()) {
-                    for (String key : prop.getPropertyKeys()) {
-                        String value = prop.getProperty(key);
-                        if (SkosRDFVocabulary.RELATION_PROPS.containsKey(key)) {
-                            model.add(resource,
-                                    model.createProperty(SkosRDFVocabulary.RELATION_PROPS.get(key).toString()), value);
-                        }
+        for (Description description : concept.getDescriptions()) {
+            Vertex cdv = description.asVertex();
+            String lang = getLangCode(description);
+            model.add(resource, prefLabelProp, description.getName(), lang);
+            for (String key : cdv.getPropertyKeys()) {
+                writeProperty(model, resource, key, cdv.getProperty(key), lang);
+            }
+
+            // In some cases there'll be an unknown property with a key
+            // such as owl:sameAs and a value pointing to some other URL.
+            for (UnknownProperty prop : description.getUnknownProperties()) {
+                for (String key : prop.getPropertyKeys()) {
+                    String value = prop.getProperty(key);
+                    if (SkosRDFVocabulary.RELATION_PROPS.containsKey(key)) {
+                        model.add(resource,
+                                model.createProperty(SkosRDFVocabulary.RELATION_PROPS.get(key).toString()), value);
                     }
                 }
             }
+        }
 
-            // if there are no broader concepts, assume it's a top concept
-            if (!concept.getBroaderConcepts().iterator().hasNext()) {
-                model.add(vocabResource, topConceptProp, resource);
-            }
+        // if there are no broader concepts, assume it's a top concept
+        if (!concept.getBroaderConcepts().iterator().hasNext()) {
+            model.add(vocabResource, topConceptProp, resource);
+        }
 
-            for (Concept other : concept.getBroaderConcepts()) {
-                Resource otherResource = model.createResource(getUri(other, baseUri));
-                model.add(resource, model.createProperty(SkosRDFVocabulary.BROADER.getURI().toString()), otherResource);
-            }
-            for (Concept other : concept.getNarrowerConcepts()) {
-                Resource otherResource = model.createResource(getUri(other, baseUri));
-                model.add(resource, model.createProperty(SkosRDFVocabulary.NARROWER.getURI().toString()), otherResource);
-            }
-            for (Concept other : concept.getRelatedConcepts()) {
-                Resource otherResource = model.createResource(getUri(other, baseUri));
-                model.add(resource, model.createProperty(SkosRDFVocabulary.RELATED.getURI().toString()), otherResource);
-            }
+        for (Concept other : concept.getBroaderConcepts()) {
+            Resource otherResource = model.createResource(getUri(other, baseUri));
+            model.add(resource, model.createProperty(SkosRDFVocabulary.BROADER.getURI().toString()), otherResource);
+        }
+        for (Concept other : concept.getNarrowerConcepts()) {
+            Resource otherResource = model.createResource(getUri(other, baseUri));
+            model.add(resource, model.createProperty(SkosRDFVocabulary.NARROWER.getURI().toString()), otherResource);
+        }
+        for (Concept other : concept.getRelatedConcepts()) {
+            Resource otherResource = model.createResource(getUri(other, baseUri));
+            model.add(resource, model.createProperty(SkosRDFVocabulary.RELATED.getURI().toString()), otherResource);
         }
-        return model;
     }
 
     private void writeProperty(Model model, Resource resource, String key, Object property, String lang) {
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.exporters.cvoc;
+
+import org.apache.jena.rdf.model.Literal;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResIterator;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.XSD;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Writes RDF to a stream as Turtle or N-Triples one block of statements
+ * at a time, so the complete graph never has to be held in memory.
+ * Neither syntax needs any document state beyond the prefixes declared
+ * at the top of a Turtle file, so the concatenated blocks form a valid
+ * document.
+ */
+final class RdfBlockWriter {
+
+    /**
+     * The supported syntaxes.
+     */
+    enum Syntax {
+        TURTLE, N_TRIPLES
+    }
+
+    private static final Pattern LOCAL_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_\\-]*");
+
+    private final Writer writer;
+    private final Map<String, String> prefixes;
+    private final Syntax syntax;
+
+    /**
+     * Constructor.
+     *
+     * @param outputStream the output stream
+     * @param prefixes     a map of prefix to namespace URI, used for Turtle
+     * @param syntax       the output syntax
+     */
+    RdfBlockWriter(OutputStream outputStream, Map<String, String> prefixes, Syntax syntax) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        this.prefixes = prefixes;
+        this.syntax = syntax;
+    }
+
+    /**
+     * Write the document header, if any.
+     */
+    void start() throws IOException {
+        if (syntax == Syntax.TURTLE) {
+            for (Map.Entry<String, String> prefix : prefixes.entrySet()) {
+                writer.write("@prefix " + prefix.getKey() + ": <" + escapeIri(prefix.getValue()) + "> .\n");
+            }
+            writer.write("\n");
+        }
+    }
+
+    /**
+     * Write the statements of a model, grouped by subject.
+     *
+     * @param block a model containing a block of statements
+     */
+    void write(Model block) throws IOException {
+        ResIterator subjects = block.listSubjects();
+        try {
+            while (subjects.hasNext()) {
+                Resource subject = subjects.next();
+                List<Statement> statements = block.listStatements(subject, null, (RDFNode) null).toList();
+                if (syntax == Syntax.TURTLE) {
+                    writer.write(node(subject));
+                    String sep = " ";
+                    for (Statement statement : statements) {
+                        writer.write(sep);
+                        writer.write(statement.getPredicate().equals(RDF.type) ? "a" : node(statement.getPredicate()));
+                        writer.write(" ");
+                        writer.write(node(statement.getObject()));
+                        sep = " ;\n    ";
+                    }
+                    writer.write(" .\n\n");
+                } else {
+                    for (Statement statement : statements) {
+                        writer.write(node(subject) + " " + node(statement.getPredicate())
+                                + " " + node(statement.getObject()) + " .\n");
+                    }
+                }
+            }
+        } finally {
+            subjects.close();
+        }
+    }
+
+    /**
+     * Flush any buffered output. The underlying stream is not closed.
+     */
+    void finish() throws IOException {
+        writer.flush();
+    }
+
+    private String node(RDFNode node) {
+        if (node.isURIResource()) {
+            return uri(node.asResource().getURI());
+        } else if (node.isAnon()) {
+            return "_:b" + node.asResource().getId().getLabelString().replaceAll("[^A-Za-z0-9]", "");
+        } else {
+            Literal literal = node.asLiteral();
+            String quoted = "\"" + escapeString(literal.getLexicalForm()) + "\"";
+            if (!literal.getLanguage().isEmpty()) {
+                return quoted + "@" + literal.getLanguage();
+            } else if (literal.getDatatypeURI() != null && !literal.getDatatypeURI().equals(XSD.xstring.getURI())) {
+                return quoted + "^^" + uri(literal.getDatatypeURI());
+            }
+            return quoted;
+        }
+    }
+
+    private String uri(String uri) {
+        if (syntax == Syntax.TURTLE) {
+            for (Map.Entry<String, String> prefix : prefixes.entrySet()) {
+                String ns = prefix.getValue();
+                if (uri.startsWith(ns) && LOCAL_NAME.matcher(uri.substring(ns.length())).matches()) {
+                    return prefix.getKey() + ":" + uri.substring(ns.length());
+                }
+            }
+        }
+        return "<" + escapeIri(uri) + ">";
+    }
+
+    private String escapeIri(String iri) {
+        StringBuilder sb = new StringBuilder(iri.length());
+        iri.codePoints().forEach(c -> {
+            if (c <= 0x20 || "<>\"{}|^`\\".indexOf(c) >= 0 || (c > 0x7e && syntax == Syntax.N_TRIPLES)) {
+                sb.append(unicodeEscape(c));
+            } else {
+                sb.appendCodePoint(c);
+            }
+        });
+        return sb.toString();
+    }
+
+    private String escapeString(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        value.codePoints().forEach(c -> {
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || (c > 0x7e && syntax == Syntax.N_TRIPLES)) {
+                        sb.append(unicodeEscape(c));
+                    } else {
+                        sb.appendCodePoint(c);
+                    }
+            }
+        });
+        return sb.toString();
+    }
+
+    private static String unicodeEscape(int c) {
+        return c <= 0xffff ? String.format("\\u%04X", c) : String.format("\\U%08X", c);
+    }
+}
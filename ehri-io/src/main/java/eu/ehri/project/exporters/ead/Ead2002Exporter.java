@@ -1,14 +1,18 @@
 package eu.ehri.project.exporters.ead;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.pipes.PipeFunction;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
+import eu.ehri.project.acl.AclManager;
 import eu.ehri.project.api.Api;
-import eu.ehri.project.api.QueryApi;
 import eu.ehri.project.definitions.*;
 import eu.ehri.project.exporters.xml.AbstractStreamingXmlExporter;
 import eu.ehri.project.models.*;
@@ -90,9 +94,11 @@ public class Ead2002Exporter extends AbstractStreamingXmlExporter<DocumentaryUni
                     ContactInfo.email);
 
     private final Api api;
+    private final Supplier<PipeFunction<Vertex, Boolean>> aclFilterFunction;
 
     public Ead2002Exporter(Api api) {
         this.api = api;
+        this.aclFilterFunction = Suppliers.memoize(() -> AclManager.getAclFilterFunction(api.accessor()));
     }
 
     @Override
@@ -385,14 +391,19 @@ public class Ead2002Exporter extends AbstractStreamingXmlExporter<DocumentaryUni
         return level != null ? ImmutableMap.of("level", level) : Collections.emptyMap();
     }
 
-    // Sort the children by identifier. FIXME: This might be a bad assumption!
+    // Children are ordered by identifier. Each child's identifier is read
+    // once, rather than on every comparison, and only one level's worth
+    // of children is held at a time.
     private Iterable<DocumentaryUnit> getOrderedChildren(DocumentaryUnit unit) {
-        return api
-                .query()
-                .orderBy(Ontology.IDENTIFIER_KEY, QueryApi.Sort.ASC)
-                .setLimit(-1)
-                .setStream(true)
-                .page(unit.getChildren(), DocumentaryUnit.class);
+        PipeFunction<Vertex, Boolean> aclFilter = aclFilterFunction.get();
+        List<Map.Entry<String, DocumentaryUnit>> children = Lists.newArrayList();
+        for (DocumentaryUnit child : unit.getChildren()) {
+            if (aclFilter.compute(child.asVertex())) {
+                children.add(Maps.immutableEntry(child.getIdentifier(), child));
+            }
+        }
+        children.sort(Map.Entry.comparingByKey(Comparator.nullsLast(Comparator.naturalOrder())));
+        return Lists.transform(children, Map.Entry::getValue);
     }
 
     private List<String> getCopyInfo(DocumentaryUnit unit, String langCode) {
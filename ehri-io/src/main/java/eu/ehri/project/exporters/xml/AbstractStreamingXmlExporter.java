@@ -43,6 +43,7 @@ public abstract class AbstractStreamingXmlExporter<E extends Entity>
             sw.writeStartDocument();
             export(sw, unit, langCode);
             sw.writeEndDocument();
+            sw.flush();
         } catch (XMLStreamException e) {
             throw new RuntimeException(e);
         }
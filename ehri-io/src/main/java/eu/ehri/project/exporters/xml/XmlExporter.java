@@ -21,7 +21,10 @@ public interface XmlExporter<T extends Entity> {
             throws IOException, TransformerException;
 
     /**
-     * Export an item as an XML document.
+     * Export an item as an XML DOM document. Since the document is
+     * built by serializing the item and parsing the result, the
+     * streaming method is preferred where the output is just written
+     * out again, such as in HTTP responses.
      *
      * @param item     the item
      * @param langCode the preferred language code when multiple
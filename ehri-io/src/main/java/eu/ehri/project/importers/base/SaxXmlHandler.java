@@ -36,6 +36,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Stack;
+import java.util.regex.Pattern;
 
 import static eu.ehri.project.definitions.Ontology.LANGUAGE_OF_DESCRIPTION;
 
@@ -59,6 +60,7 @@ import static eu.ehri.project.definitions.Ontology.LANGUAGE_OF_DESCRIPTION;
 public abstract class SaxXmlHandler extends DefaultHandler implements LexicalHandler, ContentHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(SaxXmlHandler.class);
+    private static final Pattern KEY_ESCAPE = Pattern.compile("[\\s=:]");
 
     protected Locator locator;
 
@@ -174,16 +176,20 @@ public abstract class SaxXmlHandler extends DefaultHandler implements LexicalHan
         // Store attributes that are listed in the .properties file
         for (int attr = 0; attr < attributes.getLength(); attr++) { // only certain attributes get stored
             String attributeName = withoutNamespace(attributes.getQName(attr));
-            if (properties.hasAttributeProperty(attributeName)
-                    && !properties.getAttributeProperty(attributeName).equals(LANGUAGE_OF_DESCRIPTION)) {
-
-                if (isKeyInPropertyFile(currentPath, "@" + properties.getAttributeProperty(attributeName), "")) {
-                    String path = getMappedProperty(currentPath, "@" + properties.getAttributeProperty(attributeName), "");
+            String attributeProperty = properties.getAttributeProperty(attributeName);
+            if (attributeProperty != null && !attributeProperty.equals(LANGUAGE_OF_DESCRIPTION)) {
+                String attributeKey = "@" + attributeProperty;
+                String path = properties.getPathProperty(currentPath, attributeKey);
+                if (path != null) {
                     putPropertyInCurrentGraph(path, attributes.getValue(attr));
-                } else if (isKeyInPropertyFile(currentPath, "@" + properties.getAttributeProperty(attributeName), "$" + attributes.getValue(attr))) {
-                    attribute = getMappedProperty(currentPath, "@" + properties.getAttributeProperty(attributeName), "$" + attributes.getValue(attr));
                 } else {
-                    logger.trace("attribute {} not found in properties", attributeName);
+                    String mapped = properties.getPathProperty(currentPath,
+                            attributeKey + "$" + escapeValueForKey(attributes.getValue(attr)));
+                    if (mapped != null) {
+                        attribute = mapped;
+                    } else {
+                        logger.trace("attribute {} not found in properties", attributeName);
+                    }
                 }
             }
         }
@@ -318,43 +324,19 @@ public abstract class SaxXmlHandler extends DefaultHandler implements LexicalHan
      * replacing the /
      */
     private String getMappedProperty(Stack<String> path, String attribute, String value) {
-        StringBuilder all = new StringBuilder();
-        for (int i = path.size(); i > 0; i--) {
-            all.insert(0, path.get(i - 1) + "/");
-            String key = properties.getProperty(all + attribute + escapeValueForKey(value));
-            if (key != null) {
-                return key;
-            }
+        String key = properties.getPathProperty(path, attribute + escapeValueForKey(value));
+        if (key != null) {
+            return key;
         }
-        return ImportHelpers.UNKNOWN_PREFIX + all.toString().replace("/", "_");
-    }
-
-    /**
-     * If this path has no corresponding value in the properties file, it will return false
-     * <p>
-     * did/unitid/{@literal @}ehrilabel$ehri_main_identifier=objectIdentifier
-     *
-     * @param path      did/unitid/
-     * @param attribute {@literal @}ehrilabel
-     * @param value     $ehri_main_identifier
-     * @return returns true if this path is a key in the properties file.
-     */
-    private boolean isKeyInPropertyFile(Stack<String> path, String attribute, String value) {
-        logger.trace("Checking for key in property file: {}, {}, {}", path, attribute, value);
-        StringBuilder all = new StringBuilder();
-        for (int i = path.size(); i > 0; i--) {
-            all.insert(0, path.get(i - 1) + "/");
-            String key = all + attribute + escapeValueForKey(value);
-            if (properties.getProperty(key) != null) {
-                logger.trace(" FOUND Path key: {}", key);
-                return true;
-            }
+        StringBuilder all = new StringBuilder(ImportHelpers.UNKNOWN_PREFIX);
+        for (String name : path) {
+            all.append(name).append('_');
         }
-        return false;
+        return all.toString();
     }
 
     private String escapeValueForKey(String value) {
-        return value.replaceAll("[\\s=:]", "_");
+        return value.isEmpty() ? value : KEY_ESCAPE.matcher(value).replaceAll("_");
     }
 
     /**
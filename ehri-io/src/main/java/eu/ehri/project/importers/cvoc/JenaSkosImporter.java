@@ -20,8 +20,14 @@
 package eu.ehri.project.importers.cvoc;
 
 import com.google.common.base.Splitter;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
 import com.tinkerpop.frames.FramedGraph;
 import com.typesafe.config.Config;
@@ -40,6 +46,7 @@ import eu.ehri.project.exceptions.SerializationError;
 import eu.ehri.project.exceptions.ValidationError;
 import eu.ehri.project.importers.ImportLog;
 import eu.ehri.project.importers.exceptions.ModeViolation;
+import eu.ehri.project.importers.util.AuthoritativeItemIndex;
 import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.models.Link;
 import eu.ehri.project.models.base.Accessor;
@@ -47,7 +54,6 @@ import eu.ehri.project.models.base.Actioner;
 import eu.ehri.project.models.base.Described;
 import eu.ehri.project.models.base.Linkable;
 import eu.ehri.project.models.cvoc.AuthoritativeItem;
-import eu.ehri.project.models.cvoc.AuthoritativeSet;
 import eu.ehri.project.models.cvoc.Concept;
 import eu.ehri.project.models.cvoc.Vocabulary;
 import eu.ehri.project.persistence.ActionManager;
@@ -56,16 +62,17 @@ import eu.ehri.project.persistence.BundleManager;
 import eu.ehri.project.persistence.Mutation;
 import eu.ehri.project.persistence.Serializer;
 import eu.ehri.project.utils.LanguageHelpers;
-import org.apache.jena.ontology.OntClass;
-import org.apache.jena.ontology.OntModel;
-import org.apache.jena.ontology.OntModelSpec;
-import org.apache.jena.ontology.OntResource;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.GraphBase;
+import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.util.iterator.ExtendedIterator;
-import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.util.iterator.NullIterator;
 import org.apache.jena.vocabulary.RDF;
 import org.apache.jena.vocabulary.RDFS;
 import org.apache.jena.vocabulary.SKOS;
@@ -75,10 +82,12 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -105,6 +114,8 @@ public final class JenaSkosImporter implements SkosImporter {
     private final BundleManager dao;
     private final Api api;
     private final Serializer mergeSerializer;
+    private final GraphManager manager;
+    private final AuthoritativeItemIndex itemIndex;
     private final boolean tolerant;
     private final boolean allowUpdates;
     private final String format;
@@ -112,6 +123,18 @@ public final class JenaSkosImporter implements SkosImporter {
     private final String suffix;
     private final String defaultLang;
     private static final String DEFAULT_LANG = Locale.ENGLISH.getISO3Language();
+    // The number of triples to sort in memory before spilling them to disk
+    private static final int SORT_BUFFER_SIZE = 100000;
+    // Sub-properties and inverse properties which are handled by inference
+    private static final Map<Node, Node> SUB_PROPERTIES = ImmutableMap.of(
+            SKOSXL.prefLabel.asNode(), SKOS.prefLabel.asNode(),
+            SKOSXL.altLabel.asNode(), SKOS.altLabel.asNode(),
+            SKOSXL.hiddenLabel.asNode(), SKOS.hiddenLabel.asNode());
+    private static final Map<Node, Node> INVERSE_PROPERTIES = ImmutableMap.of(
+            SKOS.broader.asNode(), SKOS.narrower.asNode(),
+            SKOS.narrower.asNode(), SKOS.broader.asNode());
+    private static final Set<Node> RELATION_PREDICATES = ImmutableSet.of(
+            SKOS.broader.asNode(), SKOS.narrower.asNode(), SKOS.related.asNode());
     private static final Bundle linkTemplate = Bundle.of(EntityClass.LINK)
             .withDataValue(Ontology.LINK_HAS_DESCRIPTION, config.getString("io.import.defaultLinkText"))
             .withDataValue(Ontology.LINK_HAS_TYPE, config.getString("io.import.defaultLinkType"));
@@ -134,6 +157,8 @@ public final class JenaSkosImporter implements SkosImporter {
         this.vocabulary = vocabulary;
         this.api = ApiFactory.noLogging(framedGraph, actioner.as(Accessor.class));
         this.mergeSerializer = new Serializer.Builder(framedGraph).dependentOnly().build();
+        this.manager = GraphManagerFactory.getInstance(framedGraph);
+        this.itemIndex = new AuthoritativeItemIndex(framedGraph);
         this.tolerant = tolerant;
         this.allowUpdates = allowUpdates;
         this.baseURI = baseURI;
@@ -254,69 +279,76 @@ public final class JenaSkosImporter implements SkosImporter {
         // Create a manifest to store the results of the import.
         ImportLog log = new ImportLog(logMsg.orElse(null));
 
-        // NB: We rely in inference here, despite a sketchy understanding of how it works ;)
-        // The RDFS.subPropertyOf lets us fetch SKOS-XL pref/alt/hidden labels using
-        // the same property name as the plain SKOS variants.
-        OntModel model = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM_RULE_INF);
-        try {
-            model.add(SKOSXL.prefLabel, RDFS.subPropertyOf, SKOS.prefLabel);
-            model.add(SKOSXL.altLabel, RDFS.subPropertyOf, SKOS.altLabel);
-            model.add(SKOSXL.hiddenLabel, RDFS.subPropertyOf, SKOS.hiddenLabel);
-            // Since we use the same graph label for narrower/broader, enabling inverse
-            // inference on the model means we get consistent behaviour when syncing
-            // these relationships, regardless of how they are defined in the RDF...
-            model.add(SKOS.broader, OWL.inverseOf, SKOS.narrower);
-
-            model.read(ios, null, format);
-            OntClass conceptClass = model.getOntClass(SkosRDFVocabulary.CONCEPT.getURI().toString());
-            logger.trace("in import file: {}", SkosRDFVocabulary.CONCEPT.getURI());
-            Map<Resource, Concept> imported = Maps.newHashMap();
-
-            ExtendedIterator<? extends OntResource> itemIterator = conceptClass.listInstances();
-            try {
-                while (itemIterator.hasNext()) {
-                    Resource item = itemIterator.next();
-
-                    try {
-                        Mutation<Concept> graphConcept = importConcept(item);
-                        imported.put(item, graphConcept.getNode());
-
-                        switch (graphConcept.getState()) {
-                            case UNCHANGED:
-                                log.addUnchanged();
-                                break;
-                            case CREATED:
-                                log.addCreated();
-                                eventContext.addSubjects(graphConcept.getNode());
-                                break;
-                            case UPDATED:
-                                if (!allowUpdates) {
-                                    throw new ModeViolation(String.format(
-                                            "Item '%s' was updated but import manager does not allow updates",
-                                            graphConcept.getNode().getId()));
-                                }
-                                log.addUpdated();
-                                eventContext.addSubjects(graphConcept.getNode());
-                                break;
-                        }
-                    } catch (ValidationError validationError) {
-                        if (tolerant) {
-                            logger.error(validationError.getMessage());
-                            log.addError(item.toString(), validationError.getMessage());
-                        } else {
-                            throw validationError;
+        try (TripleSorter triples = new TripleSorter(SORT_BUFFER_SIZE);
+             TripleSorter relations = new TripleSorter(SORT_BUFFER_SIZE)) {
+            // Stream the RDF into a subject-sorted spill, collecting only
+            // the few things we need to know about other resources.
+            TripleCollector collector = new TripleCollector(triples);
+            ModelFactory.createModelForGraph(collector).read(ios, null, format);
+            Set<Node> conceptTypes = collector.getConceptTypes();
+
+            // URI of each imported concept to its graph ID, in subject order.
+            Map<String, String> imported = Maps.newLinkedHashMap();
+
+            Iterator<List<Triple>> groups = triples.groups();
+            while (groups.hasNext()) {
+                List<Triple> group = groups.next();
+                Node subject = group.get(0).getSubject();
+                if (!isConcept(group, conceptTypes)) {
+                    continue;
+                }
+                if (!subject.isURI()) {
+                    logger.warn("Ignoring concept without a URI: {}", subject);
+                    continue;
+                }
+
+                Resource item = getResource(subject, group, collector.getLiteralForms());
+                try {
+                    Mutation<Concept> graphConcept = importConcept(item);
+                    imported.put(subject.getURI(), graphConcept.getNode().getId());
+                    for (Triple triple : group) {
+                        if (RELATION_PREDICATES.contains(triple.getPredicate()) && triple.getObject().isURI()) {
+                            relations.add(triple);
                         }
                     }
-                }
-            } finally {
-                itemIterator.close();
-            }
 
-            for (Map.Entry<Resource, Concept> pair : imported.entrySet()) {
-                hookupRelationships(pair.getKey(), pair.getValue(), imported);
+                    switch (graphConcept.getState()) {
+                        case UNCHANGED:
+                            log.addUnchanged();
+                            break;
+                        case CREATED:
+                            log.addCreated();
+                            eventContext.addSubjects(graphConcept.getNode());
+                            break;
+                        case UPDATED:
+                            if (!allowUpdates) {
+                                throw new ModeViolation(String.format(
+                                        "Item '%s' was updated but import manager does not allow updates",
+                                        graphConcept.getNode().getId()));
+                            }
+                            log.addUpdated();
+                            eventContext.addSubjects(graphConcept.getNode());
+                            break;
+                    }
+                } catch (ValidationError validationError) {
+                    if (tolerant) {
+                        logger.error(validationError.getMessage());
+                        log.addError(item.toString(), validationError.getMessage());
+                    } else {
+                        throw validationError;
+                    }
+                }
             }
 
-            for (Concept concept : imported.values()) {
+            // Now all the concepts exist, hook up their relationships.
+            PeekingIterator<List<Triple>> relationGroups = Iterators.peekingIterator(relations.groups());
+            for (Map.Entry<String, String> pair : imported.entrySet()) {
+                List<Triple> conceptRelations = relationGroups.hasNext()
+                        && pair.getKey().equals(TripleSorter.key(relationGroups.peek().get(0).getSubject()))
+                        ? relationGroups.next()
+                        : Collections.emptyList();
+                Concept concept = manager.getEntity(pair.getValue(), Concept.class);
+                hookupRelationships(concept, conceptRelations, imported);
                 vocabulary.addItem(concept);
                 concept.setPermissionScope(vocabulary);
             }
@@ -326,8 +358,100 @@ public final class JenaSkosImporter implements SkosImporter {
             }
 
             return log;
-        } finally {
-            model.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ItemNotFound e) {
+            throw new RuntimeException("Unable to find imported concept: " + e.getValue(), e);
+        }
+    }
+
+    private static boolean isConcept(List<Triple> group, Set<Node> conceptTypes) {
+        for (Triple triple : group) {
+            if (triple.getPredicate().equals(RDF.type.asNode()) && conceptTypes.contains(triple.getObject())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Build a resource for a concept from its triples, along with the
+     * literal forms of any resources, such as SKOS-XL labels, that
+     * it refers to.
+     */
+    private static Resource getResource(Node subject, List<Triple> group, Map<Node, Node> literalForms) {
+        Model model = ModelFactory.createDefaultModel();
+        Graph graph = model.getGraph();
+        for (Triple triple : group) {
+            graph.add(triple);
+            Node literal = literalForms.get(triple.getObject());
+            if (literal != null) {
+                graph.add(Triple.create(triple.getObject(), SKOSXL.literalForm.asNode(), literal));
+            }
+        }
+        return model.wrapAsResource(subject);
+    }
+
+    /**
+     * A write-only graph that receives triples from an RDF reader and
+     * passes them to a sorter, applying the inferences we rely on:
+     * SKOS-XL labels are treated as their plain SKOS equivalents and
+     * broader/narrower relations are made symmetrical. The literal forms
+     * of label resources and any subclasses of skos:Concept are kept
+     * since they are needed when importing other subjects.
+     */
+    private static final class TripleCollector extends GraphBase {
+        private final TripleSorter triples;
+        private final Map<Node, Node> literalForms = Maps.newHashMap();
+        private final Multimap<Node, Node> subClasses = HashMultimap.create();
+
+        TripleCollector(TripleSorter triples) {
+            this.triples = triples;
+        }
+
+        @Override
+        public void performAdd(Triple triple) {
+            Node predicate = triple.getPredicate();
+            Node object = triple.getObject();
+            try {
+                if (predicate.equals(SKOSXL.literalForm.asNode()) && object.isLiteral()) {
+                    literalForms.put(triple.getSubject(), object);
+                } else if (predicate.equals(RDF.value.asNode()) && object.isLiteral()) {
+                    literalForms.putIfAbsent(triple.getSubject(), object);
+                } else if (predicate.equals(RDFS.subClassOf.asNode())) {
+                    subClasses.put(object, triple.getSubject());
+                }
+
+                Node property = SUB_PROPERTIES.getOrDefault(predicate, predicate);
+                triples.add(Triple.create(triple.getSubject(), property, object));
+                Node inverse = INVERSE_PROPERTIES.get(property);
+                if (inverse != null && !object.isLiteral()) {
+                    triples.add(Triple.create(object, inverse, triple.getSubject()));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        protected ExtendedIterator<Triple> graphBaseFind(Triple triplePattern) {
+            return NullIterator.instance();
+        }
+
+        Map<Node, Node> getLiteralForms() {
+            return literalForms;
+        }
+
+        Set<Node> getConceptTypes() {
+            Set<Node> types = Sets.newHashSet();
+            List<Node> queue = Lists.newArrayList(SKOS.Concept.asNode());
+            while (!queue.isEmpty()) {
+                Node type = queue.remove(queue.size() - 1);
+                if (types.add(type)) {
+                    queue.addAll(subClasses.get(type));
+                }
+            }
+            return types;
         }
     }
 
@@ -432,15 +556,8 @@ public final class JenaSkosImporter implements SkosImporter {
             if (domains.length > 2) {
                 String cvocId = domains[domains.length - 2];
                 String conceptId = domains[domains.length - 1];
-                AuthoritativeSet referredSet;
                 try {
-                    GraphManager manager = GraphManagerFactory.getInstance(framedGraph);
-                    referredSet = manager.getEntity(cvocId, AuthoritativeSet.class);
-                    for (AuthoritativeItem authItem : referredSet.getAuthoritativeItems()) {
-                        if (authItem.getIdentifier().equals(conceptId)) {
-                            return Optional.of(authItem);
-                        }
-                    }
+                    return itemIndex.find(cvocId, conceptId);
                 } catch (ItemNotFound ex) {
                     logger.error("AuthoritativeSet with id {} not found: {}", cvocId, ex.getMessage());
                 }
@@ -458,16 +575,19 @@ public final class JenaSkosImporter implements SkosImporter {
                 .mapWith(Statement::getObject).toList();
     }
 
-    private void connectRelation(Concept current, Resource item, Map<Resource, Concept> others,
+    private void connectRelation(Concept current, List<Triple> relations, Map<String, String> others,
             URI propUri, Function<Concept, Iterable<Concept>> getter,
-            BiConsumer<Concept, Concept> addFunc, BiConsumer<Concept, Concept> dropFunc) {
+            BiConsumer<Concept, Concept> addFunc, BiConsumer<Concept, Concept> dropFunc) throws ItemNotFound {
         Set<Concept> existingRelations = Sets.newHashSet(getter.apply(current));
-        Set<Concept> newRelations = getObjectWithPredicate(item, propUri)
-                .stream()
-                .filter(RDFNode::isResource)
-                .map(n -> others.get(n.asResource()))
-                .filter(Objects::nonNull)
-                .collect(Collectors.toSet());
+        Set<Concept> newRelations = Sets.newHashSet();
+        for (Triple triple : relations) {
+            if (triple.getPredicate().hasURI(propUri.toString())) {
+                String id = others.get(triple.getObject().getURI());
+                if (id != null) {
+                    newRelations.add(manager.getEntity(id, Concept.class));
+                }
+            }
+        }
         if (!existingRelations.equals(newRelations)) {
             logger.trace("Updating relations for concept: {}: {} -> {} => {}",
                     propUri, current.getId(), existingRelations, newRelations);
@@ -479,12 +599,13 @@ public final class JenaSkosImporter implements SkosImporter {
         }
     }
 
-    private void hookupRelationships(Resource item, Concept current, Map<Resource, Concept> conceptMap) {
-        connectRelation(current, item, conceptMap, SkosRDFVocabulary.BROADER.getURI(),
+    private void hookupRelationships(Concept current, List<Triple> relations, Map<String, String> conceptMap)
+            throws ItemNotFound {
+        connectRelation(current, relations, conceptMap, SkosRDFVocabulary.BROADER.getURI(),
                 Concept::getBroaderConcepts, Concept::addBroaderConcept, Concept::removeBroaderConcept);
-        connectRelation(current, item, conceptMap, SkosRDFVocabulary.NARROWER.getURI(),
+        connectRelation(current, relations, conceptMap, SkosRDFVocabulary.NARROWER.getURI(),
                 Concept::getNarrowerConcepts, Concept::addNarrowerConcept, Concept::removeNarrowerConcept);
-        connectRelation(current, item, conceptMap, SkosRDFVocabulary.RELATED.getURI(),
+        connectRelation(current, relations, conceptMap, SkosRDFVocabulary.RELATED.getURI(),
                 Concept::getRelatedConcepts, Concept::addRelatedConcept, Concept::removeRelatedConcept);
     }
 
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.importers.cvoc;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.PeekingIterator;
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Collects a stream of RDF triples and returns them grouped by subject,
+ * without holding more than a fixed number of them in memory. When the
+ * buffer fills its contents are sorted by subject and spilled to a
+ * temporary file, and the sorted runs are merged on reading.
+ */
+final class TripleSorter implements AutoCloseable {
+
+    private static final byte URI = 0;
+    private static final byte BLANK = 1;
+    private static final byte LITERAL = 2;
+
+    private static final Comparator<Triple> bySubject = Comparator.comparing(t -> key(t.getSubject()));
+
+    private final int bufferSize;
+    private final List<Triple> buffer = Lists.newArrayList();
+    private final List<Path> runs = Lists.newArrayList();
+    private final List<Closeable> readers = Lists.newArrayList();
+
+    /**
+     * Constructor.
+     *
+     * @param bufferSize the number of triples to hold in memory
+     *                   before spilling them to disk
+     */
+    TripleSorter(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * The key by which triples are grouped and ordered.
+     *
+     * @param node a subject node
+     * @return a string key
+     */
+    static String key(Node node) {
+        return node.isBlank() ? "_:" + node.getBlankNodeLabel() : node.getURI();
+    }
+
+    /**
+     * Add a triple.
+     *
+     * @param triple a triple
+     */
+    void add(Triple triple) throws IOException {
+        buffer.add(triple);
+        if (buffer.size() >= bufferSize) {
+            spill();
+        }
+    }
+
+    /**
+     * Get the triples grouped by subject, ordered by subject key. This
+     * should only be called once, after all triples have been added.
+     *
+     * @return an iterator of triple lists with the same subject
+     */
+    Iterator<List<Triple>> groups() throws IOException {
+        final PeekingIterator<Triple> sorted;
+        if (runs.isEmpty()) {
+            buffer.sort(bySubject);
+            sorted = Iterators.peekingIterator(buffer.iterator());
+        } else {
+            if (!buffer.isEmpty()) {
+                spill();
+            }
+            sorted = Iterators.peekingIterator(merge());
+        }
+        return new AbstractIterator<List<Triple>>() {
+            @Override
+            protected List<Triple> computeNext() {
+                if (!sorted.hasNext()) {
+                    return endOfData();
+                }
+                List<Triple> group = Lists.newArrayList(sorted.next());
+                String subject = key(group.get(0).getSubject());
+                while (sorted.hasNext() && subject.equals(key(sorted.peek().getSubject()))) {
+                    group.add(sorted.next());
+                }
+                return group;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.clear();
+        for (Closeable reader : readers) {
+            reader.close();
+        }
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+    }
+
+    private void spill() throws IOException {
+        buffer.sort(bySubject);
+        Path run = Files.createTempFile("skos-triples-", ".bin");
+        runs.add(run);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(run)))) {
+            for (Triple triple : buffer) {
+                writeNode(out, triple.getSubject());
+                writeNode(out, triple.getPredicate());
+                writeNode(out, triple.getObject());
+            }
+        }
+        buffer.clear();
+    }
+
+    private Iterator<Triple> merge() throws IOException {
+        PriorityQueue<PeekingIterator<Triple>> queue = new PriorityQueue<>(runs.size(),
+                (a, b) -> bySubject.compare(a.peek(), b.peek()));
+        for (Path run : runs) {
+            PeekingIterator<Triple> it = Iterators.peekingIterator(readRun(run));
+            if (it.hasNext()) {
+                queue.add(it);
+            }
+        }
+        return new AbstractIterator<Triple>() {
+            @Override
+            protected Triple computeNext() {
+                PeekingIterator<Triple> it = queue.poll();
+                if (it == null) {
+                    return endOfData();
+                }
+                Triple next = it.next();
+                if (it.hasNext()) {
+                    queue.add(it);
+                }
+                return next;
+            }
+        };
+    }
+
+    private Iterator<Triple> readRun(Path run) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run)));
+        readers.add(in);
+        return new AbstractIterator<Triple>() {
+            @Override
+            protected Triple computeNext() {
+                try {
+                    Node subject;
+                    try {
+                        subject = readNode(in);
+                    } catch (EOFException e) {
+                        return endOfData();
+                    }
+                    return Triple.create(subject, readNode(in), readNode(in));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    private static void writeNode(DataOutputStream out, Node node) throws IOException {
+        if (node.isURI()) {
+            out.writeByte(URI);
+            writeString(out, node.getURI());
+        } else if (node.isBlank()) {
+            out.writeByte(BLANK);
+            writeString(out, node.getBlankNodeLabel());
+        } else if (node.isLiteral()) {
+            out.writeByte(LITERAL);
+            writeString(out, node.getLiteralLexicalForm());
+            writeString(out, node.getLiteralLanguage());
+            writeString(out, node.getLiteralDatatypeURI() == null ? "" : node.getLiteralDatatypeURI());
+        } else {
+            throw new IllegalArgumentException("Unexpected RDF node: " + node);
+        }
+    }
+
+    private static Node readNode(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case URI:
+                return NodeFactory.createURI(readString(in));
+            case BLANK:
+                return NodeFactory.createBlankNode(readString(in));
+            case LITERAL:
+                String lex = readString(in);
+                String lang = readString(in);
+                String datatype = readString(in);
+                return !lang.isEmpty()
+                        ? NodeFactory.createLiteral(lex, lang)
+                        : NodeFactory.createLiteral(lex, datatype.isEmpty()
+                        ? null
+                        : TypeMapper.getInstance().getSafeTypeByName(datatype));
+            default:
+                throw new IOException("Unexpected node type in triple file: " + type);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -50,6 +50,7 @@ import org.slf4j.LoggerFactory;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Stack;
 import java.util.function.BiPredicate;
 
@@ -110,9 +111,13 @@ public class EadImporter extends AbstractImporter<Map<String, Object>, AbstractU
                     Messages.getString("BundleValidator.missingField"));
         }
 
+        // Serialize the existing item, if any, once, and use the same snapshot
+        // to merge descriptions, diff the item and resolve links.
+        Bundle unitWithIds = generateIds(unit, idPath);
+        Optional<Bundle> previous = getPrevious(unitWithIds);
+        Bundle merged = mergeWithPrevious(unit, unitWithIds, description, previous);
         Mutation<DocumentaryUnit> mutation =
-                persister.createOrUpdate(mergeWithPreviousAndSave(unit,
-                        description, idPath), DocumentaryUnit.class);
+                persister.createOrUpdate(merged, previous.orElse(null), DocumentaryUnit.class);
         logger.debug("Imported item: {}", itemData.get("name"));
         DocumentaryUnit frame = mutation.getNode();
 
@@ -133,7 +138,7 @@ public class EadImporter extends AbstractImporter<Map<String, Object>, AbstractU
         }
 
         handleCallbacks(mutation);
-        linkResolver.solveUndeterminedRelationships(frame);
+        linkResolver.solveUndeterminedRelationships(frame, merged);
 
         return frame;
     }
@@ -203,9 +208,11 @@ public class EadImporter extends AbstractImporter<Map<String, Object>, AbstractU
      * @return A bundle with description relationships merged.
      */
     protected Bundle mergeWithPreviousAndSave(Bundle unit, Bundle descBundle, List<String> idPath) throws ValidationError {
-        final String languageOfDesc = descBundle.getDataValue(Ontology.LANGUAGE_OF_DESCRIPTION);
-        final String thisSourceFileId = descBundle.getDataValue(Ontology.SOURCEFILE_KEY);
+        Bundle unitWithIds = generateIds(unit, idPath);
+        return mergeWithPrevious(unit, unitWithIds, descBundle, getPrevious(unitWithIds));
+    }
 
+    private Bundle generateIds(Bundle unit, List<String> idPath) throws ValidationError {
         // Ensure none of the parent items (not yet saved) have an invalid
         // missing identifier
         if (idPath.contains(null)) {
@@ -221,32 +228,50 @@ public class EadImporter extends AbstractImporter<Map<String, Object>, AbstractU
 
         Bundle unitWithIds = unit.generateIds(itemIdPath);
         logger.debug("merging: docUnit's graph id = {}", unitWithIds.getId());
-        // If the bundle exists, we merge
+        return unitWithIds;
+    }
+
+    /**
+     * Read the current bundle of an existing item, with its dependent
+     * subtree.
+     *
+     * @param unitWithIds the unit bundle, with IDs generated
+     * @return the current bundle, or nothing if the item does not exist
+     */
+    private Optional<Bundle> getPrevious(Bundle unitWithIds) {
         if (manager.exists(unitWithIds.getId())) {
             try {
-                // read the current item’s bundle
-                Bundle oldBundle = mergeSerializer
-                        .vertexToBundle(manager.getVertex(unitWithIds.getId()));
-
-                // filter out dependents that a) are descriptions, b) have the same language/code,
-                // and c) have the same source file ID
-                BiPredicate<String, Bundle> filter = (relationLabel, bundle) -> {
-                    String lang = bundle.getDataValue(Ontology.LANGUAGE);
-                    String oldSourceFileId = bundle.getDataValue(Ontology.SOURCEFILE_KEY);
-                    return relationLabel.equals(Ontology.DESCRIPTION_FOR_ENTITY)
-                            && bundle.getType().equals(EntityClass.DOCUMENTARY_UNIT_DESCRIPTION)
-                            && (lang != null && lang.equals(languageOfDesc))
-                            && (oldSourceFileId != null && oldSourceFileId.equals(thisSourceFileId));
-                };
-                Bundle filtered = oldBundle.filterRelations(filter);
-
-                return unitWithIds.withRelations(filtered.getRelations())
-                        .withRelation(Ontology.DESCRIPTION_FOR_ENTITY, descBundle);
+                return Optional.of(mergeSerializer
+                        .vertexToBundle(manager.getVertex(unitWithIds.getId())));
             } catch (SerializationError ex) {
                 throw new RuntimeException("Unexpected error reading existing item: " + unitWithIds.getId(), ex);
             } catch (ItemNotFound ex) {
                 throw new RuntimeException("Failed to find existing item with key: " + unitWithIds.getId(), ex);
             }
+        }
+        return Optional.empty();
+    }
+
+    private Bundle mergeWithPrevious(Bundle unit, Bundle unitWithIds, Bundle descBundle, Optional<Bundle> previous) {
+        final String languageOfDesc = descBundle.getDataValue(Ontology.LANGUAGE_OF_DESCRIPTION);
+        final String thisSourceFileId = descBundle.getDataValue(Ontology.SOURCEFILE_KEY);
+
+        // If the bundle exists, we merge
+        if (previous.isPresent()) {
+            // filter out dependents that a) are descriptions, b) have the same language/code,
+            // and c) have the same source file ID
+            BiPredicate<String, Bundle> filter = (relationLabel, bundle) -> {
+                String lang = bundle.getDataValue(Ontology.LANGUAGE);
+                String oldSourceFileId = bundle.getDataValue(Ontology.SOURCEFILE_KEY);
+                return relationLabel.equals(Ontology.DESCRIPTION_FOR_ENTITY)
+                        && bundle.getType().equals(EntityClass.DOCUMENTARY_UNIT_DESCRIPTION)
+                        && (lang != null && lang.equals(languageOfDesc))
+                        && (oldSourceFileId != null && oldSourceFileId.equals(thisSourceFileId));
+            };
+            Bundle filtered = previous.get().filterRelations(filter);
+
+            return unitWithIds.withRelations(filtered.getRelations())
+                    .withRelation(Ontology.DESCRIPTION_FOR_ENTITY, descBundle);
         } else { // else we create a new bundle.
             return unit.withRelation(Ontology.DESCRIPTION_FOR_ENTITY, descBundle);
         }
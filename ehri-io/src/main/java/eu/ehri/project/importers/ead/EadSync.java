@@ -1,11 +1,10 @@
 package eu.ehri.project.importers.ead;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
-import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.tinkerpop.frames.FramedGraph;
 import eu.ehri.project.api.Api;
@@ -30,13 +29,17 @@ import eu.ehri.project.models.base.PermissionScope;
 import eu.ehri.project.persistence.ActionManager;
 import eu.ehri.project.persistence.Bundle;
 import eu.ehri.project.persistence.Serializer;
+import eu.ehri.project.utils.CheckpointDir;
 import org.neo4j.helpers.collection.Iterables;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.function.BiFunction;
+import java.util.stream.Collectors;
 
 
 /**
@@ -45,6 +48,27 @@ import java.util.function.BiFunction;
 public class EadSync {
 
     private static final Logger logger = LoggerFactory.getLogger(EadSync.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // The number of identifier pairs held in memory before they are sorted
+    // and spilled to disk.
+    private static final int BUFFER_SIZE = 100_000;
+
+    private static final String BEFORE_BY_LOCAL = "before-by-local.bin";
+    private static final String BEFORE_BY_GRAPH = "before-by-graph.bin";
+    private static final String INGESTED_BY_GRAPH = "ingested-by-graph.bin";
+    private static final String AFTER_BY_LOCAL = "after-by-local.bin";
+    private static final String IMPORT_LOG = "import-log.json";
+    private static final String SYNC_LOG = "sync-log.json";
+    private static final List<String> STATE_FILES = Lists.newArrayList(BEFORE_BY_LOCAL,
+            BEFORE_BY_GRAPH, INGESTED_BY_GRAPH, AFTER_BY_LOCAL, IMPORT_LOG, SYNC_LOG);
+
+    /**
+     * The phases of a sync, in the order in which they run.
+     */
+    private enum Phase {
+        SNAPSHOT, INGEST, SCAN, TRANSFER, DELETE
+    }
 
     private final FramedGraph<?> graph;
     private final Api api;
@@ -53,13 +77,17 @@ public class EadSync {
     private final SaxImportManager importManager;
     private final GraphManager manager;
     private final Serializer depSerializer;
+    private final Path checkpointDir;
+    private final Runnable commit;
 
-    public EadSync(
+    private EadSync(
             FramedGraph<?> graph,
             Api api,
             PermissionScope scope,
             Actioner actioner,
-            SaxImportManager importManager) {
+            SaxImportManager importManager,
+            Path checkpointDir,
+            Runnable commit) {
         this.graph = graph;
         this.api = api;
         this.scope = scope;
@@ -67,6 +95,32 @@ public class EadSync {
         this.importManager = importManager;
         this.manager = GraphManagerFactory.getInstance(graph);
         this.depSerializer = api.serializer().withDependentOnly(true);
+        this.checkpointDir = checkpointDir;
+        this.commit = commit;
+    }
+
+    public EadSync(
+            FramedGraph<?> graph,
+            Api api,
+            PermissionScope scope,
+            Actioner actioner,
+            SaxImportManager importManager) {
+        this(graph, api, scope, actioner, importManager, null, null);
+    }
+
+    /**
+     * Keep the working state of the sync in the given directory and
+     * record a checkpoint after each phase, so that a failed sync can be
+     * resumed. See {@link CheckpointDir} for how the directory and
+     * callback are used.
+     *
+     * @param dir    a directory for the sync state
+     * @param commit a callback that commits the current transaction
+     * @return a new sync instance
+     */
+    public EadSync withCheckpoints(Path dir, Runnable commit) {
+        return new EadSync(graph, api, scope, actioner, importManager,
+                Preconditions.checkNotNull(dir), Preconditions.checkNotNull(commit));
     }
 
     /**
@@ -99,6 +153,12 @@ public class EadSync {
      * For sync to work correctly the local (scoped) item identifiers
      * <strong>must</strong> be unique in the scope in which sync is
      * taking place.
+     * <p>
+     * The sets of identifiers in the scope before and after the ingest
+     * are written to sorted files rather than held in memory, and moved,
+     * created and deleted items are found by merging them. If checkpoints
+     * are enabled (see {@link #withCheckpoints(Path, Runnable)}) running
+     * the sync again after a failure continues from the last completed phase.
      *
      * @param op         the ingest operation
      * @param logMessage a log message that will be attached to the delete event
@@ -107,63 +167,185 @@ public class EadSync {
      */
     public SyncLog sync(EadIngestOperation op, Set<String> excludes, String logMessage)
             throws ValidationError, DeserializationError, IOException, EadSyncError {
-
-        // Get a mapping of graph ID to local ID within the scope,
-        // Pre-sync, ALL of the local IDs must be unique (and
-        // the BiMap will error if they aren't.)
-        BiMap<String, String> oldGraphToLocal = HashBiMap.create();
-        try {
-            for (DocumentaryUnit unit : itemsInScope(scope)) {
-                oldGraphToLocal.put(unit.getId(), unit.getIdentifier());
-            }
-        } catch (IllegalArgumentException e) {
-            throw new EadSyncError("Local identifiers are not unique", e);
+        try (CheckpointDir dir = checkpointDir != null
+                ? CheckpointDir.open(checkpointDir, commit, STATE_FILES)
+                : CheckpointDir.temporary("ead-sync-", STATE_FILES)) {
+            SyncLog syncLog = sync(dir, op, excludes, logMessage);
+            dir.complete();
+            return syncLog;
         }
+    }
 
-        // Remove anything specifically excluded. This would typically
-        // be items in the scope that are not being synced in this operation.
-        excludes.forEach(oldGraphToLocal::remove);
+    private SyncLog sync(CheckpointDir dir, EadIngestOperation op, Set<String> excludes, String logMessage)
+            throws ValidationError, DeserializationError, IOException, EadSyncError {
+        Optional<Phase> done = readCheckpoint(dir);
+        done.ifPresent(phase -> logger.info("Resuming sync of {} after phase: {}", scope.getId(), phase));
+
+        Path beforeByLocal = dir.resolve(BEFORE_BY_LOCAL);
+        Path beforeByGraph = dir.resolve(BEFORE_BY_GRAPH);
+        Path ingestedByGraph = dir.resolve(INGESTED_BY_GRAPH);
+        Path afterByLocal = dir.resolve(AFTER_BY_LOCAL);
+
+        // Record the local and graph IDs within the scope, prior to the ingest.
+        if (isPending(done, Phase.SNAPSHOT)) {
+            snapshot(beforeByLocal, beforeByGraph, excludes);
+            checkpoint(dir, Phase.SNAPSHOT);
+        }
 
-        logger.debug("Items in scope prior to sync: {}", oldGraphToLocal.size());
+        // Run the ingest, recording the IDs of the items it touches.
+        ImportLog log;
+        if (isPending(done, Phase.INGEST)) {
+            log = ingest(op, ingestedByGraph);
+            mapper.writeValue(dir.resolve(IMPORT_LOG).toFile(), log);
+            checkpoint(dir, Phase.INGEST);
+        } else {
+            log = mapper.readValue(dir.resolve(IMPORT_LOG).toFile(), ImportLog.class);
+        }
 
-        // Keep a mapping of new graph to local IDs in the ingest operation
-        BiMap<String, String> newGraphToLocal = HashBiMap.create();
+        // Find moved, created and deleted items.
+        SyncLog syncLog;
+        if (isPending(done, Phase.SCAN)) {
+            syncLog = diff(log, beforeByLocal, beforeByGraph, ingestedByGraph, afterByLocal, excludes);
+            mapper.writeValue(dir.resolve(SYNC_LOG).toFile(), syncLog);
+            checkpoint(dir, Phase.SCAN);
+        } else {
+            syncLog = mapper.readValue(dir.resolve(SYNC_LOG).toFile(), SyncLog.class);
+        }
 
-        // Add a callback to the import manager so we can collect the
-        // IDs of new items and run the ingest operation.
-        ImportManager manager = importManager.withCallback(m -> {
-            DocumentaryUnit doc = m.getNode().as(DocumentaryUnit.class);
-            newGraphToLocal.put(doc.getId(), doc.getIdentifier());
-        });
-        // Actually run the ingest...
-        ImportLog log = op.runIngest(manager);
+        // Transfer access control, user-generated annotations and links between moved items...
+        if (isPending(done, Phase.TRANSFER)) {
+            transferMetadata(syncLog.moved(), logMessage);
+            checkpoint(dir, Phase.TRANSFER);
+        }
 
-        // Find moved items... this gets us a map of old graph ID to new graph ID
-        BiMap<String, String> movedGraphIds = findMovedItems(scope, oldGraphToLocal);
+        // Delete items that have been deleted or moved...
+        if (isPending(done, Phase.DELETE)) {
+            deleteDeadOrMoved(Sets.union(syncLog.deleted(), syncLog.moved().keySet()), logMessage);
+            checkpoint(dir, Phase.DELETE);
+        }
 
-        // All-new items are those in the new set but not the old set.
-        Set<String> allNewGraphIds = Sets.difference(newGraphToLocal.keySet(), oldGraphToLocal.keySet());
+        logger.debug("Created items: {}, Deleted items: {}, Moved items: {}",
+                syncLog.created().size(), syncLog.deleted().size(), syncLog.moved().size());
 
-        // Items to be deleted are in the old set but not in the new set.
-        Set<String> allDeletedGraphIds = Sets.difference(oldGraphToLocal.keySet(), newGraphToLocal.keySet());
+        return syncLog;
+    }
 
-        // These are just the created or deleted items, minus those that have moved.
-        Set<String> createdIds = Sets.difference(allNewGraphIds, movedGraphIds.values());
-        Set<String> deletedIds = Sets.difference(allDeletedGraphIds, movedGraphIds.keySet());
+    private void snapshot(Path beforeByLocal, Path beforeByGraph, Set<String> excludes)
+            throws IOException, EadSyncError {
+        int count = 0;
+        try (IdPairSorter byLocal = new IdPairSorter(beforeByLocal, BUFFER_SIZE);
+             IdPairSorter byGraph = new IdPairSorter(beforeByGraph, BUFFER_SIZE)) {
+            for (DocumentaryUnit unit : itemsInScope(scope)) {
+                byLocal.add(unit.getIdentifier(), unit.getId());
+                // Leave out anything specifically excluded. This would typically
+                // be items in the scope that are not being synced in this operation.
+                if (!excludes.contains(unit.getId())) {
+                    byGraph.add(unit.getId(), unit.getIdentifier());
+                    count++;
+                }
+            }
+            byLocal.finish();
+            byGraph.finish();
+        }
 
-        // Transfer access control, user-generated annotations and links between moved items...
-        transferMetadata(movedGraphIds, logMessage);
+        // Pre-sync, ALL of the local IDs must be unique.
+        try (IdPairSorter.Reader reader = IdPairSorter.read(beforeByLocal)) {
+            String last = null;
+            while (reader.hasNext()) {
+                String localId = reader.next().getKey();
+                if (localId.equals(last)) {
+                    throw new EadSyncError("Local identifiers are not unique: " + localId);
+                }
+                last = localId;
+            }
+        }
 
-        // Delete items that have been deleted or moved...
-        deleteDeadOrMoved(allDeletedGraphIds, logMessage);
+        logger.debug("Items in scope prior to sync: {}", count);
+    }
 
-        logger.debug("Created items: {}, Deleted items: {}, Moved items: {}",
-                createdIds.size(), deletedIds.size(), movedGraphIds.size());
+    private ImportLog ingest(EadIngestOperation op, Path ingestedByGraph)
+            throws ValidationError, DeserializationError, IOException {
+        try (IdPairSorter ingested = new IdPairSorter(ingestedByGraph, BUFFER_SIZE)) {
+            // Add a callback to the import manager so we can collect the
+            // IDs of new items and run the ingest operation.
+            ImportManager manager = importManager.withCallback(m -> {
+                DocumentaryUnit doc = m.getNode().as(DocumentaryUnit.class);
+                try {
+                    ingested.add(doc.getId(), doc.getIdentifier());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            // Actually run the ingest...
+            ImportLog log = op.runIngest(manager);
+            ingested.finish();
+            return log;
+        }
+    }
 
+    private SyncLog diff(ImportLog log, Path beforeByLocal, Path beforeByGraph, Path ingestedByGraph,
+            Path afterByLocal, Set<String> excludes) throws IOException, EadSyncError {
+        // Find moved items... this gets us a map of old graph ID to new graph ID
+        BiMap<String, String> movedGraphIds = findMovedItems(beforeByLocal, afterByLocal, excludes);
+
+        // All-new items are those in the new set but not the old set, and
+        // items to be deleted are in the old set but not in the new set. The
+        // created and deleted sets leave out those that have moved.
+        Set<String> createdIds = Sets.newHashSet();
+        Set<String> deletedIds = Sets.newHashSet();
+        try (IdPairSorter.Reader before = IdPairSorter.read(beforeByGraph);
+             IdPairSorter.Reader ingested = IdPairSorter.read(ingestedByGraph)) {
+            while (before.hasNext() || ingested.hasNext()) {
+                int cmp = !before.hasNext() ? 1 : !ingested.hasNext() ? -1
+                        : before.peek().getKey().compareTo(ingested.peek().getKey());
+                if (cmp < 0) {
+                    String id = skip(before);
+                    if (!movedGraphIds.containsKey(id)) {
+                        deletedIds.add(id);
+                    }
+                } else if (cmp > 0) {
+                    String id = skip(ingested);
+                    if (!movedGraphIds.containsValue(id)) {
+                        createdIds.add(id);
+                    }
+                } else {
+                    skip(before);
+                    skip(ingested);
+                }
+            }
+        }
         return new SyncLog(log, createdIds, deletedIds, movedGraphIds);
     }
 
-    private void transferMetadata(BiMap<String, String> movedGraphIds, String logMessage) {
+    private static String skip(IdPairSorter.Reader reader) {
+        String key = reader.next().getKey();
+        while (reader.hasNext() && reader.peek().getKey().equals(key)) {
+            reader.next();
+        }
+        return key;
+    }
+
+    private static boolean isPending(Optional<Phase> done, Phase phase) {
+        return !done.isPresent() || done.get().compareTo(phase) < 0;
+    }
+
+    private void checkpoint(CheckpointDir dir, Phase phase) throws IOException {
+        dir.write(scope.getId(), phase.name());
+    }
+
+    private Optional<Phase> readCheckpoint(CheckpointDir dir) throws IOException, EadSyncError {
+        Optional<List<String>> values = dir.read();
+        if (!values.isPresent()) {
+            return Optional.empty();
+        }
+        List<String> lines = values.get();
+        if (lines.size() != 2 || !scope.getId().equals(lines.get(0))) {
+            throw new EadSyncError("Checkpoint in " + checkpointDir + " does not belong to a sync of " + scope.getId());
+        }
+        return Optional.of(Phase.valueOf(lines.get(1)));
+    }
+
+    private void transferMetadata(Map<String, String> movedGraphIds, String logMessage) {
         if (!movedGraphIds.isEmpty()) {
             try {
                 int modified = 0;
@@ -256,64 +438,79 @@ public class EadSync {
     }
 
     private void deleteDeadOrMoved(Set<String> toDeleteGraphIds, String logMessage) throws ValidationError {
-        if (!toDeleteGraphIds.isEmpty()) {
+        // If a previous run was interrupted after the deletion was
+        // committed some items may no longer exist.
+        List<String> existing = toDeleteGraphIds.stream()
+                .filter(manager::exists).collect(Collectors.toList());
+        if (!existing.isEmpty()) {
             try {
                 Api api = this.api.enableLogging(false);
                 ActionManager actionManager = api.actionManager().setScope(scope);
                 ActionManager.EventContext ctx = actionManager
                         .newEventContext(actioner, EventTypes.deletion, Optional.ofNullable(logMessage));
-                for (String id : toDeleteGraphIds) {
+                for (String id : existing) {
                     DocumentaryUnit item = api.detail(id, DocumentaryUnit.class);
                     ctx.addSubjects(item);
                     ctx.createVersion(item);
                 }
                 ctx.commit();
-                for (String id : toDeleteGraphIds) {
+                for (String id : existing) {
                     api.delete(id);
                 }
-                logger.debug("Finished deleting {} items...", toDeleteGraphIds.size());
+                logger.debug("Finished deleting {} items...", existing.size());
             } catch (ItemNotFound | SerializationError | PermissionDenied e) {
                 throw new RuntimeException("Unexpected error when deleting item", e);
             }
         }
     }
 
-    private BiMap<String, String> findMovedItems(PermissionScope scope, Map<String, String> lookup)
-            throws EadSyncError {
+    private BiMap<String, String> findMovedItems(Path beforeByLocal, Path afterByLocal, Set<String> excludes)
+            throws IOException, EadSyncError {
         BiMap<String, String> moved = HashBiMap.create();
 
         logger.debug("Starting moved item scan...");
         long start = System.nanoTime();
-        // NB: This method of finding moved items uses a lot of memory for big
-        // repositories, but is dramatically faster than the alternative, which
-        // is for every item to loop over every _other_ item and check if it has the
-        // same local ID and a different graph one. This becomes impractically slow
-        // with many thousands of items.
-        // Here we use a multimap and look for items where one local ID maps to
-        // two graph IDs.
-        Multimap<String, String> localToGraph = LinkedHashMultimap.create();
-        for (DocumentaryUnit unit : itemsInScope(scope)) {
-            localToGraph.put(unit.getIdentifier(), unit.getId());
+        try (IdPairSorter byLocal = new IdPairSorter(afterByLocal, BUFFER_SIZE)) {
+            for (DocumentaryUnit unit : itemsInScope(scope)) {
+                byLocal.add(unit.getIdentifier(), unit.getId());
+            }
+            byLocal.finish();
         }
 
-        localToGraph.asMap().forEach((localId, graphIds) -> {
-            List<String> ids = Lists.newArrayList(graphIds);
-            if (ids.size() > 1) {
-                Preconditions.checkState(ids.size() == 2,
-                        "Unexpected situation in EAD sync. Item " + localId +
-                                " cannot be unique since after sync ingest there are it exists in more than two places: " + ids);
-                String first = ids.get(0);
-                String second = ids.get(1);
-                if (lookup.containsKey(first)) {
-                    moved.put(first, second);
-                } else if (lookup.containsKey(second)) {
-                    moved.put(second, first);
-                } else {
-                    throw new RuntimeException(
-                            "Unexpected situation: 'moved' item not found in before-set... " + localId);
+        // Both files are sorted by local ID, so a single pass over each finds
+        // the items where one local ID maps to two graph IDs after the ingest,
+        // and which of the two was in the before-set.
+        try (IdPairSorter.Reader before = IdPairSorter.read(beforeByLocal);
+             IdPairSorter.Reader after = IdPairSorter.read(afterByLocal)) {
+            while (after.hasNext()) {
+                String localId = after.peek().getKey();
+                List<String> ids = Lists.newArrayList();
+                while (after.hasNext() && after.peek().getKey().equals(localId)) {
+                    ids.add(after.next().getValue());
+                }
+                if (ids.size() > 1) {
+                    Preconditions.checkState(ids.size() == 2,
+                            "Unexpected situation in EAD sync. Item " + localId +
+                                    " cannot be unique since after sync ingest there are it exists in more than two places: " + ids);
+                    while (before.hasNext() && before.peek().getKey().compareTo(localId) < 0) {
+                        before.next();
+                    }
+                    String previous = before.hasNext() && before.peek().getKey().equals(localId)
+                            ? before.next().getValue()
+                            : null;
+                    String first = ids.get(0);
+                    String second = ids.get(1);
+                    if (previous != null && !excludes.contains(previous) && previous.equals(first)) {
+                        moved.put(first, second);
+                    } else if (previous != null && !excludes.contains(previous) && previous.equals(second)) {
+                        moved.put(second, first);
+                    } else {
+                        throw new RuntimeException(
+                                "Unexpected situation: 'moved' item not found in before-set... " + localId);
+                    }
                 }
             }
-        });
+        }
         long end = System.nanoTime();
         logger.debug("Completed moved item scan in {} milli secs", (end - start) / 1_000_000);
 
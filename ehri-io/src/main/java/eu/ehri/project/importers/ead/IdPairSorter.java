@@ -0,0 +1,205 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.importers.ead;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.PeekingIterator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Writes a file of key/value identifier pairs sorted by key and then
+ * value, without holding more than a fixed number of them in memory.
+ * When the buffer fills its contents are sorted and spilled to a
+ * temporary run, and the runs are merged into the target file when
+ * the sorter is finished. Duplicate pairs are written only once.
+ */
+final class IdPairSorter implements AutoCloseable {
+
+    private static final Comparator<Map.Entry<String, String>> byKeyAndValue =
+            Comparator.<Map.Entry<String, String>, String>comparing(Map.Entry::getKey)
+                    .thenComparing(Map.Entry::getValue);
+
+    private final Path target;
+    private final int bufferSize;
+    private final List<Map.Entry<String, String>> buffer = Lists.newArrayList();
+    private final List<Path> runs = Lists.newArrayList();
+
+    /**
+     * Constructor.
+     *
+     * @param target     the path of the sorted file
+     * @param bufferSize the number of pairs to hold in memory
+     *                   before spilling them to disk
+     */
+    IdPairSorter(Path target, int bufferSize) {
+        this.target = target;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Add a pair.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    void add(String key, String value) throws IOException {
+        buffer.add(Maps.immutableEntry(key, value));
+        if (buffer.size() >= bufferSize) {
+            runs.add(spill(Files.createTempFile(target.toAbsolutePath().getParent(), "run-", ".bin")));
+        }
+    }
+
+    /**
+     * Write the sorted pairs to the target file. This should only be
+     * called once, after all pairs have been added.
+     *
+     * @return the target path
+     */
+    Path finish() throws IOException {
+        if (runs.isEmpty()) {
+            return spill(target);
+        }
+        if (!buffer.isEmpty()) {
+            runs.add(spill(Files.createTempFile(target.toAbsolutePath().getParent(), "run-", ".bin")));
+        }
+        List<Reader> readers = Lists.newArrayList();
+        try {
+            PriorityQueue<Reader> queue = new PriorityQueue<>(runs.size(),
+                    (a, b) -> byKeyAndValue.compare(a.peek(), b.peek()));
+            for (Path run : runs) {
+                Reader reader = read(run);
+                readers.add(reader);
+                if (reader.hasNext()) {
+                    queue.add(reader);
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(target)))) {
+                Map.Entry<String, String> last = null;
+                while (!queue.isEmpty()) {
+                    Reader reader = queue.poll();
+                    Map.Entry<String, String> next = reader.next();
+                    if (reader.hasNext()) {
+                        queue.add(reader);
+                    }
+                    if (!next.equals(last)) {
+                        write(out, next);
+                        last = next;
+                    }
+                }
+            }
+        } finally {
+            for (Reader reader : readers) {
+                reader.close();
+            }
+            close();
+        }
+        return target;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.clear();
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+    }
+
+    /**
+     * Read the pairs from a file written by a sorter.
+     *
+     * @param file a sorted pair file
+     * @return a closeable iterator of key/value pairs
+     */
+    static Reader read(Path file) throws IOException {
+        return new Reader(new DataInputStream(new BufferedInputStream(Files.newInputStream(file))));
+    }
+
+    /**
+     * An iterator over the pairs in a sorted file.
+     */
+    static final class Reader extends AbstractIterator<Map.Entry<String, String>>
+            implements PeekingIterator<Map.Entry<String, String>>, Closeable {
+        private final DataInputStream in;
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        protected Map.Entry<String, String> computeNext() {
+            try {
+                String key;
+                try {
+                    key = in.readUTF();
+                } catch (EOFException e) {
+                    return endOfData();
+                }
+                return Maps.immutableEntry(key, in.readUTF());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private Path spill(Path file) throws IOException {
+        buffer.sort(byKeyAndValue);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file)))) {
+            Map.Entry<String, String> last = null;
+            for (Map.Entry<String, String> next : buffer) {
+                if (!next.equals(last)) {
+                    write(out, next);
+                    last = next;
+                }
+            }
+        }
+        buffer.clear();
+        return file;
+    }
+
+    private static void write(DataOutputStream out, Map.Entry<String, String> pair) throws IOException {
+        out.writeUTF(pair.getKey());
+        out.writeUTF(pair.getValue());
+    }
+}
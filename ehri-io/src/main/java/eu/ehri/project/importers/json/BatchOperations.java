@@ -1,6 +1,7 @@
 package eu.ehri.project.importers.json;
 
 import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.frames.FramedGraph;
@@ -37,6 +38,7 @@ import java.util.Optional;
  */
 public class BatchOperations {
     private static final Logger logger = LoggerFactory.getLogger(BatchOperations.class);
+    private static final int LOOKUP_WINDOW_SIZE = 1000;
     private final FramedGraph<?> graph;
     private final ActionManager actionManager;
     private final BundleManager dao;
@@ -140,36 +142,47 @@ public class BatchOperations {
                 EventTypes.modification, logMessage);
         ImportLog log = new ImportLog(logMessage.orElse(null));
         try (CloseableIterable<Bundle> bundleIter = Bundle.bundleStream(inputStream)) {
-            for (Bundle bundle : bundleIter) {
-                try {
-                    Mutation<Accessible> mutation = dao.createOrUpdate(bundle, Accessible.class);
-                    switch (mutation.getState()) {
-                        case UPDATED:
-                            log.addUpdated();
-                            ctx.addSubjects(mutation.getNode());
-                            if (version) {
-                                mutation.getPrior().ifPresent(b ->
-                                        ctx.createVersion(mutation.getNode(), b));
+            // Resolve existence checks for each window of bundles
+            // in bulk, rather than one index lookup per item.
+            try {
+                for (List<Bundle> window : Iterables.partition(bundleIter, LOOKUP_WINDOW_SIZE)) {
+                    dao.prefetch(window);
+                    for (Bundle bundle : window) {
+                        try {
+                            Mutation<Accessible> mutation = dao.createOrUpdate(bundle, Accessible.class);
+                            switch (mutation.getState()) {
+                                case UPDATED:
+                                    log.addUpdated();
+                                    ctx.addSubjects(mutation.getNode());
+                                    if (version) {
+                                        mutation.getPrior().ifPresent(b ->
+                                                ctx.createVersion(mutation.getNode(), b));
+                                    }
+                                    break;
+                                case CREATED:
+                                    log.addCreated();
+                                    ctx.addSubjects(mutation.getNode());
+                                    break;
+                                default:
+                                    log.addUnchanged();
                             }
-                            break;
-                        case CREATED:
-                            log.addCreated();
-                            ctx.addSubjects(mutation.getNode());
-                            break;
-                        default:
-                            log.addUnchanged();
-                    }
-                    for (ImportCallback callback : callbacks) {
-                        callback.itemImported(mutation);
-                    }
-                } catch (ValidationError e) {
-                    if (!tolerant) {
-                        throw e;
-                    } else {
-                        log.addError(bundle.getId(), e.getMessage());
-                        logger.warn("Validation error patching {}: {}", bundle.getId(), e);
+                            for (ImportCallback callback : callbacks) {
+                                callback.itemImported(mutation);
+                            }
+                        } catch (ValidationError e) {
+                            if (!tolerant) {
+                                throw e;
+                            } else {
+                                log.addError(bundle.getId(), e.getMessage());
+                                logger.warn("Validation error patching {}: {}", bundle.getId(), e);
+                            }
+                        }
                     }
                 }
+            } finally {
+                // The graph may change after the batch without the
+                // cache hearing about it.
+                dao.clearPrefetched();
             }
             if (log.hasDoneWork()) {
                 ctx.commit();
@@ -17,6 +17,7 @@ import eu.ehri.project.exceptions.DeserializationError;
 import eu.ehri.project.exceptions.PermissionDenied;
 import eu.ehri.project.exceptions.SerializationError;
 import eu.ehri.project.exceptions.ValidationError;
+import eu.ehri.project.importers.util.AuthoritativeItemIndex;
 import eu.ehri.project.models.AccessPoint;
 import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.models.Link;
@@ -31,7 +32,6 @@ import eu.ehri.project.persistence.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
@@ -41,6 +41,7 @@ public class LinkResolver {
     private final GraphManager manager;
     private final Api api;
     private final Serializer mergeSerializer;
+    private final AuthoritativeItemIndex itemIndex;
 
     private static final Logger logger = LoggerFactory.getLogger(LinkResolver.class);
     private static final Config config = ConfigFactory.load();
@@ -63,9 +64,28 @@ public class LinkResolver {
         api = ApiFactory.noLogging(graph, accessor);
         manager = GraphManagerFactory.getInstance(graph);
         mergeSerializer = new Serializer.Builder(graph).dependentOnly().build();
+        itemIndex = new AuthoritativeItemIndex(graph);
     }
 
 
+    /**
+     * Resolve links for an item using the bundle it was just saved from
+     * to determine whether any of its access points are resolvable, so
+     * that items without link references do not need their descriptions
+     * and access points re-read from the graph.
+     *
+     * @param unit   the item
+     * @param bundle the bundle the item was saved from
+     * @return the number of links created
+     */
+    public int solveUndeterminedRelationships(Described unit, Bundle bundle) throws ValidationError {
+        boolean resolvable = bundle.getRelations(Ontology.DESCRIPTION_FOR_ENTITY).stream()
+                .flatMap(desc -> desc.getRelations(Ontology.HAS_ACCESS_POINT).stream())
+                .anyMatch(rel -> rel.getDataValue("cvoc") != null
+                        && (rel.getDataValue("concept") != null || rel.getDataValue("target") != null));
+        return resolvable ? solveUndeterminedRelationships(unit) : 0;
+    }
+
     public int solveUndeterminedRelationships(Described unit) throws ValidationError {
         logger.debug("Resolving relationships for {}", unit.getId());
         int created = 0;
@@ -86,7 +106,7 @@ public class LinkResolver {
                     logger.debug(" - found link references: cvoc: {}, concept: {}", setId, targetId);
                     try {
                         AuthoritativeSet set = setCache.get(setId);
-                        Optional<AuthoritativeItem> targetOpt = findTarget(set, targetId);
+                        Optional<AuthoritativeItem> targetOpt = itemIndex.find(set, targetId);
                         if (targetOpt.isPresent()) {
                             AuthoritativeItem target = targetOpt.get();
                             try {
@@ -117,15 +137,6 @@ public class LinkResolver {
     }
 
 
-    private Optional<AuthoritativeItem> findTarget(AuthoritativeSet set, String itemId) {
-        for (AuthoritativeItem item : set.getAuthoritativeItems()) {
-            if (Objects.equals(item.getIdentifier(), itemId)) {
-                return Optional.of(item);
-            }
-        }
-        return Optional.empty();
-    }
-
     private Optional<Link> findLink(Described unit, Linkable target, AccessPoint body, Bundle data)
             throws SerializationError {
         for (Link link : unit.getLinks()) {
@@ -20,6 +20,7 @@
 package eu.ehri.project.importers.properties;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,6 +29,8 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -39,9 +42,11 @@ public class XmlImportProperties implements ImportProperties {
 
 
     private final Properties properties;
+    private final PathNode paths;
 
     public XmlImportProperties(String configFile) {
         properties = PropertyLoader.loadProperties(configFile);
+        paths = compilePaths(properties);
     }
 
     /**
@@ -107,6 +112,68 @@ public class XmlImportProperties implements ImportProperties {
     public String getAttributeProperty(String key) {
         return getProperty("@" + key);
     }
+
+    /**
+     * Get the value for the innermost suffix of an element path that,
+     * followed by the given key suffix, is a key in this file. For the
+     * path <code>[ead, archdesc, did]</code> and suffix <code>@label</code>
+     * this is the first value found for the keys <code>did/@label</code>,
+     * <code>archdesc/did/@label</code> and <code>ead/archdesc/did/@label</code>,
+     * but the keys are not built: the path is matched against a trie of
+     * reversed key paths, compiled when the file is loaded.
+     *
+     * @param path   a list of element names, from the root element
+     * @param suffix a key suffix, either empty or an attribute name
+     *               beginning with '{@literal @}', optionally followed
+     *               by a value beginning with '$'
+     * @return the value of the innermost matching key, or null
+     */
+    public String getPathProperty(List<String> path, String suffix) {
+        PathNode node = paths;
+        for (int i = path.size() - 1; i >= 0; i--) {
+            node = node.children.get(path.get(i));
+            if (node == null) {
+                return null;
+            }
+            String value = node.values.get(suffix);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static PathNode compilePaths(Properties properties) {
+        PathNode root = new PathNode();
+        for (String key : properties.stringPropertyNames()) {
+            // Path keys are element names, each followed by a slash,
+            // and then an optional attribute/value suffix.
+            String path;
+            String suffix;
+            int attr = key.indexOf("/@");
+            if (attr != -1) {
+                path = key.substring(0, attr);
+                suffix = key.substring(attr + 1);
+            } else if (key.endsWith("/")) {
+                path = key.substring(0, key.length() - 1);
+                suffix = "";
+            } else {
+                continue;
+            }
+            String[] names = path.split("/", -1);
+            PathNode node = root;
+            for (int i = names.length - 1; i >= 0; i--) {
+                node = node.children.computeIfAbsent(names[i], k -> new PathNode());
+            }
+            node.values.put(suffix, properties.getProperty(key));
+        }
+        return root;
+    }
+
+    private static class PathNode {
+        private final Map<String, PathNode> children = Maps.newHashMap();
+        private final Map<String, String> values = Maps.newHashMap();
+    }
 }
 
 abstract class PropertyLoader {
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.importers.util;
+
+import com.google.common.collect.ImmutableList;
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.frames.FramedGraph;
+import eu.ehri.project.core.GraphManager;
+import eu.ehri.project.core.GraphManagerFactory;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.exceptions.ItemNotFound;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.cvoc.AuthoritativeItem;
+import eu.ehri.project.models.cvoc.AuthoritativeSet;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Look up authoritative items, such as concepts and historical
+ * agents, by their set and local identifier.
+ * <p>
+ * Rather than scanning every item in the set, candidates are fetched
+ * via the schema index on the identifier of each authoritative item
+ * type and then checked for membership of the set, so the cost of a
+ * lookup does not grow with the size of the set.
+ */
+public class AuthoritativeItemIndex {
+
+    private static final List<EntityClass> ITEM_TYPES = getItemTypes();
+
+    private final FramedGraph<?> graph;
+    private final GraphManager manager;
+
+    public AuthoritativeItemIndex(FramedGraph<?> graph) {
+        this.graph = graph;
+        this.manager = GraphManagerFactory.getInstance(graph);
+    }
+
+    /**
+     * Find an item in the given set.
+     *
+     * @param set        an authoritative set
+     * @param identifier the item's local identifier
+     * @return an optional item
+     */
+    public Optional<AuthoritativeItem> find(AuthoritativeSet set, String identifier) {
+        if (identifier == null) {
+            return Optional.empty();
+        }
+        Vertex setVertex = set.asVertex();
+        for (EntityClass type : ITEM_TYPES) {
+            try (CloseableIterable<Vertex> candidates = manager
+                    .getVertices(Ontology.IDENTIFIER_KEY, identifier, type)) {
+                for (Vertex candidate : candidates) {
+                    for (Vertex parent : candidate.getVertices(Direction.OUT,
+                            Ontology.ITEM_IN_AUTHORITATIVE_SET)) {
+                        if (parent.equals(setVertex)) {
+                            return Optional.of(graph.frame(candidate, AuthoritativeItem.class));
+                        }
+                    }
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Find an item in the set with the given ID.
+     *
+     * @param setId      the ID of an authoritative set
+     * @param identifier the item's local identifier
+     * @return an optional item
+     * @throws ItemNotFound if the set does not exist
+     */
+    public Optional<AuthoritativeItem> find(String setId, String identifier) throws ItemNotFound {
+        return find(manager.getEntity(setId, AuthoritativeSet.class), identifier);
+    }
+
+    private static List<EntityClass> getItemTypes() {
+        ImmutableList.Builder<EntityClass> types = ImmutableList.builder();
+        for (EntityClass type : EntityClass.values()) {
+            if (AuthoritativeItem.class.isAssignableFrom(type.getJavaClass())) {
+                types.add(type);
+            }
+        }
+        return types.build();
+    }
+}
@@ -1,18 +1,20 @@
 package eu.ehri.project.importers.util;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import eu.ehri.project.definitions.Entities;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.importers.properties.XmlImportProperties;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormatter;
-import org.joda.time.format.ISODateTimeFormat;
 
-import java.text.ParsePosition;
-import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.regex.Matcher;
@@ -20,40 +22,72 @@ import java.util.regex.Pattern;
 
 import static eu.ehri.project.importers.util.ImportHelpers.getSubNode;
 
+/**
+ * Recognises date periods in free-text date values. This class is
+ * thread safe.
+ */
 class DateParser {
 
-    // Various date patterns
-    private static final Pattern[] datePatterns = {
+    private static final String YMD = "\\d{4}-\\d{1,2}-\\d{1,2}";
+    private static final String YM = "\\d{4}-\\d{1,2}";
+
+    // Various date patterns, tried in order. The first group of each is
+    // the start of the period and the last group the end.
+    private static final String[] datePatterns = {
             // Yad Vashem, ICA-Atom style: 1924-1-1 - 1947-12-31
             // Yad Vashem in Wp2: 12-15-1941, 9-30-1944
-            Pattern.compile("^(\\d{4}-\\d{1,2}-\\d{1,2})\\s?-\\s?(\\d{4}-\\d{1,2}-\\d{1,2})$"),
-            Pattern.compile("^(\\d{4}-\\d{1,2}-\\d{1,2})$"),
-            Pattern.compile("^(\\d{4})\\s?-\\s?(\\d{4})$"),
-            Pattern.compile("^(\\d{4})-\\[(\\d{4})\\]$"),
-            Pattern.compile("^(\\d{4})-\\[(\\d{4})\\]$"),
-            Pattern.compile("^(\\d{4}s)-\\[(\\d{4}s)\\]$"),
-            Pattern.compile("^\\[(\\d{4})\\]$"),
-            Pattern.compile("^(\\d{4})$"),
-            Pattern.compile("^(\\d{2})th century$"),
-            Pattern.compile("^\\s*(\\d{4})\\s*-\\s*(\\d{4})"),
+            "(" + YMD + ")\\s?-\\s?(" + YMD + ")",
+            "(" + YMD + ")",
+            "(\\d{4})\\s?-\\s?(\\d{4})",
+            "(\\d{4})-\\[(\\d{4})\\]",
+            "(\\d{4}s)-\\[(\\d{4}s)\\]",
+            "\\[(\\d{4})\\]",
+            "(\\d{4})",
+            "(\\d{2})th century",
+            "\\s*(\\d{4})\\s*-\\s*(\\d{4})",
             //bundesarchive: 1906/19
-            Pattern.compile("^\\s*(\\d{4})/(\\d{2})"),
-            Pattern.compile("^\\s*(\\d{4})\\s*/\\s*(\\d{4})"),
-            Pattern.compile("^(\\d{4}-\\d{1,2})/(\\d{4}-\\d{1,2})"),
-            Pattern.compile("^(\\d{4}-\\d{1,2}-\\d{1,2})/(\\d{4}-\\d{1,2}-\\d{1,2})"),
-            Pattern.compile("^(\\d{4})/(\\d{4}-\\d{1,2}-\\d{1,2})")
+            "\\s*(\\d{4})/(\\d{2})",
+            "\\s*(\\d{4})\\s*/\\s*(\\d{4})",
+            "(" + YM + ")/(" + YM + ")",
+            "(" + YMD + ")/(" + YMD + ")",
+            "(\\d{4})/(" + YMD + ")"
     };
 
-    // NB: Using English locale here to avoid ambiguities caused by system dependent
-    // time zones such as: Cannot parse "1940-05-16": Illegal instant due to time zone
-    // offset transition (Europe/Amsterdam)
-    // https://en.wikipedia.org/wiki/UTC%2B00:20
-    private static final DateTimeFormatter isoDateTimeFormat = ISODateTimeFormat.date()
-            .withLocale(Locale.ENGLISH);
+    // Indices of the patterns that need special treatment
+    private static final int CENTURY = 7;
+    private static final int SHORT_END_YEAR = 9;
+
+    // All the date patterns as alternatives of a single expression, so a
+    // value is scanned once, along with the index of the first group of
+    // each alternative.
+    private static final Pattern datePattern;
+    private static final int[] firstGroups = new int[datePatterns.length];
+
+    static {
+        StringBuilder sb = new StringBuilder("(?:");
+        int group = 1;
+        for (int i = 0; i < datePatterns.length; i++) {
+            firstGroups[i] = group;
+            group += Pattern.compile(datePatterns[i]).matcher("").groupCount();
+            sb.append(i == 0 ? "" : "|").append(datePatterns[i]);
+        }
+        datePattern = Pattern.compile(sb.append(")").toString());
+    }
+
+    private static final DateTimeFormatter isoDateFormat = DateTimeFormatter.ISO_LOCAL_DATE;
+
+    // The same date expressions recur very frequently in real data,
+    // so cache their parsed values.
+    private static final int MAX_CACHED_DATES = 10000;
+    private static final LoadingCache<String, Optional<Map<String, Object>>> dateCache = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_DATES)
+            .build(new CacheLoader<String, Optional<Map<String, Object>>>() {
+                @Override
+                public Optional<Map<String, Object>> load(String date) {
+                    return matchDate(date);
+                }
+            });
 
-    // NB: Not static yet since these objects aren't thread safe :(
-    private static final SimpleDateFormat yearMonthDateFormat = new SimpleDateFormat("yyyy-MM");
-    private static final SimpleDateFormat yearDateFormat = new SimpleDateFormat("yyyy");
     private static final XmlImportProperties dates = new XmlImportProperties("dates.properties");
 
 
@@ -104,23 +138,37 @@ class DateParser {
     }
 
     private static Optional<Map<String, Object>> extractDate(String date) {
-        Map<String, Object> data = matchDate(date);
-        return data.isEmpty() ? Optional.empty() : Optional.of(data);
+        return dateCache.getUnchecked(date).map(Maps::newHashMap);
     }
 
-    private static Map<String, Object> matchDate(String date) {
-        Map<String, Object> data = Maps.newHashMap();
-        for (Pattern re : datePatterns) {
-            Matcher matcher = re.matcher(date);
-            if (matcher.matches()) {
-                data.put(Ontology.DATE_PERIOD_START_DATE, normaliseDate(matcher.group(1)));
-                data.put(Ontology.DATE_PERIOD_END_DATE, normaliseDate(matcher.group(matcher
-                        .groupCount() > 1 ? 2 : 1), true));
-                data.put(Ontology.DATE_HAS_DESCRIPTION, date);
-                break;
+    private static Optional<Map<String, Object>> matchDate(String date) {
+        Matcher matcher = datePattern.matcher(date);
+        if (matcher.matches()) {
+            int alt = firstGroups.length - 1;
+            while (matcher.start(firstGroups[alt]) == -1) {
+                alt--;
+            }
+            int last = alt + 1 < firstGroups.length ? firstGroups[alt + 1] - 1 : matcher.groupCount();
+            String start = matcher.group(firstGroups[alt]);
+            String end = matcher.group(last);
+            try {
+                if (alt == CENTURY) {
+                    int century = Integer.parseInt(start);
+                    start = String.valueOf((century - 1) * 100);
+                    end = String.valueOf((century - 1) * 100 + 99);
+                } else if (alt == SHORT_END_YEAR) {
+                    end = start.substring(0, 2) + end;
+                }
+                return Optional.of(ImmutableMap.of(
+                        Ontology.DATE_PERIOD_START_DATE, normaliseDate(start),
+                        Ontology.DATE_PERIOD_END_DATE, normaliseDate(end, true),
+                        Ontology.DATE_HAS_DESCRIPTION, date));
+            } catch (DateTimeException e) {
+                // Invalid dates such as 1944-2-30 are left as they are
+                return Optional.empty();
             }
         }
-        return data;
+        return Optional.empty();
     }
 
     private static Map<String, String> returnDatesAsString(Map<String, Object> data) {
@@ -150,32 +198,46 @@ class DateParser {
     /**
      * Normalise a date in a string.
      *
-     * @param date        a String date that needs formatting
+     * @param date        a String date that needs formatting, consisting of
+     *                    a year, year-month, year-month-day, or a decade such
+     *                    as 1940s. Two-digit years are taken to be in the 1900s.
      * @param endOfPeriod a string signifying whether this date is the begin of
      *                    a period or the end of a period
      * @return a String containing the formatted date.
+     * @throws DateTimeException if the date is not valid
      */
     static String normaliseDate(String date, boolean endOfPeriod) {
-        String returnDate = isoDateTimeFormat.print(DateTime.parse(date));
-        if (returnDate.startsWith("00")) {
-            returnDate = "19" + returnDate.substring(2);
-            date = "19" + date;
-        }
-        if (endOfPeriod) {
-            if (!date.equals(returnDate)) {
-                ParsePosition p = new ParsePosition(0);
-                yearMonthDateFormat.parse(date, p);
-                if (p.getIndex() > 0) {
-                    returnDate = isoDateTimeFormat.print(DateTime.parse(date).plusMonths(1).minusDays(1));
-                } else {
-                    p = new ParsePosition(0);
-                    yearDateFormat.parse(date, p);
-                    if (p.getIndex() > 0) {
-                        returnDate = isoDateTimeFormat.print(DateTime.parse(date).plusYears(1).minusDays(1));
-                    }
-                }
+        LocalDate returnDate;
+        if (date.endsWith("s")) {
+            int decade = parseYear(date.substring(0, date.length() - 1)) / 10 * 10;
+            returnDate = endOfPeriod ? LocalDate.of(decade + 9, 12, 31) : LocalDate.of(decade, 1, 1);
+        } else {
+            String[] parts = date.split("-");
+            int year = parseYear(parts[0]);
+            if (parts.length == 1) {
+                returnDate = endOfPeriod ? LocalDate.of(year, 12, 31) : LocalDate.of(year, 1, 1);
+            } else if (parts.length == 2) {
+                YearMonth yearMonth = YearMonth.of(year, parseField(parts[1]));
+                returnDate = endOfPeriod ? yearMonth.atEndOfMonth() : yearMonth.atDay(1);
+            } else if (parts.length == 3) {
+                returnDate = LocalDate.of(year, parseField(parts[1]), parseField(parts[2]));
+            } else {
+                throw new DateTimeException("Unrecognised date: " + date);
             }
         }
-        return returnDate;
+        return isoDateFormat.format(returnDate);
+    }
+
+    private static int parseYear(String year) {
+        int value = parseField(year);
+        return value < 100 ? 1900 + value : value;
+    }
+
+    private static int parseField(String field) {
+        try {
+            return Integer.parseInt(field);
+        } catch (NumberFormatException e) {
+            throw new DateTimeException("Invalid date field: " + field);
+        }
     }
 }
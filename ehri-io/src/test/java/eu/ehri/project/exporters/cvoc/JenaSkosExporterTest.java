@@ -25,6 +25,8 @@ import eu.ehri.project.importers.cvoc.AbstractSkosTest;
 import eu.ehri.project.importers.cvoc.JenaSkosImporter;
 import eu.ehri.project.importers.cvoc.SkosImporter;
 import eu.ehri.project.models.cvoc.Vocabulary;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
@@ -113,6 +115,21 @@ public class JenaSkosExporterTest extends AbstractSkosTest {
         assertThat(skos, containsString("rdf:about=\"http://ehri01.dans.knaw.nl/cvoc2\""));
     }
 
+    @Test
+    public void testStreamingExportMatchesModel() throws Exception {
+        importFile(vocabulary, FILE4);
+        importFile(vocabulary, FILE5);
+        String baseUri = "http://www.my.com/#";
+        Model expected = new JenaSkosExporter(graph, vocabulary).export(baseUri);
+        for (String format : new String[]{"TTL", "N3", "N-TRIPLE"}) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            new JenaSkosExporter(graph, vocabulary).setFormat(format).export(outputStream, baseUri);
+            Model model = ModelFactory.createDefaultModel()
+                    .read(new ByteArrayInputStream(outputStream.toByteArray()), null, format);
+            assertTrue(format, expected.isIsomorphicWith(model));
+        }
+    }
+
     private void importFile(Vocabulary vocabulary, String file) throws Exception {
         SkosImporter importer = new JenaSkosImporter(graph, actioner, vocabulary);
         importer.importFile(ClassLoader.getSystemResourceAsStream(file), "test");
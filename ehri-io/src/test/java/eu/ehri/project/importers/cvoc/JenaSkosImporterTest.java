@@ -29,6 +29,8 @@ import eu.ehri.project.models.base.Description;
 import eu.ehri.project.models.cvoc.Concept;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Comparator;
 import java.util.List;
 
@@ -156,4 +158,33 @@ public class JenaSkosImporterTest extends AbstractSkosTest {
                 .<List<String>>getProperty(SkosMultilingual.altLabel.toString());
         assertEquals(15, altLabels.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testImportInferredRelations() throws Exception {
+        String ttl = "@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n" +
+                "@prefix xl: <http://www.w3.org/2008/05/skos-xl#> .\n" +
+                "@prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> .\n" +
+                "@prefix ex: <http://www.example.com/> .\n" +
+                "ex:Place rdfs:subClassOf skos:Concept .\n" +
+                "ex:a a skos:Concept ; skos:prefLabel \"A\"@en ; skos:narrower ex:b .\n" +
+                "ex:b a ex:Place ; xl:prefLabel ex:label .\n" +
+                "ex:label xl:literalForm \"B\"@en .\n";
+        SkosImporter importer = new JenaSkosImporter(graph, actioner, vocabulary)
+                .setFormat("TTL");
+        ImportLog importLog = importer.importFile(
+                new ByteArrayInputStream(ttl.getBytes(StandardCharsets.UTF_8)), "inferred");
+        assertEquals(2, importLog.getCreated());
+
+        Concept a = manager.getEntity("cvoc2-a", Concept.class);
+        Concept b = manager.getEntity("cvoc2-b", Concept.class);
+        assertEquals(b, a.getNarrowerConcepts().iterator().next());
+        assertEquals(a, b.getBroaderConcepts().iterator().next());
+        assertEquals("B", b.getDescriptions().iterator().next().getName());
+
+        // Re-importing should leave the relationship intact
+        ImportLog importLog2 = importer.importFile(
+                new ByteArrayInputStream(ttl.getBytes(StandardCharsets.UTF_8)), "inferred");
+        assertEquals(2, importLog2.getUnchanged());
+        assertEquals(a, b.getBroaderConcepts().iterator().next());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.importers.cvoc;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class TripleSorterTest {
+
+    private static final Node p = NodeFactory.createURI("http://www.example.com/p");
+
+    @Test
+    public void testGroups() throws Exception {
+        List<Triple> triples = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            Node subject = i % 2 == 0
+                    ? NodeFactory.createURI("http://www.example.com/" + (i % 3))
+                    : NodeFactory.createBlankNode("b" + (i % 3));
+            triples.add(Triple.create(subject, p, NodeFactory.createLiteral("value " + i, "en")));
+            triples.add(Triple.create(subject, p, NodeFactory.createLiteral(String.valueOf(i), XSDDatatype.XSDint)));
+            triples.add(Triple.create(subject, p, NodeFactory.createBlankNode("o" + i)));
+        }
+
+        // Sorting in memory and spilling runs to disk should
+        // give the same groups
+        for (int bufferSize : new int[]{1000, 4}) {
+            try (TripleSorter sorter = new TripleSorter(bufferSize)) {
+                for (Triple triple : triples) {
+                    sorter.add(triple);
+                }
+                Set<Triple> all = Sets.newHashSet();
+                Set<String> subjects = Sets.newHashSet();
+                String last = "";
+                Iterator<List<Triple>> groups = sorter.groups();
+                while (groups.hasNext()) {
+                    List<Triple> group = groups.next();
+                    String key = TripleSorter.key(group.get(0).getSubject());
+                    assertEquals(1, group.stream().map(Triple::getSubject).distinct().count());
+                    assertEquals(-1, Integer.signum(last.compareTo(key)));
+                    subjects.add(key);
+                    all.addAll(group);
+                    last = key;
+                }
+                assertEquals(6, subjects.size());
+                assertEquals(Sets.newHashSet(triples), all);
+            }
+        }
+    }
+}
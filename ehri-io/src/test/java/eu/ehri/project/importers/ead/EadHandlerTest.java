@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.importers.ead;
+
+import eu.ehri.project.importers.ErrorCallback;
+import eu.ehri.project.importers.ImportCallback;
+import eu.ehri.project.importers.base.ItemImporter;
+import eu.ehri.project.models.base.Accessible;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class EadHandlerTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(EadHandlerTest.class);
+
+    /**
+     * An importer that only counts the items it is given.
+     */
+    private static class CountingImporter implements ItemImporter<Map<String, Object>, Accessible> {
+        private int count;
+
+        @Override
+        public Accessible importItem(Map<String, Object> itemData) {
+            count++;
+            return null;
+        }
+
+        @Override
+        public Accessible importItem(Map<String, Object> itemData, List<String> scopeIds) {
+            count++;
+            return null;
+        }
+
+        @Override
+        public void handleError(Exception ex) {
+            throw new RuntimeException(ex);
+        }
+
+        @Override
+        public void addCallback(ImportCallback callback) {
+        }
+
+        @Override
+        public void addErrorCallback(ErrorCallback callback) {
+        }
+    }
+
+    @Test
+    public void testParseThroughput() throws Exception {
+        int items = 20000;
+        StringBuilder sb = new StringBuilder("<ead><eadheader><eadid>bench</eadid></eadheader>")
+                .append("<archdesc level=\"fonds\"><did><unitid>root</unitid><unittitle>Root</unittitle></did><dsc>");
+        for (int i = 0; i < items; i++) {
+            sb.append("<c01 level=\"file\"><did><unitid>c").append(i).append("</unitid>")
+                    .append("<unittitle>Item ").append(i).append("</unittitle>")
+                    .append("<unitdate normal=\"1939/1945\">1939-1945</unitdate></did>")
+                    .append("<scopecontent><p>Some text about item ").append(i).append("</p></scopecontent>")
+                    .append("<controlaccess><persname>Person ").append(i).append("</persname>")
+                    .append("<subject>Subject</subject></controlaccess></c01>");
+        }
+        sb.append("</dsc></archdesc></ead>");
+        byte[] ead = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        CountingImporter importer = new CountingImporter();
+        EadHandler handler = new EadHandler(importer, "eng");
+        SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+        parser.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+
+        long start = System.nanoTime();
+        parser.parse(new InputSource(new ByteArrayInputStream(ead)), handler);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        assertEquals(items + 1, importer.count);
+        logger.info("Parsed {} EAD items ({} MB) in {}s: {} items/s", items + 1,
+                String.format("%.1f", ead.length / 1e6), String.format("%.2f", seconds),
+                String.format("%.0f", (items + 1) / seconds));
+    }
+}
@@ -13,9 +13,13 @@ import eu.ehri.project.models.base.PermissionScope;
 import eu.ehri.project.models.events.SystemEvent;
 import eu.ehri.project.persistence.Bundle;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -26,6 +30,9 @@ import static org.junit.Assert.*;
 
 public class EadSyncTest extends AbstractImporterTest {
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     private Repository repo;
     private SaxImportManager importManager;
 
@@ -130,6 +137,52 @@ public class EadSyncTest extends AbstractImporterTest {
         runSync(repo, excludes, "Test sync error", "hierarchical-ead.xml");
     }
 
+    @Test
+    public void testResumeSyncFromCheckpoint() throws Exception {
+        DocumentaryUnit scope = manager.getEntity("nl-r1-ctop_level_fonds", DocumentaryUnit.class);
+        Path dir = tempFolder.newFolder().toPath();
+        EadSync sync = new EadSync(graph, api(validUser), scope, validUser, importManager)
+                .withCheckpoints(dir, () -> {});
+        String logMessage = "Test resumed sync";
+
+        // Run the ingest but fail before the moved item scan...
+        try {
+            sync.sync(m -> {
+                try {
+                    m.importInputStream(ClassLoader.getSystemResourceAsStream(
+                            "hierarchical-ead-sync-test.xml"), logMessage);
+                } catch (InputParseError e) {
+                    throw new RuntimeException(e);
+                }
+                throw new RuntimeException("Interrupted!");
+            }, Sets.newHashSet(), logMessage);
+            fail("Sync should have been interrupted");
+        } catch (RuntimeException e) {
+            assertEquals("Interrupted!", e.getMessage());
+        }
+        assertTrue(Files.exists(dir.resolve("checkpoint")));
+
+        // The moved item now exists twice so a new sync would fail on
+        // non-unique local IDs, but resuming uses the recorded snapshot.
+        SyncLog log = sync.sync(m -> {
+            try {
+                return m.importInputStream(ClassLoader.getSystemResourceAsStream(
+                        "hierarchical-ead-sync-test.xml"), logMessage);
+            } catch (InputParseError e) {
+                throw new RuntimeException(e);
+            }
+        }, Sets.newHashSet(), logMessage);
+        assertEquals(Sets.newHashSet("nl-r1-ctop_level_fonds-c00001-c00002-1"), log.deleted());
+        assertEquals(Sets.newHashSet("nl-r1-ctop_level_fonds-c00001-c00002-2_parent"), log.created());
+        assertEquals(ImmutableMap.of(
+                "nl-r1-ctop_level_fonds-c00001-c00002-2",
+                "nl-r1-ctop_level_fonds-c00001-c00002-2_parent-c00002_2"
+        ), log.moved());
+        assertFalse(manager.exists("nl-r1-ctop_level_fonds-c00001-c00002-2"));
+        assertFalse(manager.exists("nl-r1-ctop_level_fonds-c00001-c00002-1"));
+        assertFalse(Files.exists(dir.resolve("checkpoint")));
+    }
+
     private SyncLog runSync(PermissionScope scope, Set<String> excludes, String logMessage, String ead) throws Exception {
         EadSync sync = new EadSync(graph, api(validUser), scope, validUser, importManager);
         InputStream ios2 = ClassLoader.getSystemResourceAsStream(ead);
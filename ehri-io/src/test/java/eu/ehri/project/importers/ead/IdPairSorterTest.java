@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.importers.ead;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class IdPairSorterTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testSortWithSpilledRuns() throws Exception {
+        Path dir = tempFolder.newFolder().toPath();
+        Path target = dir.resolve("pairs.bin");
+        try (IdPairSorter sorter = new IdPairSorter(target, 3)) {
+            sorter.add("c", "3");
+            sorter.add("a", "2");
+            sorter.add("b", "1");
+            sorter.add("a", "1");
+            sorter.add("c", "3");
+            sorter.add("b", "0");
+            sorter.add("a", "2");
+            sorter.finish();
+        }
+        assertEquals(Lists.newArrayList(
+                Maps.immutableEntry("a", "1"),
+                Maps.immutableEntry("a", "2"),
+                Maps.immutableEntry("b", "0"),
+                Maps.immutableEntry("b", "1"),
+                Maps.immutableEntry("c", "3")
+        ), readAll(target));
+        // Only the target file remains
+        assertEquals(1, Files.list(dir).count());
+    }
+
+    @Test
+    public void testSortInMemory() throws Exception {
+        Path target = tempFolder.newFolder().toPath().resolve("pairs.bin");
+        try (IdPairSorter sorter = new IdPairSorter(target, 10)) {
+            sorter.add("b", "1");
+            sorter.add("a", "1");
+            sorter.finish();
+        }
+        assertEquals(Lists.newArrayList(
+                Maps.immutableEntry("a", "1"),
+                Maps.immutableEntry("b", "1")
+        ), readAll(target));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        Path target = tempFolder.newFolder().toPath().resolve("pairs.bin");
+        try (IdPairSorter sorter = new IdPairSorter(target, 10)) {
+            sorter.finish();
+        }
+        try (IdPairSorter.Reader reader = IdPairSorter.read(target)) {
+            assertFalse(reader.hasNext());
+        }
+    }
+
+    private static List<Map.Entry<String, String>> readAll(Path file) throws Exception {
+        try (IdPairSorter.Reader reader = IdPairSorter.read(file)) {
+            return Lists.newArrayList(reader);
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package eu.ehri.project.importers.links;
 
+import com.google.common.collect.ArrayListMultimap;
 import eu.ehri.project.models.base.Described;
+import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.persistence.Serializer;
 import eu.ehri.project.test.AbstractFixtureTest;
 import org.junit.Before;
 import org.junit.Test;
@@ -25,4 +28,17 @@ public class LinkResolverTest extends AbstractFixtureTest {
         int created2 = linkResolver.solveUndeterminedRelationships(unit);
         assertEquals(0, created2);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void solveUndeterminedRelationshipsWithBundle() throws Exception {
+        Described unit = manager.getEntity("c5", Described.class);
+        Bundle bundle = new Serializer.Builder(graph).dependentOnly().build()
+                .entityToBundle(unit);
+        LinkResolver linkResolver = new LinkResolver(graph, validUser);
+
+        // Without link references in the bundle nothing is resolved
+        assertEquals(0, linkResolver.solveUndeterminedRelationships(unit,
+                bundle.replaceRelations(ArrayListMultimap.create())));
+        assertEquals(2, linkResolver.solveUndeterminedRelationships(unit, bundle));
+    }
+}
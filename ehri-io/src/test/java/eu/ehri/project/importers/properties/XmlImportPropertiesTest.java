@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.importers.properties;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class XmlImportPropertiesTest {
+
+    @Test
+    public void testGetPathProperty() {
+        XmlImportProperties p = new XmlImportProperties("ead2002.properties");
+        assertEquals("objectIdentifier", p.getPathProperty(
+                Lists.newArrayList("ead", "archdesc", "did", "unitid"), ""));
+        assertEquals("sourceFileId", p.getPathProperty(
+                Lists.newArrayList("ead", "eadheader", "eadid"), ""));
+        assertEquals("levelOfDescription", p.getPathProperty(
+                Lists.newArrayList("ead", "archdesc"), "@levelOfDesc"));
+        assertNull(p.getPathProperty(Lists.newArrayList("ead", "archdesc", "nope"), ""));
+        assertNull(p.getPathProperty(Lists.newArrayList("ead", "archdesc", "did", "unitid"), "@nope"));
+        assertNull(p.getPathProperty(Lists.<String>newArrayList(), ""));
+    }
+
+    @Test
+    public void testGetPathPropertyWithValue() {
+        XmlImportProperties p = new XmlImportProperties("ara.properties");
+        List<String> path = Lists.newArrayList("ead", "archdesc", "did", "unitid");
+        assertEquals("objectIdentifier", p.getPathProperty(path, "@ehrilabel$ehri_main_identifier"));
+        assertEquals("otherIdentifiers", p.getPathProperty(path, "@ehrilabel$institution_identifier"));
+        assertNull(p.getPathProperty(path, "@ehrilabel$other"));
+    }
+
+    @Test
+    public void testGetPathPropertyMatchesKeyLookup() {
+        String[] files = {"ead2002.properties", "ara.properties", "eac.properties", "eag.properties"};
+        for (String file : files) {
+            XmlImportProperties p = new XmlImportProperties(file);
+            for (String key : PropertyLoader.loadProperties(file).stringPropertyNames()) {
+                int attr = key.indexOf("/@");
+                String path = attr == -1 ? key : key.substring(0, attr + 1);
+                String suffix = attr == -1 ? "" : key.substring(attr + 1);
+                if (!path.endsWith("/")) {
+                    continue;
+                }
+                // Nest the path in some other elements and check the
+                // result is the same as probing each suffix of the path.
+                List<String> names = Lists.newArrayList("ead", "archdesc");
+                names.addAll(Lists.newArrayList(path.split("/")));
+                assertEquals(file + ": " + key, probe(p, names, suffix), p.getPathProperty(names, suffix));
+            }
+        }
+    }
+
+    private static String probe(XmlImportProperties p, List<String> path, String suffix) {
+        for (int i = path.size() - 1; i >= 0; i--) {
+            String value = p.getProperty(Joiner.on("/").join(path.subList(i, path.size())) + "/" + suffix);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.importers.util;
+
+import eu.ehri.project.exceptions.ItemNotFound;
+import eu.ehri.project.models.cvoc.AuthoritativeItem;
+import eu.ehri.project.models.cvoc.AuthoritativeSet;
+import eu.ehri.project.test.AbstractFixtureTest;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AuthoritativeItemIndexTest extends AbstractFixtureTest {
+
+    @Test
+    public void testFind() throws Exception {
+        AuthoritativeItemIndex index = new AuthoritativeItemIndex(graph);
+        Optional<AuthoritativeItem> concept = index.find("cvoc1", "cvocc1");
+        assertTrue(concept.isPresent());
+        assertEquals("cvocc1", concept.get().getId());
+        Optional<AuthoritativeItem> agent = index.find(
+                manager.getEntity("auths", AuthoritativeSet.class), "a1");
+        assertTrue(agent.isPresent());
+        assertEquals("a1", agent.get().getId());
+    }
+
+    @Test
+    public void testFindInWrongSet() throws Exception {
+        AuthoritativeItemIndex index = new AuthoritativeItemIndex(graph);
+        assertFalse(index.find("cvoc2", "cvocc1").isPresent());
+        assertFalse(index.find("cvoc1", "nope").isPresent());
+        assertFalse(index.find("cvoc1", null).isPresent());
+    }
+
+    @Test(expected = ItemNotFound.class)
+    public void testFindInMissingSet() throws Exception {
+        new AuthoritativeItemIndex(graph).find("nope", "cvocc1");
+    }
+}
@@ -6,14 +6,22 @@ import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.exceptions.ItemNotFound;
 import org.junit.Before;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static eu.ehri.project.importers.util.DateParser.normaliseDate;
 import static org.junit.Assert.*;
 
 public class DateParserTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(DateParserTest.class);
+
     private Map<String, Object> mapWithOneParseableDate;
     private Map<String, Object> mapWithMultipleDates;
     private Map<String, Object> mapWithMultipleDatesAsList;
@@ -86,4 +94,76 @@ public class DateParserTest {
     public void endDateYearMonth() {
         assertEquals("1944-01-31", normaliseDate("1944-01", true));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void endDateYearMonthDay() {
+        assertEquals("1944-09-07", normaliseDate("1944-9-7", true));
+    }
+
+    @Test
+    public void decade() {
+        assertEquals("1940-01-01", normaliseDate("1940s"));
+        assertEquals("1949-12-31", normaliseDate("1940s", true));
+    }
+
+    @Test
+    public void matchPeriods() {
+        assertPeriod("1924-1-1 - 1947-12-31", "1924-01-01", "1947-12-31");
+        assertPeriod("1944/1945-5-8", "1944-01-01", "1945-05-08");
+        assertPeriod("1939-[1945]", "1939-01-01", "1945-12-31");
+        assertPeriod("1940s-[1950s]", "1940-01-01", "1959-12-31");
+        assertPeriod("19th century", "1800-01-01", "1899-12-31");
+        assertPeriod("1906/19", "1906-01-01", "1919-12-31");
+        assertPeriod("1944-1/1945-2", "1944-01-01", "1945-02-28");
+    }
+
+    @Test
+    public void invalidDatesAreNotExtracted() {
+        Map<String, Object> data = Maps.newHashMap();
+        data.put("unitDates", "1944-2-30");
+        assertTrue(ImportHelpers.extractDates(data).isEmpty());
+        assertEquals("1944-2-30", data.get("unitDates"));
+    }
+
+    @Test
+    public void extractDatesConcurrently() {
+        List<String> expected = Collections.nCopies(1000, "1939-01-01/1945-12-31");
+        List<String> results = IntStream.range(0, 1000).parallel()
+                .mapToObj(i -> {
+                    Map<String, Object> data = Maps.newHashMap();
+                    data.put("unitDates", i % 2 == 0 ? "1939-1945" : "1939 - 1945");
+                    Map<String, Object> date = ImportHelpers.extractDates(data).get(0);
+                    return date.get(Ontology.DATE_PERIOD_START_DATE) + "/" + date.get(Ontology.DATE_PERIOD_END_DATE);
+                })
+                .collect(Collectors.toList());
+        assertEquals(expected, results);
+    }
+
+    @Test
+    public void testExtractThroughput() {
+        String[] corpus = {"1939-1945", "1924-1-1 - 1947-12-31", "[1944]", "1944", "1906/19",
+                "1944-01-01/1945-12-31", "summer 1978", "ca. 1940", "19th century", "1939-[1945]"};
+        int iterations = 200000;
+        long start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < iterations; i++) {
+            Map<String, Object> data = Maps.newHashMap();
+            data.put("unitDates", corpus[i % corpus.length]);
+            found += ImportHelpers.extractDates(data).size();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        assertEquals(iterations / corpus.length * 8, found);
+        logger.info("Extracted dates from {} values in {}s: {} values/s", iterations,
+                String.format("%.2f", seconds), String.format("%.0f", iterations / seconds));
+    }
+
+    private void assertPeriod(String date, String start, String end) {
+        Map<String, Object> data = Maps.newHashMap();
+        data.put("unitDates", date);
+        List<Map<String, Object>> extracted = ImportHelpers.extractDates(data);
+        assertEquals(1, extracted.size());
+        assertEquals(start, extracted.get(0).get(Ontology.DATE_PERIOD_START_DATE));
+        assertEquals(end, extracted.get(0).get(Ontology.DATE_PERIOD_END_DATE));
+        assertEquals(date, extracted.get(0).get(Ontology.DATE_HAS_DESCRIPTION));
+    }
+}
@@ -28,15 +28,19 @@ import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.blueprints.util.io.graphson.GraphSONMode;
 import com.tinkerpop.blueprints.util.io.graphson.GraphSONWriter;
 import eu.ehri.extension.base.AbstractResource;
+import eu.ehri.project.acl.AclManager;
 import eu.ehri.project.acl.PermissionType;
 import eu.ehri.project.acl.wrapper.AclGraph;
 import eu.ehri.project.core.Tx;
 import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.exceptions.DeserializationError;
+import eu.ehri.project.exceptions.ItemNotFound;
 import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.models.Group;
 import eu.ehri.project.models.UserProfile;
 import eu.ehri.project.models.base.Accessor;
 import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.tools.ChangeExporter;
 import eu.ehri.project.tools.JsonDataExporter;
 import org.neo4j.graphdb.GraphDatabaseService;
 
@@ -54,6 +58,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * Provides additional Admin methods needed by client systems
@@ -65,6 +70,8 @@ public class AdminResource extends AbstractResource {
     public static final String ENDPOINT = "admin";
     public static final String DEFAULT_USER_ID_PREFIX = "user";
     public static final String DEFAULT_USER_ID_FORMAT = "%s%06d";
+    public static final String SINCE_PARAM = "since";
+    public static final String SINCE_TIME_PARAM = "sinceTime";
 
     public AdminResource(@Context GraphDatabaseService database) {
         super(database);
@@ -104,6 +111,53 @@ public class AdminResource extends AbstractResource {
         }).build();
     }
 
+    /**
+     * Export the items created, updated or deleted after a given
+     * event, or time, as a JSON object. The object contains a list
+     * of changes, each item appearing once with its current data,
+     * and a <code>checkpoint</code> event ID that can be given as
+     * the <code>since</code> parameter of the next export. Only
+     * items visible to the requesting user are included, and only
+     * admin users are told of deleted items.
+     *
+     * @param since     the ID of the last event seen
+     * @param sinceTime an ISO 8601 timestamp; only events after
+     *                  this time are included
+     * @throws DeserializationError if the event does not exist or
+     *                              the timestamp is invalid
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("export-changes")
+    public Response exportChanges(
+            @QueryParam(SINCE_PARAM) String since,
+            @QueryParam(SINCE_TIME_PARAM) String sinceTime) throws Exception {
+        // Check the checkpoint first, since errors can't be
+        // reported once the response has started.
+        try (final Tx tx = beginTx()) {
+            new ChangeExporter(graph).checkSince(Optional.ofNullable(since), Optional.ofNullable(sinceTime));
+            tx.success();
+        } catch (ItemNotFound e) {
+            throw new DeserializationError("Unable to locate event with ID: " + e.getValue());
+        } catch (IllegalArgumentException e) {
+            throw new DeserializationError("Invalid timestamp: " + sinceTime);
+        }
+        return Response.ok((StreamingOutput) stream -> {
+            try (final Tx tx = beginTx()) {
+                Accessor accessor = getRequesterUserProfile();
+                AclManager aclManager = new AclManager(graph);
+                // Only admins, who can see everything, are told of deletions
+                ChangeExporter exporter = AclManager.belongsToAdmin(accessor)
+                        ? new ChangeExporter(graph)
+                        : new ChangeExporter(graph).withFilter(item -> aclManager.canAccess(item, accessor));
+                exporter.export(stream, Optional.ofNullable(since), Optional.ofNullable(sinceTime));
+                tx.success();
+            } catch (ItemNotFound e) {
+                throw new RuntimeException(e);
+            }
+        }).build();
+    }
+
     /**
      * Create a new user with a default name and identifier.
      *
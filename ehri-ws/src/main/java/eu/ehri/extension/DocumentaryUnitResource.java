@@ -19,7 +19,14 @@
 
 package eu.ehri.extension;
 
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.pipes.PipeFunction;
 import eu.ehri.extension.base.*;
+import eu.ehri.project.acl.AclManager;
+import eu.ehri.project.api.Api;
 import eu.ehri.project.core.Tx;
 import eu.ehri.project.definitions.Entities;
 import eu.ehri.project.exceptions.DeserializationError;
@@ -27,7 +34,14 @@ import eu.ehri.project.exceptions.ItemNotFound;
 import eu.ehri.project.exceptions.PermissionDenied;
 import eu.ehri.project.exceptions.ValidationError;
 import eu.ehri.project.exporters.ead.Ead2002Exporter;
+import eu.ehri.project.exporters.ead.EadExporter;
+import eu.ehri.project.models.AccessPoint;
 import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.DocumentaryUnitDescription;
+import eu.ehri.project.models.Link;
+import eu.ehri.project.models.Repository;
+import eu.ehri.project.models.base.Accessible;
+import eu.ehri.project.models.events.SystemEvent;
 import eu.ehri.project.persistence.Bundle;
 import org.neo4j.graphdb.GraphDatabaseService;
 
@@ -37,7 +51,11 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import javax.xml.transform.TransformerException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Provides a web service interface for the DocumentaryUnit model.
@@ -47,8 +65,11 @@ public class DocumentaryUnitResource
         extends AbstractAccessibleResource<DocumentaryUnit>
         implements GetResource, ListResource, UpdateResource, ParentResource, DeleteResource {
 
+    private final Optional<ExportCache> exportCache;
+
     public DocumentaryUnitResource(@Context GraphDatabaseService database) {
         super(database, DocumentaryUnit.class);
+        exportCache = ExportCache.fromConfig();
     }
 
     @GET
@@ -110,6 +131,13 @@ public class DocumentaryUnitResource
             deleteItem(id);
             tx.success();
         }
+        if (exportCache.isPresent()) {
+            try {
+                exportCache.get().evict(id);
+            } catch (IOException e) {
+                throw new WebApplicationException(e);
+            }
+        }
     }
 
     @POST
@@ -149,7 +177,17 @@ public class DocumentaryUnitResource
             tx.success();
             return Response.ok((StreamingOutput) outputStream -> {
                 try (final Tx tx2 = beginTx()) {
-                    new Ead2002Exporter(api()).export(unit, outputStream, lang);
+                    Api api = api();
+                    EadExporter exporter = new Ead2002Exporter(api);
+                    if (exportCache.isPresent()) {
+                        String key = String.join("/", "ead", lang, api.accessor().getId());
+                        String fingerprint = getSubtreeFingerprint(unit,
+                                AclManager.getAclFilterFunction(api.accessor()));
+                        exportCache.get().write(unit.getId(), key, fingerprint, outputStream,
+                                out -> exporter.export(unit, out, lang), manager::exists);
+                    } else {
+                        exporter.export(unit, outputStream, lang);
+                    }
                     tx2.success();
                 } catch (TransformerException e) {
                     throw new WebApplicationException(e);
@@ -157,4 +195,49 @@ public class DocumentaryUnitResource
             }).type(MediaType.TEXT_XML + "; charset=utf-8").build();
         }
     }
+
+    // A fingerprint of the data in a unit's export: the latest event of
+    // the unit, each of its descendants, and its repository, and of the
+    // links the export draws on, namely copy links and the links of access
+    // points together with the concepts or authorities they point to, and
+    // whether each is visible to the exporting user. Any change made
+    // through the API gives at least one of these a new event, and any
+    // change to what the user may see, by whatever route, changes their
+    // visibility.
+    private static String getSubtreeFingerprint(DocumentaryUnit unit, PipeFunction<Vertex, Boolean> filter) {
+        long count = 0;
+        long sum = 0;
+        for (DocumentaryUnit item : Iterables.concat(Collections.singleton(unit), unit.getAllChildren())) {
+            List<Accessible> parts = Lists.newArrayList(item);
+            addLinks(parts, item.getLinks());
+            for (DocumentaryUnitDescription description : item.getDocumentDescriptions()) {
+                for (AccessPoint accessPoint : description.getAccessPoints()) {
+                    addLinks(parts, accessPoint.getLinks());
+                }
+            }
+            for (Accessible part : parts) {
+                sum += itemHash(part, filter);
+                count++;
+            }
+        }
+        Repository repository = unit.getRepository();
+        return count + "-" + Long.toHexString(sum) + "-"
+                + (repository == null ? 0 : itemHash(repository, filter));
+    }
+
+    private static void addLinks(List<Accessible> parts, Iterable<Link> links) {
+        for (Link link : links) {
+            parts.add(link);
+            Iterables.addAll(parts, link.getLinkTargets());
+        }
+    }
+
+    private static long itemHash(Accessible item, PipeFunction<Vertex, Boolean> filter) {
+        SystemEvent event = item.getLatestEvent();
+        return Hashing.murmur3_128().newHasher()
+                .putString(item.getId(), StandardCharsets.UTF_8)
+                .putString(event == null ? "" : event.getId(), StandardCharsets.UTF_8)
+                .putBoolean(filter.compute(item.asVertex()))
+                .hash().asLong();
+    }
 }
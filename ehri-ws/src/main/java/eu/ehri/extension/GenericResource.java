@@ -57,7 +57,6 @@ import eu.ehri.project.models.events.Version;
 import eu.ehri.project.persistence.Bundle;
 import eu.ehri.project.persistence.Mutation;
 import org.neo4j.graphdb.GraphDatabaseService;
-import org.w3c.dom.Document;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
@@ -69,9 +68,12 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.transform.TransformerException;
 import java.io.IOException;
 import java.util.List;
 import java.util.Set;
@@ -470,16 +472,22 @@ public class GenericResource extends AbstractAccessibleResource<Accessible> {
     @GET
     @Path("{id:[^/]+}/dc")
     @Produces(MediaType.TEXT_XML)
-    public Document exportDc(
+    public Response exportDc(
             @PathParam("id") String id,
             @QueryParam("lang") String langCode)
-            throws AccessDenied, ItemNotFound, IOException {
+            throws AccessDenied, ItemNotFound {
         try (final Tx tx = beginTx()) {
             Described item = api().detail(id, Described.class);
-            DublinCoreExporter exporter = new DublinCore11Exporter(api());
-            Document doc = exporter.export(item, langCode);
             tx.success();
-            return doc;
+            return Response.ok((StreamingOutput) outputStream -> {
+                try (final Tx tx2 = beginTx()) {
+                    DublinCoreExporter exporter = new DublinCore11Exporter(api());
+                    exporter.export(item, outputStream, langCode);
+                    tx2.success();
+                } catch (TransformerException e) {
+                    throw new WebApplicationException(e);
+                }
+            }).type(MediaType.TEXT_XML + "; charset=utf-8").build();
         }
     }
 
@@ -278,6 +278,11 @@ public class ImportResource extends AbstractResource {
      *              scope to synchronise. If missing the scope will be
      *              used
      * @param ex    the ID of an item to be excluded from the sync operation
+     * @param checkpoint a server-side directory in which to keep the
+     *                   sync's state. If given, each phase of the sync
+     *                   is committed as it completes and a failed sync
+     *                   can be resumed by repeating the request with the
+     *                   same data. This requires <code>commit=true</code>.
      * @return a {@link SyncLog} instance.
      */
     @POST
@@ -296,11 +301,16 @@ public class ImportResource extends AbstractResource {
             @QueryParam(IMPORTER_PARAM) String importerClass,
             @QueryParam("ex") Set<String> ex,
             @QueryParam(COMMIT_PARAM) @DefaultValue("false") boolean commit,
+            @QueryParam(CHECKPOINT_PARAM) String checkpoint,
             InputStream data)
             throws ItemNotFound, ValidationError, IOException, DeserializationError {
 
         try (final Tx tx = beginTx()) {
             checkPropertyFile(propertyFile);
+            if (checkpoint != null && !commit) {
+                // Checkpoints commit each phase, so can't be used for a dry run
+                throw new DeserializationError("Checkpoints can only be used when committing the sync");
+            }
             Class<? extends SaxXmlHandler> handler
                     = getHandlerCls(handlerClass, DEFAULT_EAD_HANDLER);
             Class<? extends ItemImporter<?, ?>> importer
@@ -323,6 +333,10 @@ public class ImportResource extends AbstractResource {
             // Note that while the import manager uses the scope, here
             // we use the fonds as the scope, which might be different.
             EadSync syncManager = new EadSync(graph, api(), syncScope, user, importManager);
+            if (checkpoint != null) {
+                syncManager = syncManager.withCheckpoints(Paths.get(checkpoint),
+                        () -> graph.getBaseGraph().commit());
+            }
             SyncLog log = syncManager.sync(m -> importDataStream(m, message, data,
                     MediaType.APPLICATION_XML_TYPE, MediaType.TEXT_XML_TYPE), ex, message);
 
@@ -53,6 +53,7 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -166,6 +167,10 @@ public class ToolsResource extends AbstractResource {
      *                         to slug collisions in the created concepts
      * @param excludeSingle    don't create concepts/links for access points that
      *                         are unique to a single item
+     * @param checkpoint       a server-side directory in which to keep the
+     *                         linker's state. If given, concepts and links
+     *                         are committed in batches and a failed run can
+     *                         be resumed by repeating the request.
      * @return the number of links created
      */
     @POST
@@ -177,13 +182,17 @@ public class ToolsResource extends AbstractResource {
             @QueryParam(ACCESS_POINT_TYPE_PARAM) Set<AccessPointType> accessPointTypes,
             @QueryParam(LANG_PARAM) @DefaultValue(DEFAULT_LANG) String languageCode,
             @QueryParam(SINGLE_PARAM) @DefaultValue("true") boolean excludeSingle,
-            @QueryParam(TOLERANT_PARAM) @DefaultValue("false") boolean tolerant)
+            @QueryParam(TOLERANT_PARAM) @DefaultValue("false") boolean tolerant,
+            @QueryParam(CHECKPOINT_PARAM) String checkpoint)
             throws ItemNotFound, ValidationError, PermissionDenied {
         try (final Tx tx = beginTx()) {
             Actioner user = getCurrentActioner();
             Repository repository = manager.getEntity(repositoryId, Repository.class);
             Vocabulary vocabulary = manager.getEntity(vocabularyId, Vocabulary.class);
 
+            Linker linker = checkpoint == null
+                    ? this.linker
+                    : this.linker.withCheckpoints(Paths.get(checkpoint), () -> graph.getBaseGraph().commit());
             long linkCount = linker
                     .withAccessPointTypes(accessPointTypes)
                     .withTolerant(tolerant)
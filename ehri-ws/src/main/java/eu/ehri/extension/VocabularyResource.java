@@ -33,8 +33,6 @@ import eu.ehri.project.models.base.Entity;
 import eu.ehri.project.models.cvoc.Concept;
 import eu.ehri.project.models.cvoc.Vocabulary;
 import eu.ehri.project.persistence.Bundle;
-import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.RDFWriter;
 import org.neo4j.graphdb.GraphDatabaseService;
 
 import javax.ws.rs.*;
@@ -192,13 +190,14 @@ public class VocabularyResource extends AbstractAccessibleResource<Vocabulary>
                 .inverse().get(rdfFormat));
         try (final Tx tx = beginTx()) {
             final Vocabulary vocabulary = api().detail(id, cls);
-            final JenaSkosExporter skosImporter = new JenaSkosExporter(graph, vocabulary);
-            final Model model = skosImporter.export(base);
+            final JenaSkosExporter skosExporter = new JenaSkosExporter(graph, vocabulary)
+                    .setFormat(rdfFormat);
             tx.success();
             return Response.ok((StreamingOutput) outputStream -> {
-                RDFWriter writer = model.getWriter(rdfFormat);
-                writer.setProperty("relativeURIs", "");
-                writer.write(model, outputStream, base);
+                try (final Tx exportTx = beginTx()) {
+                    skosExporter.export(outputStream, base);
+                    exportTx.success();
+                }
             }).type(mediaType + "; charset=utf-8").build();
         }
     }
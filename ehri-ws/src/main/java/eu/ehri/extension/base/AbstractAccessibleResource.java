@@ -48,9 +48,17 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import javax.xml.transform.TransformerException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -73,6 +81,13 @@ public class AbstractAccessibleResource<E extends Accessible> extends AbstractRe
     public final static String SHOW_PARAM = "show"; // watched, follows
     public final static String AGGREGATION_PARAM = "aggregation";
 
+    // The number of threads rendering items for a zip export, and the
+    // number of rendered items that may wait to be written. Together
+    // these bound the memory used by an export.
+    private static final int EXPORT_THREADS = Math.max(1,
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int EXPORT_QUEUE_DEPTH = EXPORT_THREADS * 2;
+
     protected final AclManager aclManager;
     protected final ActionManager actionManager;
     protected final Class<E> cls;
@@ -271,25 +286,74 @@ public class AbstractAccessibleResource<E extends Accessible> extends AbstractRe
 
     // Helpers
 
+    /**
+     * Export a set of items as XML files streamed in a ZIP file. Items are
+     * rendered by a small pool of worker threads, each with its own
+     * transaction, and written to the archive in their original order, so
+     * only a few rendered items are held in memory at any one time.
+     *
+     * @param exporter an XML exporter
+     * @param items    the items to export
+     * @param lang     a three-letter ISO639-2 code
+     * @return a streaming response
+     */
     protected <T extends Entity> Response exportItemsAsZip(XmlExporter<T> exporter, Iterable<T> items, String lang)
             throws IOException {
         return Response.ok((StreamingOutput) outputStream -> {
+            ExecutorService executor = Executors.newFixedThreadPool(EXPORT_THREADS);
             try (final Tx tx = beginTx();
                  ZipOutputStream zos = new ZipOutputStream(outputStream)) {
+                Deque<Future<byte[]>> pending = new ArrayDeque<>(EXPORT_QUEUE_DEPTH);
+                Deque<String> names = new ArrayDeque<>(EXPORT_QUEUE_DEPTH);
                 for (T item : items) {
-                    ZipEntry zipEntry = new ZipEntry(item.getId() + ".xml");
-                    zipEntry.setComment("Exported from the EHRI portal at " + (DateTime.now()));
-                    zos.putNextEntry(zipEntry);
-                    exporter.export(item, zos, lang);
-                    zos.closeEntry();
+                    if (pending.size() >= EXPORT_QUEUE_DEPTH) {
+                        writeZipEntry(zos, names.removeFirst(), pending.removeFirst());
+                    }
+                    names.addLast(item.getId() + ".xml");
+                    pending.addLast(executor.submit(() -> {
+                        try (final Tx itemTx = beginTx()) {
+                            ByteArrayOutputStream out = new ByteArrayOutputStream();
+                            exporter.export(item, out, lang);
+                            itemTx.success();
+                            return out.toByteArray();
+                        }
+                    }));
+                }
+                while (!pending.isEmpty()) {
+                    writeZipEntry(zos, names.removeFirst(), pending.removeFirst());
                 }
                 tx.success();
-            } catch (TransformerException e) {
-                throw new WebApplicationException(e);
+            } finally {
+                executor.shutdownNow();
             }
         }).type("application/zip").build();
     }
 
+    private static void writeZipEntry(ZipOutputStream zos, String name, Future<byte[]> data) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = data.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted exporting " + name);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof TransformerException) {
+                throw new WebApplicationException(cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        ZipEntry zipEntry = new ZipEntry(name);
+        zipEntry.setComment("Exported from the EHRI portal at " + (DateTime.now()));
+        zos.putNextEntry(zipEntry);
+        zos.write(bytes);
+        zos.closeEntry();
+    }
+
     /**
      * Get an event query builder object.
      *
@@ -121,6 +121,7 @@ public abstract class AbstractResource implements TxCheckedResource {
     public static final String TOLERANT_PARAM = "tolerant";
     public static final String LANG_PARAM = "lang";
     public static final String COMMIT_PARAM = "commit";
+    public static final String CHECKPOINT_PARAM = "checkpoint";
 
     /**
      * Default to English... can't set this through config
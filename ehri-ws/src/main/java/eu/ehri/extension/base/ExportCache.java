@@ -0,0 +1,246 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.extension.base;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.transform.TransformerException;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * An on-disk cache of rendered exports.
+ * <p>
+ * Entries are grouped by the ID of the exported item, and within that
+ * addressed by a key identifying what was rendered (the format, language
+ * and requesting user) and a fingerprint of the data it was rendered
+ * from. While the fingerprint matches the cached output is copied to the
+ * response without rendering; when it does not the output is rendered
+ * again and the stale entries for the key are dropped.
+ * <p>
+ * The cache is kept below a maximum size by dropping the least recently
+ * used entries, and the entries of items that no longer exist are
+ * removed. Since that means walking the whole cache, it is done when a
+ * new entry is stored, but no more than once in a given interval.
+ */
+public class ExportCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportCache.class);
+    private static final Config config = ConfigFactory.load();
+
+    // A file in each item's directory recording the item's ID,
+    // which the directory name, being a hash, does not give.
+    private static final String ID_FILE = "id";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    // Resources are created per request, so the configured cache,
+    // and with it the time it was last trimmed, is shared.
+    private static final Optional<ExportCache> configured = createFromConfig();
+
+    private final Path directory;
+    private final long maxSize;
+    private final long trimIntervalMillis;
+    private final AtomicLong lastTrimmed = new AtomicLong();
+
+    /**
+     * A function that renders an export to a stream.
+     */
+    public interface Renderer {
+        void render(OutputStream outputStream) throws IOException, TransformerException;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param directory the cache directory
+     * @param maxSize      the size in bytes above which entries are dropped
+     * @param trimInterval the minimum time between trimming the cache
+     */
+    public ExportCache(Path directory, long maxSize, Duration trimInterval) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.trimIntervalMillis = trimInterval.toMillis();
+    }
+
+    /**
+     * Get the configured export cache. Unless another directory is
+     * configured the cache is kept in the system temporary directory.
+     *
+     * @return an export cache, or nothing if caching is disabled
+     */
+    public static Optional<ExportCache> fromConfig() {
+        return configured;
+    }
+
+    private static Optional<ExportCache> createFromConfig() {
+        if (!config.getBoolean("ws.export.cache.enabled")) {
+            return Optional.empty();
+        }
+        String dir = config.getString("ws.export.cache.directory");
+        Path path = dir.isEmpty()
+                ? Paths.get(System.getProperty("java.io.tmpdir"), "ehri-export-cache")
+                : Paths.get(dir);
+        return Optional.of(new ExportCache(path, config.getBytes("ws.export.cache.max-size"),
+                config.getDuration("ws.export.cache.trim-interval")));
+    }
+
+    /**
+     * Write an export to a stream, from the cache if an entry with the
+     * given key and fingerprint exists, otherwise by rendering it and
+     * storing the output for next time.
+     *
+     * @param id           the ID of the exported item
+     * @param key          a key identifying the export of the item
+     * @param fingerprint  a fingerprint of the exported data
+     * @param outputStream the output stream
+     * @param renderer     a function that renders the export
+     * @param exists       a predicate telling whether an item still
+     *                     exists, used to drop the entries of deleted
+     *                     items when the cache is trimmed
+     */
+    public void write(String id, String key, String fingerprint, OutputStream outputStream,
+            Renderer renderer, Predicate<String> exists) throws IOException, TransformerException {
+        Path itemDir = directory.resolve(hash(id));
+        Path entryDir = itemDir.resolve(hash(key));
+        Path entry = entryDir.resolve(hash(fingerprint));
+        try {
+            Files.copy(entry, outputStream);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            logger.trace("Export cache hit: {} {}", id, key);
+            return;
+        } catch (NoSuchFileException e) {
+            logger.trace("Export cache miss: {} {}", id, key);
+        }
+
+        Files.createDirectories(entryDir);
+        Files.write(itemDir.resolve(ID_FILE), id.getBytes(StandardCharsets.UTF_8));
+        Path tmp = Files.createTempFile(entryDir, "render-", TMP_SUFFIX);
+        try {
+            try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                renderer.render(new TeeOutputStream(outputStream, file));
+            }
+            // Drop any entries for this key rendered from older data.
+            try (DirectoryStream<Path> stale = Files.newDirectoryStream(entryDir, p -> !p.equals(tmp))) {
+                for (Path path : stale) {
+                    if (!path.getFileName().toString().endsWith(TMP_SUFFIX)) {
+                        Files.deleteIfExists(path);
+                    }
+                }
+            }
+            Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        long now = System.currentTimeMillis();
+        long last = lastTrimmed.get();
+        if (now - last >= trimIntervalMillis && lastTrimmed.compareAndSet(last, now)) {
+            try {
+                trim(exists);
+            } catch (IOException e) {
+                // Entries may be replaced or evicted while trimming
+                logger.warn("Unable to trim export cache: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Drop all the cached exports of an item.
+     *
+     * @param id the item ID
+     */
+    public void evict(String id) throws IOException {
+        FileUtils.deleteDirectory(directory.resolve(hash(id)).toFile());
+    }
+
+    /**
+     * Drop the entries of items that no longer exist, then the least
+     * recently used entries until the cache is within its maximum size.
+     *
+     * @param exists a predicate telling whether an item still exists
+     */
+    void trim(Predicate<String> exists) throws IOException {
+        List<Path> entries = Lists.newArrayList();
+        try (DirectoryStream<Path> itemDirs = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path itemDir : itemDirs) {
+                Path idFile = itemDir.resolve(ID_FILE);
+                if (Files.exists(idFile)
+                        && !exists.test(new String(Files.readAllBytes(idFile), StandardCharsets.UTF_8))) {
+                    FileUtils.deleteDirectory(itemDir.toFile());
+                    continue;
+                }
+                try (DirectoryStream<Path> entryDirs = Files.newDirectoryStream(itemDir, Files::isDirectory)) {
+                    for (Path entryDir : entryDirs) {
+                        try (DirectoryStream<Path> files = Files.newDirectoryStream(entryDir,
+                                p -> !p.getFileName().toString().endsWith(TMP_SUFFIX))) {
+                            files.forEach(entries::add);
+                        }
+                    }
+                }
+            }
+        }
+
+        long size = 0;
+        Map<Path, BasicFileAttributes> attrs = Maps.newHashMap();
+        for (Path entry : entries) {
+            BasicFileAttributes attr = Files.readAttributes(entry, BasicFileAttributes.class);
+            attrs.put(entry, attr);
+            size += attr.size();
+        }
+        entries.sort(Comparator.comparing(entry -> attrs.get(entry).lastModifiedTime()));
+        for (Path entry : entries) {
+            if (size <= maxSize) {
+                break;
+            }
+            Files.deleteIfExists(entry);
+            size -= attrs.get(entry).size();
+        }
+    }
+
+    private static String hash(String value) {
+        return Hashing.sha256().hashString(value, StandardCharsets.UTF_8).toString();
+    }
+}
@@ -19,6 +19,7 @@
 
 package eu.ehri.extension.test;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import eu.ehri.extension.AdminResource;
@@ -30,7 +31,9 @@ import org.junit.Test;
 
 import javax.ws.rs.core.MediaType;
 
+import static com.sun.jersey.api.client.ClientResponse.Status.BAD_REQUEST;
 import static com.sun.jersey.api.client.ClientResponse.Status.CREATED;
+import static com.sun.jersey.api.client.ClientResponse.Status.NO_CONTENT;
 import static com.sun.jersey.api.client.ClientResponse.Status.OK;
 import static eu.ehri.extension.base.AbstractResource.AUTH_HEADER_NAME;
 import static eu.ehri.extension.AdminResource.ENDPOINT;
@@ -84,6 +87,75 @@ public class AdminResourceClientTest extends AbstractResourceClientTest {
         assertStatus(OK, response);
     }
 
+    @Test
+    public void testExportChanges() throws Exception {
+        ClientResponse create = client.resource(ehriUri(ENDPOINT, "create-default-user-profile"))
+                .accept(MediaType.APPLICATION_JSON)
+                .type(MediaType.APPLICATION_JSON).post(ClientResponse.class);
+        assertStatus(CREATED, create);
+        String userId = create.getEntity(Bundle.class).getId();
+
+        WebResource resource = client.resource(ehriUri(ENDPOINT, "export-changes"));
+        ClientResponse response = resource.header(AUTH_HEADER_NAME, ADMIN_GROUP_IDENTIFIER)
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        JsonNode changes = jsonMapper.readTree(response.getEntity(String.class));
+        String checkpoint = changes.path("checkpoint").asText();
+        assertFalse(checkpoint.isEmpty());
+        assertTrue(changes.path("changes").findValuesAsText(Bundle.ID_KEY).contains(userId));
+
+        // Nothing has changed since the checkpoint
+        response = resource.queryParam(AdminResource.SINCE_PARAM, checkpoint)
+                .header(AUTH_HEADER_NAME, ADMIN_GROUP_IDENTIFIER)
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        JsonNode none = jsonMapper.readTree(response.getEntity(String.class));
+        assertEquals(checkpoint, none.path("checkpoint").asText());
+        assertEquals(0, none.path("changes").size());
+
+        // An unknown checkpoint is an error
+        response = resource.queryParam(AdminResource.SINCE_PARAM, "not-an-event")
+                .header(AUTH_HEADER_NAME, ADMIN_GROUP_IDENTIFIER)
+                .get(ClientResponse.class);
+        assertStatus(BAD_REQUEST, response);
+    }
+
+    @Test
+    public void testExportChangesHidesRestrictedDeletions() throws Exception {
+        // Create and delete an item only admins can see
+        ClientResponse response = client.resource(entityUri(Entities.DOCUMENTARY_UNIT, "c4"))
+                .queryParam(AbstractResource.ACCESSOR_PARAM, ADMIN_GROUP_IDENTIFIER)
+                .accept(MediaType.APPLICATION_JSON)
+                .type(MediaType.APPLICATION_JSON)
+                .header(AUTH_HEADER_NAME, getAdminUserProfileId())
+                .entity(readResourceFileAsString("DocumentaryUnit.json"))
+                .post(ClientResponse.class);
+        assertStatus(CREATED, response);
+        String id = response.getEntity(Bundle.class).getId();
+        response = callAs(getAdminUserProfileId(), entityUri(Entities.DOCUMENTARY_UNIT, id))
+                .delete(ClientResponse.class);
+        assertStatus(NO_CONTENT, response);
+
+        WebResource resource = client.resource(ehriUri(ENDPOINT, "export-changes"));
+        response = resource.header(AUTH_HEADER_NAME, getAdminUserProfileId())
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        assertTrue(jsonMapper.readTree(response.getEntity(String.class))
+                .path("changes").findValuesAsText(Bundle.ID_KEY).contains(id));
+
+        response = resource.header(AUTH_HEADER_NAME, getRegularUserProfileId())
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        assertFalse(jsonMapper.readTree(response.getEntity(String.class))
+                .path("changes").findValuesAsText(Bundle.ID_KEY).contains(id));
+
+        // Nor are anonymous users
+        response = resource.get(ClientResponse.class);
+        assertStatus(OK, response);
+        assertFalse(jsonMapper.readTree(response.getEntity(String.class))
+                .path("changes").findValuesAsText(Bundle.ID_KEY).contains(id));
+    }
+
     @Test
     public void testCreateDefaultUser() throws Exception {
         // Create
@@ -40,6 +40,7 @@ import java.util.List;
 import static com.sun.jersey.api.client.ClientResponse.Status.BAD_REQUEST;
 import static com.sun.jersey.api.client.ClientResponse.Status.CREATED;
 import static com.sun.jersey.api.client.ClientResponse.Status.NOT_FOUND;
+import static com.sun.jersey.api.client.ClientResponse.Status.NO_CONTENT;
 import static com.sun.jersey.api.client.ClientResponse.Status.OK;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.not;
@@ -376,6 +377,73 @@ public class DocumentaryUnitResourceClientTest extends AbstractResourceClientTes
         assertEquals(PARTIAL_NAME, updatedEntityBundle.getDataValue(Ontology.NAME_KEY));
     }
 
+    @Test
+    public void testExportEadReflectsChanges() throws Exception {
+        URI uri = entityUri(Entities.DOCUMENTARY_UNIT, FIRST_DOC_ID, "ead");
+        ClientResponse response = callAs(getAdminUserProfileId(), uri).get(ClientResponse.class);
+        assertStatus(OK, response);
+        String ead = response.getEntity(String.class);
+        assertThat(ead, not(containsString(CREATED_ID)));
+        response = callAs(getAdminUserProfileId(), uri).get(ClientResponse.class);
+        assertStatus(OK, response);
+        assertEquals(ead, response.getEntity(String.class));
+
+        // Adding a child changes the export...
+        response = jsonCallAs(getAdminUserProfileId(),
+                entityUri(Entities.DOCUMENTARY_UNIT, FIRST_DOC_ID))
+                .entity(jsonDocumentaryUnitTestStr).post(ClientResponse.class);
+        assertStatus(CREATED, response);
+        response = callAs(getAdminUserProfileId(), uri).get(ClientResponse.class);
+        assertStatus(OK, response);
+        assertThat(response.getEntity(String.class), containsString(CREATED_ID));
+    }
+
+    @Test
+    public void testExportEadReflectsAccessChanges() throws Exception {
+        // Add a child to c4 that only the admin group can see...
+        ClientResponse response = client.resource(entityUri(Entities.DOCUMENTARY_UNIT, "c4"))
+                .queryParam(AbstractResource.ACCESSOR_PARAM, "admin")
+                .accept(MediaType.APPLICATION_JSON)
+                .type(MediaType.APPLICATION_JSON)
+                .header(AbstractResource.AUTH_HEADER_NAME, getAdminUserProfileId())
+                .entity(jsonDocumentaryUnitTestStr)
+                .post(ClientResponse.class);
+        assertStatus(CREATED, response);
+
+        URI uri = entityUri(Entities.DOCUMENTARY_UNIT, "c4", "ead");
+        response = callAs(getRegularUserProfileId(), uri).get(ClientResponse.class);
+        assertStatus(OK, response);
+        assertThat(response.getEntity(String.class), not(containsString(CREATED_ID)));
+
+        // Joining the admin group changes no item but makes the child
+        // visible, so the export must change too.
+        response = jsonCallAs(getAdminUserProfileId(),
+                entityUri(Entities.GROUP, "admin", getRegularUserProfileId()))
+                .post(ClientResponse.class);
+        assertStatus(NO_CONTENT, response);
+        response = callAs(getRegularUserProfileId(), uri).get(ClientResponse.class);
+        assertStatus(OK, response);
+        assertThat(response.getEntity(String.class), containsString(CREATED_ID));
+    }
+
+    @Test
+    public void testExportEadReflectsLinkChanges() throws Exception {
+        URI uri = entityUri(Entities.DOCUMENTARY_UNIT, "c4", "ead");
+        ClientResponse response = callAs(getAdminUserProfileId(), uri).get(ClientResponse.class);
+        assertStatus(OK, response);
+        assertThat(response.getEntity(String.class), containsString("original location of c4"));
+
+        // Updating the copy link changes no unit, but does change the export
+        Bundle link = getEntity(Entities.LINK, "link4", getAdminUserProfileId());
+        response = jsonCallAs(getAdminUserProfileId(), entityUri(Entities.LINK, "link4"))
+                .entity(link.withDataValue(Ontology.LINK_HAS_DESCRIPTION, "Copied from elsewhere").toJson())
+                .put(ClientResponse.class);
+        assertStatus(OK, response);
+        response = callAs(getAdminUserProfileId(), uri).get(ClientResponse.class);
+        assertStatus(OK, response);
+        assertThat(response.getEntity(String.class), containsString("Copied from elsewhere"));
+    }
+
     private URI getCreationUri() {
         return entityUri(Entities.REPOSITORY, TEST_HOLDER_IDENTIFIER);
     }
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.extension.test;
+
+import com.google.common.collect.Sets;
+import eu.ehri.extension.base.ExportCache;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExportCacheTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final AtomicInteger renders = new AtomicInteger();
+
+    private String export(ExportCache cache, String id, Set<String> existing) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cache.write(id, "ead", "v1", out, o -> {
+            renders.incrementAndGet();
+            o.write(("export of " + id).getBytes(StandardCharsets.UTF_8));
+        }, existing::contains);
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        ExportCache cache = new ExportCache(tempFolder.getRoot().toPath(), 1024, Duration.ZERO);
+        Set<String> existing = Sets.newHashSet("c1");
+        assertEquals("export of c1", export(cache, "c1", existing));
+        assertEquals("export of c1", export(cache, "c1", existing));
+        assertEquals(1, renders.get());
+        cache.evict("c1");
+        assertEquals("export of c1", export(cache, "c1", existing));
+        assertEquals(2, renders.get());
+    }
+
+    @Test
+    public void testTrimDropsDeletedItems() throws Exception {
+        ExportCache cache = new ExportCache(tempFolder.getRoot().toPath(), 1024, Duration.ZERO);
+        Set<String> existing = Sets.newHashSet("c1", "c2");
+        export(cache, "c1", existing);
+        existing.remove("c1");
+        export(cache, "c2", existing);
+        existing.add("c1");
+        export(cache, "c1", existing);
+        assertEquals(3, renders.get());
+    }
+
+    @Test
+    public void testTrimInterval() throws Exception {
+        ExportCache cache = new ExportCache(tempFolder.getRoot().toPath(), 1024, Duration.ofHours(1));
+        Set<String> existing = Sets.newHashSet("c1", "c2");
+        export(cache, "c1", existing);
+        existing.remove("c1");
+        // Not trimmed again within the interval, so c1 is still cached
+        export(cache, "c2", existing);
+        existing.add("c1");
+        export(cache, "c1", existing);
+        assertEquals(2, renders.get());
+    }
+
+    @Test
+    public void testTrimDropsLeastRecentlyUsed() throws Exception {
+        // Room for two exports only...
+        ExportCache cache = new ExportCache(tempFolder.getRoot().toPath(), 25, Duration.ZERO);
+        Set<String> existing = Sets.newHashSet("c1", "c2", "c3");
+        export(cache, "c1", existing);
+        Thread.sleep(10);
+        export(cache, "c2", existing);
+        Thread.sleep(10);
+        export(cache, "c1", existing);
+        Thread.sleep(10);
+        export(cache, "c3", existing);
+        assertEquals(3, renders.get());
+        // c2 was dropped, the others are still cached
+        export(cache, "c1", existing);
+        export(cache, "c3", existing);
+        assertEquals(3, renders.get());
+        export(cache, "c2", existing);
+        assertEquals(4, renders.get());
+    }
+}
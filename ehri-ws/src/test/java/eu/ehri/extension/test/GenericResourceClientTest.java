@@ -117,6 +117,16 @@ public class GenericResourceClientTest extends AbstractResourceClientTest {
         assertEquals(ITEM1, idValue.textValue());
     }
 
+    @Test
+    public void testExportDc() throws Exception {
+        ClientResponse response = callAs(getAdminUserProfileId(),
+                ehriUri(ENDPOINT, ITEM1, "dc")).get(ClientResponse.class);
+        assertStatus(OK, response);
+        String xml = response.getEntity(String.class);
+        assertTrue(xml.contains("<oai_dc:dc"));
+        assertTrue(xml.contains("<dc:identifier>c1</dc:identifier>"));
+    }
+
     @Test
     public void getCannotFetchNonContentTypes() throws Exception {
         ClientResponse response = jsonCallAs(getAdminUserProfileId(),
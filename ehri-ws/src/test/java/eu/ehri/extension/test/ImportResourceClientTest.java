@@ -430,6 +430,50 @@ public class ImportResourceClientTest extends AbstractResourceClientTest {
 
     }
 
+    @Test
+    public void testResumeSyncEadFromCheckpoint() throws Exception {
+        java.nio.file.Path dir = Files.createTempDirectory("ead-sync-test-");
+        try {
+            // The ingest fails on invalid data after the sync's
+            // first phase has been committed...
+            URI uri = getImportUrl("ead-sync", "r1", "Resumed sync", false)
+                    .queryParam(HANDLER_PARAM, EadHandler.class.getName())
+                    .queryParam(COMMIT_PARAM, true)
+                    .queryParam(CHECKPOINT_PARAM, dir.toString())
+                    .build();
+            ClientResponse response = callAs(getAdminUserProfileId(), uri)
+                    .type(MediaType.TEXT_XML_TYPE)
+                    .entity(getClass().getClassLoader().getResourceAsStream("invalid-ead.xml"))
+                    .post(ClientResponse.class);
+            assertStatus(ClientResponse.Status.BAD_REQUEST, response);
+            assertTrue(Files.exists(dir.resolve("checkpoint")));
+
+            // ... so repeating it with good data resumes from there.
+            response = callAs(getAdminUserProfileId(), uri)
+                    .type(MediaType.TEXT_PLAIN_TYPE)
+                    .entity(getPayloadStream(HIERARCHICAL_EAD))
+                    .post(ClientResponse.class);
+            assertStatus(ClientResponse.Status.OK, response);
+            SyncLog log = response.getEntity(SyncLog.class);
+            assertEquals(5, log.deleted().size());
+            assertEquals(5, log.log().getCreated());
+            assertFalse(Files.exists(dir.resolve("checkpoint")));
+
+            // Checkpoints commit as they go, so can't be used in a dry run
+            URI dryRun = getImportUrl("ead-sync", "r1", "Dry run", false)
+                    .queryParam(HANDLER_PARAM, EadHandler.class.getName())
+                    .queryParam(CHECKPOINT_PARAM, dir.toString())
+                    .build();
+            response = callAs(getAdminUserProfileId(), dryRun)
+                    .type(MediaType.TEXT_PLAIN_TYPE)
+                    .entity(getPayloadStream(HIERARCHICAL_EAD))
+                    .post(ClientResponse.class);
+            assertStatus(ClientResponse.Status.BAD_REQUEST, response);
+        } finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
     @Test
     public void testImportEag() throws Exception {
         InputStream payloadStream = getClass()
@@ -28,15 +28,19 @@ import com.sun.jersey.core.util.MultivaluedMapImpl;
 import eu.ehri.extension.base.AbstractResource;
 import eu.ehri.project.utils.Table;
 import eu.ehri.project.definitions.Entities;
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
 import javax.ws.rs.core.MultivaluedMap;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collections;
 
 import static com.sun.jersey.api.client.ClientResponse.Status.OK;
 import static eu.ehri.extension.ToolsResource.ENDPOINT;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 
@@ -54,6 +58,25 @@ public class ToolsResourceClientTest extends AbstractResourceClientTest {
         System.out.println(response.getEntity(String.class));
     }
 
+    @Test
+    public void testGenerateConceptsWithCheckpoints() throws Exception {
+        Path dir = Files.createTempDirectory("linker-test-");
+        try {
+            WebResource resource = client.resource(ehriUri(ENDPOINT, "generate-concepts", "r1", "cvoc2"))
+                    .queryParam("single", "false")
+                    .queryParam(AbstractResource.CHECKPOINT_PARAM, dir.toString());
+            ClientResponse response = resource
+                    .header(AbstractResource.AUTH_HEADER_NAME, getAdminUserProfileId())
+                    .post(ClientResponse.class);
+            assertStatus(OK, response);
+            assertEquals("2", response.getEntity(String.class));
+            // The state is removed once linking completes
+            assertFalse(Files.exists(dir.resolve("checkpoint")));
+        } finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
     @Test
     public void testFindReplace() throws Exception {
         WebResource resource = client.resource(ehriUri(ENDPOINT, "find-replace"))